@@ -5,9 +5,22 @@ import guru.interlis.convconf.file.CsvDirectoryAdapter;
 import guru.interlis.convconf.file.XlsxWorkbookAdapter;
 import guru.interlis.convconf.h2.H2Adapter;
 import guru.interlis.convconf.postgresql.PostgreSqlAdapter;
+import guru.interlis.convconf.runtime.ConversionEngine;
+import guru.interlis.convconf.runtime.ConversionOptions;
+import guru.interlis.convconf.runtime.DeltaStats;
+import guru.interlis.convconf.runtime.IdentStrategy;
+import guru.interlis.convconf.runtime.JdbcReadOptions;
+import guru.interlis.convconf.runtime.JdbcRecordAdapter;
+import guru.interlis.convconf.runtime.JdbcWriteOptions;
+import guru.interlis.convconf.runtime.PipelineStats;
+import guru.interlis.convconf.runtime.PooledJdbcAdapter;
 import guru.interlis.convconf.runtime.RecordSourceReader;
 import guru.interlis.convconf.runtime.RecordTargetWriter;
-import guru.interlis.convconf.runtime.TraceEvent;
+import guru.interlis.convconf.runtime.TraceFilter;
+import guru.interlis.convconf.runtime.TraceSink;
+import guru.interlis.convconf.trace.AsyncFileTraceSink;
+import guru.interlis.convconf.trace.BinaryTraceReader;
+import guru.interlis.convconf.trace.TraceFormat;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Model.CommandSpec;
@@ -18,10 +31,12 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.Callable;
+import java.util.function.Function;
 
 /** CLI for compile/check/plan/convert tasks in the ConvConf PoC. */
 @Command(name = "convconf", mixinStandardHelpOptions = true,
@@ -34,7 +49,8 @@ import java.util.concurrent.Callable;
                 ConvConfCli.ConvertCsvToH2.class,
                 ConvConfCli.ConvertH2ToCsv.class,
                 ConvConfCli.ConvertXlsxToH2.class,
-                ConvConfCli.ConvertH2ToXlsx.class
+                ConvConfCli.ConvertH2ToXlsx.class,
+                ConvConfCli.TraceQuery.class
         })
 public class ConvConfCli implements Runnable {
     @Override public void run() { CommandLine.usage(this, System.out); }
@@ -85,16 +101,190 @@ public class ConvConfCli implements Runnable {
     }
 
     abstract static class BaseConvert {
-        @Option(names = "--trace-out") Path traceOut;
+        @Option(names = "--trace-out", description = "Stream field-level trace lines to this file while converting") Path traceOut;
+        @Option(names = "--trace-format", defaultValue = "text",
+                description = "Trace file format: text or binary (indexed, for trace-query) (default: ${DEFAULT-VALUE})") String traceFormat;
+        @Option(names = "--trace-class", split = ",", description = "Trace only these KM classes (comma separated)") List<String> traceClasses = List.of();
+        @Option(names = "--trace-table", split = ",", description = "Trace only these source/target tables (comma separated)") List<String> traceTables = List.of();
+        @Option(names = "--trace-ident", split = ",", description = "Trace only records with these idents (comma separated)") List<String> traceIdents = List.of();
+        @Option(names = "--trace-phase", split = ",", description = "Trace only these phases: READ, WRITE") List<String> tracePhases = List.of();
+        @Option(names = "--trace-every", defaultValue = "1", description = "Trace only every n-th record of each declaration (default: ${DEFAULT-VALUE})") int traceEvery;
+        @Option(names = "--trace-sample", defaultValue = "1.0", description = "Fraction of idents to trace, chosen by a stable ident hash (default: ${DEFAULT-VALUE})") double traceSample;
+        @Option(names = "--streaming", description = "Stream records to the target in bounded chunks instead of materializing them") boolean streaming;
+        @Option(names = "--chunk-size", defaultValue = "" + ConversionOptions.DEFAULT_CHUNK_SIZE,
+                description = "Maximum number of buffered target rows in streaming mode (default: ${DEFAULT-VALUE})") int chunkSize;
+        @Option(names = "--pipelined", description = "Run reading, mapping and writing concurrently with bounded queues (implies streaming)") boolean pipelined;
+        @Option(names = "--queue-capacity", defaultValue = "" + ConversionOptions.DEFAULT_QUEUE_CAPACITY,
+                description = "Capacity of each pipeline queue in batches of " + ConversionOptions.PIPELINE_BATCH_SIZE + " rows (default: ${DEFAULT-VALUE})") int queueCapacity;
+        @Option(names = "--parallelism", defaultValue = "1",
+                description = "Number of declarations read/written concurrently in in-memory mode; JDBC endpoints then use one connection per worker (default: ${DEFAULT-VALUE})") int parallelism;
+        @Option(names = "--memory-budget", defaultValue = "0",
+                description = "Heap budget for canonical records in in-memory mode before they are spilled to disk, e.g. 512m or 8g; NESTING/ANNEXE indexes must fit into it (default: ${DEFAULT-VALUE} = unlimited)") String memoryBudget;
+        @Option(names = "--spill-dir", description = "Directory for spilled canonical records (default: system temp directory)") Path spillDir;
+        @Option(names = "--ident-strategy", defaultValue = "content-hash",
+                description = "Idents for source DATA without IDENT column: content-hash (reproducible; identical rows are numbered), counter, uuidv7 or random-uuid (default: ${DEFAULT-VALUE})") String identStrategy;
+        @Option(names = "--max-errors", defaultValue = "1000",
+                description = "Abort after this many KM validation errors (default: ${DEFAULT-VALUE})") int maxErrors;
+        @Option(names = "--fetch-size", defaultValue = "" + JdbcReadOptions.DEFAULT_FETCH_SIZE,
+                description = "Rows fetched per round trip when streaming JDBC sources; 0 keeps the driver defaults (default: ${DEFAULT-VALUE})") int fetchSize;
+        @Option(names = "--pg-copy", defaultValue = "none",
+                description = "Bulk transfer of PostgreSQL endpoints with COPY: none, text or binary (default: ${DEFAULT-VALUE})") String pgCopy;
+        @Option(names = "--batch-size", defaultValue = "" + JdbcWriteOptions.DEFAULT_BATCH_SIZE,
+                description = "Rows per JDBC insert batch (default: ${DEFAULT-VALUE})") int batchSize;
+        @Option(names = "--commit-every", defaultValue = "0",
+                description = "Commit JDBC targets every n batches and at the end of the run; a failed run keeps the committed batches. Not with --single-transaction; 0 leaves commits to autocommit (default: ${DEFAULT-VALUE})") int commitEvery;
+        @Option(names = "--single-transaction", description = "Write JDBC targets in one transaction per run, rolled back on failure (not with --parallelism > 1 in in-memory mode)") boolean singleTransaction;
+        @Option(names = "--join-pushdown", description = "Run JOIN declarations inside the source SQL instead of as hash joins (JDBC sources)") boolean joinPushdown;
+        @Option(names = "--checkpoint", description = "Record the written source position in this file after every chunk (implies streaming unless pipelined; not with --single-transaction or --commit-every; source DATA without IDENT column need --ident-strategy counter or content-hash)") Path checkpoint;
+        @Option(names = "--resume", description = "Continue a failed run after the position recorded in --checkpoint") boolean resume;
+        @Option(names = "--delta-state", description = "Incremental run: write only changes against the content hashes in this state file (created on the first run, replaced after the target committed); source DATA without IDENT column need --ident-strategy content-hash") Path deltaState;
+
+        protected JdbcReadOptions readOptions() {
+            return new JdbcReadOptions(fetchSize);
+        }
 
-        protected void writeTrace(java.util.List<TraceEvent> trace) throws Exception {
-            if (traceOut == null) return;
-            StringBuilder sb = new StringBuilder();
-            for (TraceEvent e : trace) {
-                sb.append(e.phase()).append('|').append(e.className()).append('|').append(e.ident()).append('|')
-                        .append(e.sourceColumn()).append("->").append(e.targetPath()).append('|').append(e.value()).append('|').append(e.detail()).append('\n');
+        protected JdbcWriteOptions writeOptions() {
+            if (singleTransaction && commitEvery > 0) {
+                throw new IllegalArgumentException("--commit-every is not allowed with --single-transaction");
+            }
+            if (checkpoint != null && (singleTransaction || commitEvery > 0)) {
+                throw new IllegalArgumentException("--checkpoint is not allowed with --single-transaction or --commit-every");
+            }
+            if (singleTransaction && pooled()) {
+                throw new IllegalArgumentException("--single-transaction is not allowed with --parallelism > 1 in in-memory mode");
+            }
+            return new JdbcWriteOptions(batchSize, commitEvery, singleTransaction);
+        }
+
+        protected H2Adapter h2Adapter(Connection connection) {
+            return new H2Adapter(connection, readOptions(), writeOptions());
+        }
+
+        protected PostgreSqlAdapter postgreSqlAdapter(Connection connection) {
+            return new PostgreSqlAdapter(connection, readOptions(), writeOptions(), PostgreSqlAdapter.CopyFormat.parse(pgCopy));
+        }
+
+        protected JdbcEndpoint h2Endpoint(String jdbc) throws SQLException {
+            return jdbcEndpoint(() -> DriverManager.getConnection(jdbc, "sa", ""), this::h2Adapter);
+        }
+
+        protected JdbcEndpoint postgreSqlEndpoint(String jdbc, String user, String password) throws SQLException {
+            return jdbcEndpoint(() -> DriverManager.getConnection(jdbc, PostgreSqlAdapter.connectionProperties(jdbc, user, password)), this::postgreSqlAdapter);
+        }
+
+        /**
+         * Connects a JDBC endpoint: parallel in-memory runs read and write through a
+         * {@link PooledJdbcAdapter} with one connection per worker, all other runs over one connection.
+         */
+        private JdbcEndpoint jdbcEndpoint(PooledJdbcAdapter.ConnectionFactory connections,
+                                          Function<Connection, ? extends JdbcRecordAdapter> adapters) throws SQLException {
+            if (pooled()) {
+                PooledJdbcAdapter pool = new PooledJdbcAdapter(connections, adapters);
+                return new JdbcEndpoint(pool, pool, pool);
+            }
+            Connection connection = connections.connect();
+            JdbcRecordAdapter adapter = adapters.apply(connection);
+            return new JdbcEndpoint(adapter, adapter, connection);
+        }
+
+        private boolean pooled() {
+            return parallelism > 1 && mode() == ConversionOptions.Mode.IN_MEMORY;
+        }
+
+        protected ConversionOptions.Mode mode() {
+            return deltaState != null ? ConversionOptions.Mode.INCREMENTAL
+                    : pipelined ? ConversionOptions.Mode.PIPELINED
+                    : streaming || checkpoint != null ? ConversionOptions.Mode.STREAMING : ConversionOptions.Mode.IN_MEMORY;
+        }
+
+        protected ConversionOptions conversionOptions() {
+            return ConversionOptions.defaults()
+                    .withMode(mode())
+                    .withChunkSize(chunkSize)
+                    .withQueueCapacity(queueCapacity)
+                    .withParallelism(parallelism)
+                    .withMemoryBudget(parseSize(memoryBudget))
+                    .withSpillDirectory(spillDir)
+                    .withIdentStrategy(IdentStrategy.parse(identStrategy))
+                    .withDeltaState(deltaState)
+                    .withCheckpoint(checkpoint)
+                    .withResume(resume)
+                    .withJoinPushdown(joinPushdown)
+                    .withMaxValidationErrors(maxErrors)
+                    .withTraceFilter(TraceFilter.ALL
+                            .withClasses(traceClasses)
+                            .withTables(traceTables)
+                            .withIdents(traceIdents)
+                            .withPhases(tracePhases)
+                            .withEveryNth(traceEvery)
+                            .withSampleRate(traceSample));
+        }
+
+        /**
+         * Runs the conversion, streaming the trace to {@code --trace-out} while it runs. Spilled
+         * canonical records are deleted once the run is reported.
+         */
+        protected ConversionEngine.ConversionResult convert(Path km, Path sourceLm, Path targetLm,
+                                                            RecordSourceReader reader, RecordTargetWriter writer) throws Exception {
+            ConversionEngine.ConversionResult result;
+            try (TraceSink trace = traceOut == null ? null : new AsyncFileTraceSink(traceOut, TraceFormat.parse(traceFormat))) {
+                result = new ConvConfService().convert(km, sourceLm, targetLm, reader, writer, conversionOptions(), trace);
+            }
+            try (var canonical = result.canonicalStore()) {
+                report(result);
+            }
+            return result;
+        }
+
+        /** Parses a byte size with an optional {@code k}, {@code m} or {@code g} suffix. */
+        static long parseSize(String raw) {
+            String value = raw.trim().toLowerCase(Locale.ROOT);
+            long unit = switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+                case 'k' -> 1L << 10;
+                case 'm' -> 1L << 20;
+                case 'g' -> 1L << 30;
+                default -> 1;
+            };
+            try {
+                return Math.multiplyExact(Long.parseLong(unit == 1 ? value : value.substring(0, value.length() - 1)), unit);
+            } catch (ArithmeticException | NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid size '" + raw + "'. Expected bytes with optional k, m or g suffix");
+            }
+        }
+
+        protected void report(ConversionEngine.ConversionResult result) {
+            PipelineStats stats = result.pipelineStats();
+            if (stats != null) {
+                System.out.printf(Locale.ROOT, "Pipeline: max queue depth rows=%d/%d records=%d/%d, reader stalled %d ms, mapper idle %d ms / stalled %d ms, writer idle %d ms%n",
+                        stats.maxRowQueueDepth(), stats.queueCapacity(), stats.maxRecordQueueDepth(), stats.queueCapacity(),
+                        stats.readerStallNanos() / 1_000_000, stats.mapperIdleNanos() / 1_000_000,
+                        stats.mapperStallNanos() / 1_000_000, stats.writerIdleNanos() / 1_000_000);
+            }
+            DeltaStats delta = result.deltaStats();
+            if (delta != null) {
+                System.out.printf(Locale.ROOT, "Delta: %d inserted, %d updated, %d deleted, %d unchanged%n",
+                        delta.inserted(), delta.updated(), delta.deleted(), delta.unchanged());
             }
-            Files.writeString(traceOut, sb.toString());
+        }
+    }
+
+    @Command(name = "trace-query", description = "Prints the READ/WRITE lineage of an ident or column from a binary trace file")
+    static class TraceQuery implements Callable<Integer> {
+        @Option(names = "--trace", required = true, description = "Trace file written with --trace-format binary") Path trace;
+        @Option(names = "--ident", description = "Ident whose events are printed") String ident;
+        @Option(names = "--column", description = "Source column or target path whose events are printed") String column;
+
+        @Override public Integer call() throws Exception {
+            if ((ident == null) == (column == null)) {
+                throw new IllegalArgumentException("Exactly one of --ident or --column is required");
+            }
+            try (var reader = BinaryTraceReader.open(trace)) {
+                var events = ident != null ? reader.byIdent(ident) : reader.byColumn(column);
+                events.forEach(e -> System.out.println(e.phase() + '|' + e.className() + '|' + e.ident() + '|'
+                        + e.sourceColumn() + "->" + e.targetPath() + '|' + e.value() + '|' + e.detail()));
+                System.err.printf(Locale.ROOT, "%d events (%d of %d blocks read)%n", events.size(), reader.blocksDecoded(), reader.blockCount());
+            }
+            return 0;
         }
     }
 
@@ -119,6 +309,14 @@ public class ConvConfCli implements Runnable {
 
     record TargetEndpoint(RecordTargetWriter writer, List<AutoCloseable> closeables) {}
 
+    /** JDBC adapter (or connection pool) used as source or target, and the resource closing it. */
+    record JdbcEndpoint(RecordSourceReader reader, RecordTargetWriter writer, AutoCloseable resource) implements AutoCloseable {
+        @Override
+        public void close() throws Exception {
+            resource.close();
+        }
+    }
+
     @Command(name = "convert", description = "Generic conversion between any supported source and target type")
     static class Convert extends BaseConvert implements Callable<Integer> {
         @Spec CommandSpec spec;
@@ -157,8 +355,7 @@ public class ConvConfCli implements Runnable {
             TargetEndpoint tgt = createTarget(tgtType, tgtOptions);
 
             try {
-                var result = new ConvConfService().convert(km, sourceLm, targetLm, src.reader(), tgt.writer(), traceOut != null);
-                writeTrace(result.traceEvents());
+                convert(km, sourceLm, targetLm, src.reader(), tgt.writer());
             } finally {
                 closeAll(src.closeables());
                 closeAll(tgt.closeables());
@@ -215,12 +412,12 @@ public class ConvConfCli implements Runnable {
         private SourceEndpoint createSource(EndpointType type, EndpointOptions options) throws Exception {
             return switch (type) {
                 case H2 -> {
-                    Connection c = DriverManager.getConnection(options.jdbc(), "sa", "");
-                    yield new SourceEndpoint(new H2Adapter(c), List.of(c));
+                    JdbcEndpoint endpoint = h2Endpoint(options.jdbc());
+                    yield new SourceEndpoint(endpoint.reader(), List.of(endpoint));
                 }
                 case POSTGRES -> {
-                    Connection c = DriverManager.getConnection(options.jdbc(), options.user(), options.password());
-                    yield new SourceEndpoint(new PostgreSqlAdapter(c), List.of(c));
+                    JdbcEndpoint endpoint = postgreSqlEndpoint(options.jdbc(), options.user(), options.password());
+                    yield new SourceEndpoint(endpoint.reader(), List.of(endpoint));
                 }
                 case CSV -> new SourceEndpoint(new CsvDirectoryAdapter(options.dir()), List.of());
                 case XLSX -> new SourceEndpoint(new XlsxWorkbookAdapter(options.xlsx()), List.of());
@@ -230,12 +427,12 @@ public class ConvConfCli implements Runnable {
         private TargetEndpoint createTarget(EndpointType type, EndpointOptions options) throws Exception {
             return switch (type) {
                 case H2 -> {
-                    Connection c = DriverManager.getConnection(options.jdbc(), "sa", "");
-                    yield new TargetEndpoint(new H2Adapter(c), List.of(c));
+                    JdbcEndpoint endpoint = h2Endpoint(options.jdbc());
+                    yield new TargetEndpoint(endpoint.writer(), List.of(endpoint));
                 }
                 case POSTGRES -> {
-                    Connection c = DriverManager.getConnection(options.jdbc(), options.user(), options.password());
-                    yield new TargetEndpoint(new PostgreSqlAdapter(c), List.of(c));
+                    JdbcEndpoint endpoint = postgreSqlEndpoint(options.jdbc(), options.user(), options.password());
+                    yield new TargetEndpoint(endpoint.writer(), List.of(endpoint));
                 }
                 case CSV -> new TargetEndpoint(new CsvDirectoryAdapter(options.dir()), List.of());
                 case XLSX -> new TargetEndpoint(new XlsxWorkbookAdapter(options.xlsx()), List.of());
@@ -262,10 +459,9 @@ public class ConvConfCli implements Runnable {
         @Option(names = "--target-jdbc", required = true) String targetJdbc;
 
         @Override public Integer call() throws Exception {
-            try (Connection source = DriverManager.getConnection(sourceJdbc, "sa", "");
-                 Connection target = DriverManager.getConnection(targetJdbc, "sa", "")) {
-                var result = new ConvConfService().convert(km, sourceLm, targetLm, new H2Adapter(source), new H2Adapter(target), traceOut != null);
-                writeTrace(result.traceEvents());
+            try (JdbcEndpoint source = h2Endpoint(sourceJdbc);
+                 JdbcEndpoint target = h2Endpoint(targetJdbc)) {
+                convert(km, sourceLm, targetLm, source.reader(), target.writer());
             }
             System.out.println("Conversion done");
             return 0;
@@ -285,10 +481,9 @@ public class ConvConfCli implements Runnable {
         @Option(names = "--target-password", required = true) String targetPassword;
 
         @Override public Integer call() throws Exception {
-            try (Connection source = DriverManager.getConnection(sourceJdbc, sourceUser, sourcePassword);
-                 Connection target = DriverManager.getConnection(targetJdbc, targetUser, targetPassword)) {
-                var result = new ConvConfService().convert(km, sourceLm, targetLm, new PostgreSqlAdapter(source), new PostgreSqlAdapter(target), traceOut != null);
-                writeTrace(result.traceEvents());
+            try (JdbcEndpoint source = postgreSqlEndpoint(sourceJdbc, sourceUser, sourcePassword);
+                 JdbcEndpoint target = postgreSqlEndpoint(targetJdbc, targetUser, targetPassword)) {
+                convert(km, sourceLm, targetLm, source.reader(), target.writer());
             }
             System.out.println("Conversion done");
             return 0;
@@ -304,9 +499,8 @@ public class ConvConfCli implements Runnable {
         @Option(names = "--target-jdbc", required = true) String targetJdbc;
 
         @Override public Integer call() throws Exception {
-            try (Connection target = DriverManager.getConnection(targetJdbc, "sa", "")) {
-                var result = new ConvConfService().convert(km, sourceLm, targetLm, new CsvDirectoryAdapter(sourceDir), new H2Adapter(target), traceOut != null);
-                writeTrace(result.traceEvents());
+            try (JdbcEndpoint target = h2Endpoint(targetJdbc)) {
+                convert(km, sourceLm, targetLm, new CsvDirectoryAdapter(sourceDir), target.writer());
             }
             System.out.println("Conversion done");
             return 0;
@@ -322,9 +516,8 @@ public class ConvConfCli implements Runnable {
         @Option(names = "--target-dir", required = true) Path targetDir;
 
         @Override public Integer call() throws Exception {
-            try (Connection source = DriverManager.getConnection(sourceJdbc, "sa", "")) {
-                var result = new ConvConfService().convert(km, sourceLm, targetLm, new H2Adapter(source), new CsvDirectoryAdapter(targetDir), traceOut != null);
-                writeTrace(result.traceEvents());
+            try (JdbcEndpoint source = h2Endpoint(sourceJdbc)) {
+                convert(km, sourceLm, targetLm, source.reader(), new CsvDirectoryAdapter(targetDir));
             }
             System.out.println("Conversion done");
             return 0;
@@ -340,9 +533,8 @@ public class ConvConfCli implements Runnable {
         @Option(names = "--target-jdbc", required = true) String targetJdbc;
 
         @Override public Integer call() throws Exception {
-            try (Connection target = DriverManager.getConnection(targetJdbc, "sa", "")) {
-                var result = new ConvConfService().convert(km, sourceLm, targetLm, new XlsxWorkbookAdapter(sourceXlsx), new H2Adapter(target), traceOut != null);
-                writeTrace(result.traceEvents());
+            try (JdbcEndpoint target = h2Endpoint(targetJdbc)) {
+                convert(km, sourceLm, targetLm, new XlsxWorkbookAdapter(sourceXlsx), target.writer());
             }
             System.out.println("Conversion done");
             return 0;
@@ -358,9 +550,8 @@ public class ConvConfCli implements Runnable {
         @Option(names = "--target-xlsx", required = true) Path targetXlsx;
 
         @Override public Integer call() throws Exception {
-            try (Connection source = DriverManager.getConnection(sourceJdbc, "sa", "")) {
-                var result = new ConvConfService().convert(km, sourceLm, targetLm, new H2Adapter(source), new XlsxWorkbookAdapter(targetXlsx), traceOut != null);
-                writeTrace(result.traceEvents());
+            try (JdbcEndpoint source = h2Endpoint(sourceJdbc)) {
+                convert(km, sourceLm, targetLm, source.reader(), new XlsxWorkbookAdapter(targetXlsx));
             }
             System.out.println("Conversion done");
             return 0;
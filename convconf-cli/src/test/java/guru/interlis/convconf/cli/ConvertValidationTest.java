@@ -1,7 +1,9 @@
 package guru.interlis.convconf.cli;
 
 import org.junit.jupiter.api.Test;
+import picocli.CommandLine;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class ConvertValidationTest {
@@ -38,4 +40,41 @@ class ConvertValidationTest {
                 new ConvConfCli.EndpointOptions(null, null, null, null, java.nio.file.Path.of("target.xlsx"))
         );
     }
+
+    @Test
+    void parsesMemoryBudgetSizes() {
+        assertThat(ConvConfCli.BaseConvert.parseSize("0")).isZero();
+        assertThat(ConvConfCli.BaseConvert.parseSize("512m")).isEqualTo(512L << 20);
+        assertThat(ConvConfCli.BaseConvert.parseSize("16G")).isEqualTo(16L << 30);
+        assertThatThrownBy(() -> ConvConfCli.BaseConvert.parseSize("lots"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Invalid size");
+    }
+
+    @Test
+    void rejectsCheckpointsAndIntervalCommitsInSingleTransactionRuns() {
+        assertThatThrownBy(() -> convert("--single-transaction", "--commit-every", "10").writeOptions())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("--commit-every is not allowed with --single-transaction");
+        assertThatThrownBy(() -> convert("--single-transaction", "--checkpoint", "run.checkpoint").writeOptions())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("--checkpoint is not allowed with --single-transaction or --commit-every");
+        assertThatThrownBy(() -> convert("--commit-every", "10", "--checkpoint", "run.checkpoint").writeOptions())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("--checkpoint is not allowed with --single-transaction or --commit-every");
+        assertThatThrownBy(() -> convert("--single-transaction", "--parallelism", "4").writeOptions())
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("--single-transaction is not allowed with --parallelism > 1 in in-memory mode");
+        assertThat(convert("--single-transaction", "--parallelism", "4", "--streaming").writeOptions().transactional()).isTrue();
+        assertThat(convert("--commit-every", "10").writeOptions().commitInterval()).isEqualTo(10);
+    }
+
+    private static ConvConfCli.Convert convert(String... options) {
+        ConvConfCli.Convert convert = new ConvConfCli.Convert();
+        String[] required = {"--km", "km.ili", "--source-lm", "source.lm", "--target-lm", "target.lm", "--source-type", "h2", "--target-type", "h2"};
+        String[] args = java.util.Arrays.copyOf(required, required.length + options.length);
+        System.arraycopy(options, 0, args, required.length, options.length);
+        new CommandLine(convert).parseArgs(args);
+        return convert;
+    }
 }
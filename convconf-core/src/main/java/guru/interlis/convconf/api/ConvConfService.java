@@ -5,9 +5,12 @@ import guru.interlis.convconf.lm.LmParserFacade;
 import guru.interlis.convconf.lm.LmSemanticChecker;
 import guru.interlis.convconf.plan.ConversionPlan;
 import guru.interlis.convconf.plan.ConversionPlanner;
+import guru.interlis.convconf.runtime.CanonicalTypes;
 import guru.interlis.convconf.runtime.ConversionEngine;
+import guru.interlis.convconf.runtime.ConversionOptions;
 import guru.interlis.convconf.runtime.RecordSourceReader;
 import guru.interlis.convconf.runtime.RecordTargetWriter;
+import guru.interlis.convconf.runtime.TraceSink;
 import guru.interlis.convconf.validate.KmResultValidator;
 import guru.interlis.convconf.validate.LmDataValidator;
 
@@ -86,15 +89,80 @@ public final class ConvConfService {
                                                          RecordSourceReader sourceReader,
                                                          RecordTargetWriter targetWriter,
                                                          boolean traceEnabled) throws Exception {
+        return executePlan(kmIli, plan, sourceReader, targetWriter, ConversionOptions.defaults().withTrace(traceEnabled));
+    }
+
+    /**
+     * Executes a pre-built conversion plan with explicit engine options.
+     * <p>
+     * KM result validation runs in every mode on each canonical record as it is produced (in
+     * parallel with {@link ConversionOptions#parallelism()}); the run is aborted once
+     * {@link ConversionOptions#maxValidationErrors()} errors are collected. Canonical values are typed
+     * according to the KM ({@link CanonicalTypes}). Source columns are validated from reader
+     * metadata before the run, or on the rows of the conversion read for readers without metadata,
+     * so every source is read only once. The run is bracketed by {@link RecordTargetWriter#beginRun()}
+     * and {@link RecordTargetWriter#commitRun()}; on any failure, including KM validation errors,
+     * {@link RecordTargetWriter#rollbackRun()} is called instead. The delta state of an
+     * {@link ConversionOptions.Mode#INCREMENTAL} run is saved only after the commit, so a failed run
+     * leaves the previous state in place.
+     * </p>
+     *
+     * @param kmIli path to KM model used for final result validation
+     * @param plan pre-built conversion plan
+     * @param sourceReader adapter used to read source records
+     * @param targetWriter adapter used to write target records
+     * @param options engine execution options
+     * @return conversion result with canonical records (in-memory mode), trace events and counters
+     * @throws Exception if read/write fails or validation fails
+     */
+    public ConversionEngine.ConversionResult executePlan(Path kmIli,
+                                                         ConversionPlan plan,
+                                                         RecordSourceReader sourceReader,
+                                                         RecordTargetWriter targetWriter,
+                                                         ConversionOptions options) throws Exception {
+        return executePlan(kmIli, plan, sourceReader, targetWriter, options, null);
+    }
+
+    /**
+     * Executes a pre-built conversion plan, streaming trace events to a caller-owned sink.
+     *
+     * @param traceSink receives trace events while the conversion runs (may be {@code null}); not closed here
+     * @see #executePlan(Path, ConversionPlan, RecordSourceReader, RecordTargetWriter, ConversionOptions)
+     */
+    public ConversionEngine.ConversionResult executePlan(Path kmIli,
+                                                         ConversionPlan plan,
+                                                         RecordSourceReader sourceReader,
+                                                         RecordTargetWriter targetWriter,
+                                                         ConversionOptions options,
+                                                         TraceSink traceSink) throws Exception {
         var km = interlisModelCompiler.compile(kmIli).kmSchema();
         var errors = lmDataValidator.validate(sourceReader, plan.sourceModel());
         if (!errors.isEmpty()) {
             throw new IllegalArgumentException("Validation failed: " + errors);
         }
-        var result = conversionEngine.convert(sourceReader, targetWriter, plan, traceEnabled);
-        var kmErrors = kmResultValidator.validate(km, result.canonicalRecords());
-        if (!kmErrors.isEmpty()) {
-            throw new IllegalArgumentException("KM result validation failed: " + kmErrors);
+        ConversionEngine.ConversionResult result;
+        targetWriter.beginRun();
+        try {
+            List<String> kmErrors;
+            try (var validation = kmResultValidator.open(km, options.parallelism(), options.maxValidationErrors())) {
+                result = conversionEngine.convert(sourceReader, targetWriter, plan.sourceModel(), plan.targetModel(),
+                        options.withCanonicalTypes(CanonicalTypes.of(km)).withValidateSourceColumns(true), validation, traceSink);
+                kmErrors = validation.finish();
+            }
+            if (!kmErrors.isEmpty()) {
+                throw new IllegalArgumentException("KM result validation failed: " + kmErrors);
+            }
+        } catch (Exception | Error e) {
+            try {
+                targetWriter.rollbackRun();
+            } catch (Exception rollback) {
+                e.addSuppressed(rollback);
+            }
+            throw e;
+        }
+        targetWriter.commitRun();
+        if (result.deltaState() != null) {
+            result.deltaState().save(options.deltaState());
         }
         return result;
     }
@@ -110,6 +178,28 @@ public final class ConvConfService {
         return executePlan(kmIli, conversionPlan, sourceReader, targetWriter, traceEnabled);
     }
 
+    /**
+     * Full convert flow using LM paths and explicit engine options.
+     */
+    public ConversionEngine.ConversionResult convert(Path kmIli, Path sourceLm, Path targetLm,
+                                                     RecordSourceReader sourceReader,
+                                                     RecordTargetWriter targetWriter,
+                                                     ConversionOptions options) throws Exception {
+        return convert(kmIli, sourceLm, targetLm, sourceReader, targetWriter, options, null);
+    }
+
+    /**
+     * Full convert flow using LM paths, explicit engine options and a caller-owned trace sink.
+     */
+    public ConversionEngine.ConversionResult convert(Path kmIli, Path sourceLm, Path targetLm,
+                                                     RecordSourceReader sourceReader,
+                                                     RecordTargetWriter targetWriter,
+                                                     ConversionOptions options,
+                                                     TraceSink traceSink) throws Exception {
+        var conversionPlan = plan(kmIli, sourceLm, targetLm);
+        return executePlan(kmIli, conversionPlan, sourceReader, targetWriter, options, traceSink);
+    }
+
     /**
      * Full convert flow with trace collection disabled.
      */
@@ -1,21 +1,35 @@
 package guru.interlis.convconf.file;
 
+import guru.interlis.convconf.runtime.CanonicalTypes;
 import guru.interlis.convconf.runtime.FileSourceReader;
 import guru.interlis.convconf.runtime.FileTargetWriter;
+import guru.interlis.convconf.runtime.IndexedRow;
+import guru.interlis.convconf.runtime.RecordCursor;
+import guru.interlis.convconf.runtime.RowHeader;
+import guru.interlis.convconf.runtime.TargetTableWriter;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.csv.CSVRecord;
 
 import java.io.BufferedWriter;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * File source/writer using one CSV file per source/target name in a directory.
+ * <p>
+ * Rows are parsed and printed record by record. The first write to a target
+ * (re)creates its file; further writes in the same adapter instance append rows in the
+ * column order of the file's header and must have the same columns. Different files may be read and written from several threads at once.
+ * </p>
  */
 public final class CsvDirectoryAdapter implements FileSourceReader, FileTargetWriter {
     private final Path directory;
+    private final Map<String, List<String>> targetHeaders = new ConcurrentHashMap<>();
 
     public CsvDirectoryAdapter(Path directory) {
         this.directory = directory;
@@ -23,24 +37,54 @@ public final class CsvDirectoryAdapter implements FileSourceReader, FileTargetWr
 
     @Override
     public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws Exception {
+        return RecordCursor.drain(open(sourceName, equalsFilter));
+    }
+
+    /** Header names of the CSV file ({@code null} if the file does not exist). */
+    @Override
+    public List<String> columns(String sourceName) throws Exception {
         Path csvFile = directory.resolve(sourceName + ".csv");
         if (!Files.exists(csvFile)) {
-            return List.of();
+            return null;
         }
         try (CSVParser parser = CSVParser.parse(csvFile, java.nio.charset.StandardCharsets.UTF_8,
                 CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build())) {
-            List<Map<String, Object>> rows = new ArrayList<>();
-            for (var record : parser) {
-                Map<String, Object> row = new LinkedHashMap<>();
-                for (String header : parser.getHeaderMap().keySet()) {
-                    row.put(header, record.get(header));
+            return parser.getHeaderNames();
+        }
+    }
+
+    @Override
+    public RecordCursor open(String sourceName, Map<String, String> equalsFilter) throws Exception {
+        Path csvFile = directory.resolve(sourceName + ".csv");
+        if (!Files.exists(csvFile)) {
+            return RecordCursor.of(List.of());
+        }
+        CSVParser parser = CSVParser.parse(csvFile, java.nio.charset.StandardCharsets.UTF_8,
+                CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build());
+        List<String> headers = parser.getHeaderNames();
+        RowHeader header = RowHeader.of(headers);
+        int[] slots = headers.stream().mapToInt(header::slot).toArray();
+        RowFilter filter = RowFilter.of(header, equalsFilter);
+        Iterator<CSVRecord> records = parser.iterator();
+        return new RecordCursor() {
+            @Override
+            public Map<String, Object> next() {
+                while (records.hasNext()) {
+                    CSVRecord record = records.next();
+                    Object[] values = new Object[header.size()];
+                    for (int i = 0; i < slots.length; i++) {
+                        values[slots[i]] = i < record.size() ? record.get(i) : null;
+                    }
+                    if (filter.test(values)) return new IndexedRow(header, values);
                 }
-                boolean keep = equalsFilter.entrySet().stream()
-                        .allMatch(e -> Objects.equals(Objects.toString(row.get(e.getKey()), null), e.getValue()));
-                if (keep) rows.add(row);
+                return null;
             }
-            return rows;
-        }
+
+            @Override
+            public void close() throws Exception {
+                parser.close();
+            }
+        };
     }
 
     @Override
@@ -48,15 +92,86 @@ public final class CsvDirectoryAdapter implements FileSourceReader, FileTargetWr
         if (rows.isEmpty()) {
             return;
         }
-        Files.createDirectories(directory);
-        Path csvFile = directory.resolve(targetName + ".csv");
-        List<String> headers = new ArrayList<>(rows.getFirst().keySet());
-        try (BufferedWriter writer = Files.newBufferedWriter(csvFile);
-             CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.builder().setHeader(headers.toArray(String[]::new)).build())) {
+        try (TargetTableWriter writer = open(targetName)) {
             for (Map<String, Object> row : rows) {
-                List<String> values = headers.stream().map(h -> Objects.toString(row.get(h), "")).toList();
-                printer.printRecord(values);
+                writer.append(row);
             }
         }
     }
+
+    @Override
+    public boolean supportsConcurrentReads() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    /** {@code false}: a resumed run can neither upsert into a CSV file nor keep it, a new adapter recreates it. */
+    @Override
+    public boolean commitsOnFlush() {
+        return false;
+    }
+
+    @Override
+    public TargetTableWriter open(String targetName) {
+        Path csvFile = directory.resolve(targetName + ".csv");
+        return new TargetTableWriter() {
+            private List<String> headers;
+            private RowHeader header;
+            private CSVPrinter printer;
+
+            @Override
+            public void append(Map<String, Object> row) throws Exception {
+                if (printer == null) {
+                    headers = new ArrayList<>(row.keySet());
+                    header = row instanceof IndexedRow indexed ? indexed.header() : null;
+                    List<String> written = targetHeaders.putIfAbsent(targetName, List.copyOf(headers));
+                    boolean append = written != null;
+                    if (append && !written.equals(headers)) {
+                        if (!new HashSet<>(written).equals(new HashSet<>(headers))) {
+                            throw new IllegalArgumentException("CSV target " + targetName + " has columns " + written + ", cannot append rows with columns " + headers);
+                        }
+                        headers = written;
+                        header = null;
+                    }
+                    Files.createDirectories(directory);
+                    CSVFormat format = append
+                            ? CSVFormat.DEFAULT
+                            : CSVFormat.DEFAULT.builder().setHeader(headers.toArray(String[]::new)).build();
+                    BufferedWriter writer = append
+                            ? Files.newBufferedWriter(csvFile, StandardOpenOption.APPEND)
+                            : Files.newBufferedWriter(csvFile);
+                    printer = new CSVPrinter(writer, format);
+                }
+                List<String> values = new ArrayList<>(headers.size());
+                if (row instanceof IndexedRow indexed && indexed.header() == header) {
+                    for (int i = 0; i < headers.size(); i++) {
+                        values.add(Objects.toString(CanonicalTypes.text(indexed.valueAt(i)), ""));
+                    }
+                } else {
+                    for (String h : headers) {
+                        values.add(Objects.toString(CanonicalTypes.text(row.get(h)), ""));
+                    }
+                }
+                printer.printRecord(values);
+            }
+
+            @Override
+            public void flush() throws Exception {
+                if (printer != null) {
+                    printer.flush();
+                }
+            }
+
+            @Override
+            public void close() throws Exception {
+                if (printer != null) {
+                    printer.close();
+                }
+            }
+        };
+    }
 }
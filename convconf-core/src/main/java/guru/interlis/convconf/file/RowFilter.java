@@ -0,0 +1,38 @@
+package guru.interlis.convconf.file;
+
+import guru.interlis.convconf.runtime.RowHeader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/** Equality filter of a file source, resolved to header slots once per cursor. */
+final class RowFilter {
+    private final int[] slots;
+    private final String[] expected;
+
+    private RowFilter(int[] slots, String[] expected) {
+        this.slots = slots;
+        this.expected = expected;
+    }
+
+    static RowFilter of(RowHeader header, Map<String, String> equalsFilter) {
+        List<Map.Entry<String, String>> entries = new ArrayList<>(equalsFilter.entrySet());
+        int[] slots = new int[entries.size()];
+        String[] expected = new String[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            slots[i] = header.slot(entries.get(i).getKey());
+            expected[i] = entries.get(i).getValue();
+        }
+        return new RowFilter(slots, expected);
+    }
+
+    boolean test(Object[] values) {
+        for (int i = 0; i < slots.length; i++) {
+            Object value = slots[i] < 0 ? null : values[slots[i]];
+            if (!Objects.equals(Objects.toString(value, null), expected[i])) return false;
+        }
+        return true;
+    }
+}
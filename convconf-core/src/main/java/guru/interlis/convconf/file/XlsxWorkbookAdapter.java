@@ -1,10 +1,25 @@
 package guru.interlis.convconf.file;
 
+import guru.interlis.convconf.runtime.CanonicalTypes;
 import guru.interlis.convconf.runtime.FileSourceReader;
 import guru.interlis.convconf.runtime.FileTargetWriter;
+import guru.interlis.convconf.runtime.IndexedRow;
+import guru.interlis.convconf.runtime.RecordCursor;
+import guru.interlis.convconf.runtime.RowHeader;
+import guru.interlis.convconf.runtime.TargetTableWriter;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.SharedStrings;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
@@ -13,9 +28,21 @@ import java.util.*;
 
 /**
  * File source/writer using one XLSX workbook with one sheet per source/target name.
+ * <p>
+ * Sheets are read with a pull parser over the sheet XML and written through
+ * {@link SXSSFWorkbook}, so only a small window of rows is kept in memory.
+ * Sheet writers that are open at the same time share one workbook, which is saved
+ * when the last of them is closed. The first write to a target replaces its sheet;
+ * further writes in the same adapter instance append rows.
+ * </p>
  */
 public final class XlsxWorkbookAdapter implements FileSourceReader, FileTargetWriter {
+    private static final int ROW_WINDOW = 100;
+
     private final Path workbook;
+    private final Set<String> startedTargets = new HashSet<>();
+    private SXSSFWorkbook session;
+    private int openWriters;
 
     public XlsxWorkbookAdapter(Path workbook) {
         this.workbook = workbook;
@@ -23,28 +50,32 @@ public final class XlsxWorkbookAdapter implements FileSourceReader, FileTargetWr
 
     @Override
     public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws Exception {
+        return RecordCursor.drain(open(sourceName, equalsFilter));
+    }
+
+    @Override
+    public RecordCursor open(String sourceName, Map<String, String> equalsFilter) throws Exception {
         if (!Files.exists(workbook)) {
-            return List.of();
-        }
-        try (InputStream is = Files.newInputStream(workbook); Workbook wb = WorkbookFactory.create(is)) {
-            Sheet sheet = wb.getSheet(sourceName);
-            if (sheet == null || sheet.getPhysicalNumberOfRows() == 0) return List.of();
-            List<String> headers = headers(sheet.getRow(0));
-            List<Map<String, Object>> rows = new ArrayList<>();
-            for (int r = 1; r <= sheet.getLastRowNum(); r++) {
-                Row rowObj = sheet.getRow(r);
-                if (rowObj == null) continue;
-                Map<String, Object> row = new LinkedHashMap<>();
-                for (int c = 0; c < headers.size(); c++) {
-                    Cell cell = rowObj.getCell(c, Row.MissingCellPolicy.CREATE_NULL_AS_BLANK);
-                    row.put(headers.get(c), cellToString(cell));
+            return RecordCursor.of(List.of());
+        }
+        OPCPackage pkg = OPCPackage.open(workbook.toFile(), PackageAccess.READ);
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            SharedStrings strings = reader.getSharedStringsTable();
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                InputStream sheetData = sheets.next();
+                if (sourceName.equals(sheets.getSheetName())) {
+                    return new SheetCursor(pkg, sheetData, strings, equalsFilter);
                 }
-                boolean keep = equalsFilter.entrySet().stream()
-                        .allMatch(e -> Objects.equals(Objects.toString(row.get(e.getKey()), null), e.getValue()));
-                if (keep) rows.add(row);
+                sheetData.close();
             }
-            return rows;
+        } catch (Exception e) {
+            pkg.revert();
+            throw e;
         }
+        pkg.revert();
+        return RecordCursor.of(List.of());
     }
 
     @Override
@@ -52,54 +83,232 @@ public final class XlsxWorkbookAdapter implements FileSourceReader, FileTargetWr
         if (rows.isEmpty()) {
             return;
         }
-        Workbook wb;
-        if (Files.exists(workbook)) {
-            try (InputStream is = Files.newInputStream(workbook)) {
-                wb = WorkbookFactory.create(is);
+        try (TargetTableWriter writer = open(targetName)) {
+            for (Map<String, Object> row : rows) {
+                writer.append(row);
             }
-        } else {
-            wb = new XSSFWorkbook();
         }
-        try (wb) {
-            Sheet existing = wb.getSheet(targetName);
-            if (existing != null) {
-                wb.removeSheetAt(wb.getSheetIndex(existing));
+    }
+
+    @Override
+    public TargetTableWriter open(String targetName) {
+        return new SheetWriter(targetName);
+    }
+
+    /** {@code false}: the workbook is only saved when the last sheet writer closes. */
+    @Override
+    public boolean commitsOnFlush() {
+        return false;
+    }
+
+    /** Pull-parses the XML of one worksheet; the first row is the header. */
+    private static final class SheetCursor implements RecordCursor {
+        private final OPCPackage pkg;
+        private final InputStream sheetData;
+        private final SharedStrings strings;
+        private final Map<String, String> equalsFilter;
+        private final XMLStreamReader xml;
+        private RowHeader header;
+        private int[] slots;
+        private RowFilter filter;
+
+        private SheetCursor(OPCPackage pkg, InputStream sheetData, SharedStrings strings, Map<String, String> equalsFilter) throws XMLStreamException {
+            this.pkg = pkg;
+            this.sheetData = sheetData;
+            this.strings = strings;
+            this.equalsFilter = equalsFilter;
+            XMLInputFactory factory = XMLInputFactory.newFactory();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            this.xml = factory.createXMLStreamReader(sheetData);
+        }
+
+        @Override
+        public Map<String, Object> next() throws XMLStreamException {
+            if (header == null) {
+                List<String> headers = nextRow();
+                if (headers == null) {
+                    header = RowHeader.of(List.of());
+                    slots = new int[0];
+                    filter = RowFilter.of(header, equalsFilter);
+                    return null;
+                }
+                header = RowHeader.of(headers);
+                slots = headers.stream().mapToInt(header::slot).toArray();
+                filter = RowFilter.of(header, equalsFilter);
             }
-            Sheet sheet = wb.createSheet(targetName);
-            List<String> headers = new ArrayList<>(rows.getFirst().keySet());
-            Row head = sheet.createRow(0);
-            for (int c = 0; c < headers.size(); c++) {
-                head.createCell(c).setCellValue(headers.get(c));
+            for (List<String> cells = nextRow(); cells != null; cells = nextRow()) {
+                Object[] values = new Object[header.size()];
+                for (int c = 0; c < slots.length; c++) {
+                    values[slots[c]] = c < cells.size() ? cells.get(c) : "";
+                }
+                if (filter.test(values)) return new IndexedRow(header, values);
             }
-            int rowNum = 1;
-            for (Map<String, Object> row : rows) {
-                Row xRow = sheet.createRow(rowNum++);
-                for (int c = 0; c < headers.size(); c++) {
-                    xRow.createCell(c).setCellValue(Objects.toString(row.get(headers.get(c)), ""));
+            return null;
+        }
+
+        private List<String> nextRow() throws XMLStreamException {
+            while (xml.hasNext()) {
+                if (xml.next() == XMLStreamConstants.START_ELEMENT && "row".equals(xml.getLocalName())) {
+                    return readRow();
+                }
+            }
+            return null;
+        }
+
+        private List<String> readRow() throws XMLStreamException {
+            List<String> cells = new ArrayList<>();
+            int col = -1;
+            String type = null;
+            String value = null;
+            String formula = null;
+            StringBuilder inline = new StringBuilder();
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (xml.getLocalName()) {
+                        case "c" -> {
+                            String ref = xml.getAttributeValue(null, "r");
+                            col = ref == null ? col + 1 : new CellReference(ref).getCol();
+                            type = xml.getAttributeValue(null, "t");
+                            value = null;
+                            formula = null;
+                            inline.setLength(0);
+                        }
+                        case "v" -> value = xml.getElementText();
+                        case "f" -> formula = xml.getElementText();
+                        case "t" -> inline.append(xml.getElementText());
+                        default -> {
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if ("c".equals(xml.getLocalName())) {
+                        while (cells.size() <= col) cells.add("");
+                        cells.set(col, cellToString(type, value, formula, inline));
+                    } else if ("row".equals(xml.getLocalName())) {
+                        return cells;
+                    }
+                }
+            }
+            return cells;
+        }
+
+        private String cellToString(String type, String value, String formula, StringBuilder inline) {
+            if (formula != null) return formula;
+            if (type == null || "n".equals(type)) {
+                return value == null ? "" : Double.toString(Double.parseDouble(value));
+            }
+            return switch (type) {
+                case "s" -> strings.getItemAt(Integer.parseInt(value)).getString();
+                case "inlineStr" -> inline.toString();
+                case "b" -> Boolean.toString("1".equals(value));
+                case "e" -> "";
+                default -> value == null ? "" : value;
+            };
+        }
+
+        @Override
+        public void close() throws Exception {
+            try {
+                xml.close();
+                sheetData.close();
+            } finally {
+                pkg.revert();
+            }
+        }
+    }
+
+    /**
+     * Opens the shared streaming workbook on first use. All sheet writers of this adapter
+     * write into the same workbook, which is saved once the last open writer is closed.
+     */
+    private SXSSFWorkbook acquireSession() throws Exception {
+        if (session == null) {
+            XSSFWorkbook base;
+            if (Files.exists(workbook)) {
+                try (InputStream is = Files.newInputStream(workbook)) {
+                    base = new XSSFWorkbook(is);
                 }
+            } else {
+                base = new XSSFWorkbook();
             }
+            session = new SXSSFWorkbook(base, ROW_WINDOW);
+        }
+        openWriters++;
+        return session;
+    }
+
+    private void releaseSession() throws Exception {
+        if (--openWriters > 0) {
+            return;
+        }
+        SXSSFWorkbook out = session;
+        session = null;
+        try {
             Files.createDirectories(workbook.getParent() == null ? Path.of(".") : workbook.getParent());
             try (OutputStream os = Files.newOutputStream(workbook)) {
-                wb.write(os);
+                out.write(os);
             }
+        } finally {
+            out.close();
         }
     }
 
-    private List<String> headers(Row row) {
-        List<String> h = new ArrayList<>();
-        for (int c = 0; c < row.getLastCellNum(); c++) {
-            h.add(cellToString(row.getCell(c, Row.MissingCellPolicy.CREATE_NULL_AS_BLANK)));
+    /**
+     * Streams rows into one sheet of the shared workbook. The first writer of a target replaces
+     * its sheet; later writers append after the last row.
+     */
+    private final class SheetWriter implements TargetTableWriter {
+        private final String targetName;
+        private Sheet sheet;
+        private List<String> headers;
+        private RowHeader header;
+        private int rowNum;
+
+        private SheetWriter(String targetName) {
+            this.targetName = targetName;
+        }
+
+        @Override
+        public void append(Map<String, Object> row) throws Exception {
+            if (sheet == null) {
+                init(row);
+            }
+            Row xRow = sheet.createRow(rowNum++);
+            IndexedRow indexed = row instanceof IndexedRow r && r.header() == header ? r : null;
+            for (int c = 0; c < headers.size(); c++) {
+                Object value = indexed != null ? indexed.valueAt(c) : row.get(headers.get(c));
+                xRow.createCell(c).setCellValue(Objects.toString(CanonicalTypes.text(value), ""));
+            }
         }
-        return h;
-    }
 
-    private String cellToString(Cell cell) {
-        return switch (cell.getCellType()) {
-            case STRING -> cell.getStringCellValue();
-            case NUMERIC -> Double.toString(cell.getNumericCellValue());
-            case BOOLEAN -> Boolean.toString(cell.getBooleanCellValue());
-            case FORMULA -> cell.getCellFormula();
-            case BLANK, _NONE, ERROR -> "";
-        };
+        private void init(Map<String, Object> firstRow) throws Exception {
+            headers = new ArrayList<>(firstRow.keySet());
+            header = firstRow instanceof IndexedRow indexed ? indexed.header() : null;
+            SXSSFWorkbook wb = acquireSession();
+            Sheet existing = wb.getSheet(targetName);
+            if (!startedTargets.add(targetName) && existing != null) {
+                sheet = existing;
+                rowNum = existing.getLastRowNum() + 1;
+                return;
+            }
+            if (existing != null) {
+                wb.removeSheetAt(wb.getSheetIndex(existing));
+            }
+            sheet = wb.createSheet(targetName);
+            Row head = sheet.createRow(0);
+            for (int c = 0; c < headers.size(); c++) {
+                head.createCell(c).setCellValue(headers.get(c));
+            }
+            rowNum = 1;
+        }
+
+        @Override
+        public void close() throws Exception {
+            if (sheet != null) {
+                sheet = null;
+                releaseSession();
+            }
+        }
     }
 }
@@ -1,12 +1,39 @@
 package guru.interlis.convconf.h2;
 
+import guru.interlis.convconf.runtime.JdbcReadOptions;
 import guru.interlis.convconf.runtime.JdbcRecordAdapter;
+import guru.interlis.convconf.runtime.JdbcWriteOptions;
 
 import java.sql.Connection;
+import java.util.List;
 
-/** H2-specific JDBC adapter (inherits generic JDBC behavior). */
+/**
+ * H2-specific JDBC adapter (generic JDBC behavior, upserts via {@code MERGE ... KEY}). Reads stream
+ * by default: the fetch size bounds the rows transferred per round trip of a server connection,
+ * embedded results beyond {@code MAX_MEMORY_ROWS} are buffered on disk by H2 itself.
+ */
 public final class H2Adapter extends JdbcRecordAdapter {
     public H2Adapter(Connection connection) {
-        super(connection);
+        this(connection, JdbcReadOptions.streaming(JdbcReadOptions.DEFAULT_FETCH_SIZE));
+    }
+
+    public H2Adapter(Connection connection, JdbcReadOptions readOptions) {
+        super(connection, readOptions);
+    }
+
+    public H2Adapter(Connection connection, JdbcReadOptions readOptions, JdbcWriteOptions writeOptions) {
+        super(connection, readOptions, writeOptions);
+    }
+
+    /** H2 honors the fetch size in autocommit mode, so reads leave the connection's transaction alone. */
+    @Override
+    protected boolean streamingNeedsTransaction() {
+        return false;
+    }
+
+    /** H2 {@code MERGE ... KEY}, which inserts or replaces in one statement. */
+    @Override
+    protected String upsertSql(String targetName, List<String> columns, String keyColumn) {
+        return "MERGE INTO " + targetName + "(" + String.join(",", columns) + ") KEY(" + keyColumn + ") VALUES(" + placeholders(columns.size()) + ")";
     }
 }
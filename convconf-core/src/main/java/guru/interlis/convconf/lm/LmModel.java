@@ -3,10 +3,20 @@ package guru.interlis.convconf.lm;
 import java.util.List;
 import java.util.Map;
 
-/** Parsed logical model with table mapping declarations. */
+/**
+ * Parsed logical model with table mapping declarations.
+ *
+ * @param valueMapTables compiled lookup tables for {@code valueMaps}, keyed by map name
+ */
 public record LmModel(
         String name,
         Map<String, Map<Integer, String>> valueMaps,
         List<DataDecl> dataDecls,
-        List<InspectionDecl> inspections) {
+        List<InspectionDecl> inspections,
+        Map<String, ValueMapTable> valueMapTables) {
+
+    /** Creates a model and compiles its value maps. */
+    public LmModel(String name, Map<String, Map<Integer, String>> valueMaps, List<DataDecl> dataDecls, List<InspectionDecl> inspections) {
+        this(name, valueMaps, dataDecls, inspections, ValueMapTable.compileAll(valueMaps));
+    }
 }
@@ -0,0 +1,101 @@
+package guru.interlis.convconf.lm;
+
+import java.util.*;
+
+/**
+ * Immutable, compiled form of one VALUEMAP for both mapping directions.
+ * <p>
+ * Codes are looked up in a dense array when they span a compact range and in a primitive
+ * open-addressing table otherwise. The inverse direction maps the (shared) value strings to
+ * pre-boxed codes, so neither direction allocates per lookup.
+ * </p>
+ */
+public final class ValueMapTable {
+    private static final int MAX_DENSE_SLACK = 64;
+
+    private final String name;
+    private final int denseOffset;
+    private final String[] dense;
+    private final int[] hashKeys;
+    private final String[] hashValues;
+    private final int hashMask;
+    private final Map<String, Integer> inverse;
+
+    private ValueMapTable(String name, int denseOffset, String[] dense, int[] hashKeys, String[] hashValues, Map<String, Integer> inverse) {
+        this.name = name;
+        this.denseOffset = denseOffset;
+        this.dense = dense;
+        this.hashKeys = hashKeys;
+        this.hashValues = hashValues;
+        this.hashMask = hashKeys == null ? 0 : hashKeys.length - 1;
+        this.inverse = inverse;
+    }
+
+    /** Compiles all value maps of an LM, keeping their names. */
+    public static Map<String, ValueMapTable> compileAll(Map<String, Map<Integer, String>> valueMaps) {
+        Map<String, ValueMapTable> tables = new HashMap<>();
+        valueMaps.forEach((name, entries) -> tables.put(name, of(name, entries)));
+        return Map.copyOf(tables);
+    }
+
+    /** Compiles one value map; for values listed under several codes the first code wins in reverse lookups. */
+    public static ValueMapTable of(String name, Map<Integer, String> entries) {
+        Map<String, Integer> inverse = new HashMap<>();
+        entries.forEach((code, value) -> inverse.putIfAbsent(value, code));
+        if (entries.isEmpty()) {
+            return new ValueMapTable(name, 0, new String[0], null, null, Map.copyOf(inverse));
+        }
+        int min = Collections.min(entries.keySet());
+        int max = Collections.max(entries.keySet());
+        long span = (long) max - min + 1;
+        if (span <= 2L * entries.size() + MAX_DENSE_SLACK) {
+            String[] dense = new String[(int) span];
+            entries.forEach((code, value) -> dense[code - min] = value);
+            return new ValueMapTable(name, min, dense, null, null, Map.copyOf(inverse));
+        }
+        int capacity = Integer.highestOneBit(entries.size() * 2 - 1) << 1;
+        int[] keys = new int[capacity];
+        String[] values = new String[capacity];
+        entries.forEach((code, value) -> {
+            int slot = mix(code) & (capacity - 1);
+            while (values[slot] != null) slot = (slot + 1) & (capacity - 1);
+            keys[slot] = code;
+            values[slot] = value;
+        });
+        return new ValueMapTable(name, 0, null, keys, values, Map.copyOf(inverse));
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /** Value mapped to {@code code} or {@code null} if the code is not listed. */
+    public String lookup(int code) {
+        if (dense != null) {
+            long index = (long) code - denseOffset;
+            return index < 0 || index >= dense.length ? null : dense[(int) index];
+        }
+        for (int slot = mix(code) & hashMask; hashValues[slot] != null; slot = (slot + 1) & hashMask) {
+            if (hashKeys[slot] == code) return hashValues[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Code of {@code value}.
+     *
+     * @throws IllegalArgumentException if the value is not listed in this map
+     */
+    public Integer code(String value) {
+        Integer code = inverse.get(value);
+        if (code == null) {
+            throw new IllegalArgumentException("Value " + value + " is not listed in VALUEMAP " + name);
+        }
+        return code;
+    }
+
+    private static int mix(int code) {
+        int h = code * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,318 @@
+package guru.interlis.convconf.postgresql;
+
+import guru.interlis.convconf.runtime.CanonicalTypes;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HexFormat;
+import java.util.Locale;
+
+/**
+ * Field encoding of the {@code COPY} text and binary formats.
+ * <p>
+ * Text fields are escaped with backslashes ({@code \t}, {@code \n}, {@code \r}, {@code \\}) and
+ * {@code \N} stands for null. Binary fields are a length followed by the type's send format, so
+ * they need the column type; types without a binary codec here are {@link Type#OTHER} and
+ * restrict a table to the text format. Decoded values have the Java types pgjdbc's
+ * {@code getObject} returns (other types stay text).
+ * </p>
+ */
+final class PgCopyCodec {
+    /** Column types with a codec; {@link #OTHER} columns only support the text format. */
+    enum Type { INT2, INT4, INT8, FLOAT4, FLOAT8, NUMERIC, BOOL, DATE, TIMESTAMP, TEXT, BYTEA, OTHER }
+
+    static final byte[] BINARY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2000, 1, 1, 0, 0);
+    private static final long EPOCH_DAY = EPOCH.toLocalDate().toEpochDay();
+    private static final int NUMERIC_NEG = 0x4000;
+    private static final int NUMERIC_NAN = 0xC000;
+    private static final BigInteger NBASE = BigInteger.valueOf(10_000);
+
+    private PgCopyCodec() {
+    }
+
+    static Type type(String typeName) {
+        return switch (typeName.toLowerCase(Locale.ROOT)) {
+            case "int2", "smallserial" -> Type.INT2;
+            case "int4", "serial" -> Type.INT4;
+            case "int8", "bigserial" -> Type.INT8;
+            case "float4" -> Type.FLOAT4;
+            case "float8" -> Type.FLOAT8;
+            case "numeric" -> Type.NUMERIC;
+            case "bool" -> Type.BOOL;
+            case "date" -> Type.DATE;
+            case "timestamp" -> Type.TIMESTAMP;
+            case "text", "varchar", "bpchar", "name" -> Type.TEXT;
+            case "bytea" -> Type.BYTEA;
+            default -> Type.OTHER;
+        };
+    }
+
+    static Type[] types(ResultSetMetaData md) throws SQLException {
+        Type[] types = new Type[md.getColumnCount()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = type(md.getColumnTypeName(i + 1));
+        }
+        return types;
+    }
+
+    static boolean binary(Type[] types) {
+        for (Type type : types) {
+            if (type == Type.OTHER) return false;
+        }
+        return true;
+    }
+
+    /** Appends {@code value} as text-format field. */
+    static void appendText(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("\\N");
+            return;
+        }
+        if (value instanceof Boolean b) {
+            sb.append(b ? 't' : 'f');
+            return;
+        }
+        if (value instanceof byte[] bytes) {
+            sb.append("\\\\x").append(HexFormat.of().formatHex(bytes));
+            return;
+        }
+        String s = CanonicalTypes.text(value);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> sb.append(c);
+            }
+        }
+    }
+
+    /** Splits a text-format line into unescaped fields ({@code null} for {@code \N}). */
+    static String[] splitText(String line, int columns) {
+        String[] fields = new String[columns];
+        StringBuilder field = new StringBuilder();
+        int n = 0;
+        boolean escapedNull = false;
+        for (int i = 0; i <= line.length(); i++) {
+            char c = i < line.length() ? line.charAt(i) : '\t';
+            if (c == '\t') {
+                if (n == columns) throw new IllegalArgumentException("COPY row has more than " + columns + " fields: " + line);
+                fields[n++] = escapedNull && field.isEmpty() ? null : field.toString();
+                field.setLength(0);
+                escapedNull = false;
+            } else if (c == '\\' && i + 1 < line.length()) {
+                char e = line.charAt(++i);
+                switch (e) {
+                    case 'N' -> escapedNull = true;
+                    case 'b' -> field.append('\b');
+                    case 'f' -> field.append('\f');
+                    case 'n' -> field.append('\n');
+                    case 'r' -> field.append('\r');
+                    case 't' -> field.append('\t');
+                    case 'v' -> field.append('\u000b');
+                    default -> field.append(e);
+                }
+            } else {
+                field.append(c);
+            }
+        }
+        if (n != columns) throw new IllegalArgumentException("COPY row has " + n + " fields instead of " + columns + ": " + line);
+        return fields;
+    }
+
+    static Object fromText(Type type, String field) {
+        if (field == null) return null;
+        return switch (type) {
+            case INT2, INT4 -> Integer.valueOf(field);
+            case INT8 -> Long.valueOf(field);
+            case FLOAT4 -> Float.valueOf(field);
+            case FLOAT8 -> Double.valueOf(field);
+            case NUMERIC -> field.equals("NaN") ? Double.NaN : new BigDecimal(field);
+            case BOOL -> field.equals("t");
+            case DATE -> java.sql.Date.valueOf(LocalDate.parse(field));
+            case TIMESTAMP -> Timestamp.valueOf(field);
+            case BYTEA -> HexFormat.of().parseHex(field, 2, field.length());
+            case TEXT, OTHER -> field;
+        };
+    }
+
+    /** Writes {@code value} as binary-format field (length and send format of {@code type}). */
+    static void writeBinary(DataOutputStream out, Type type, Object value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        try {
+            switch (type) {
+                case INT2 -> {
+                    out.writeInt(2);
+                    long v = longValue(value);
+                    if (v != (short) v) throw new ArithmeticException("out of range");
+                    out.writeShort((int) v);
+                }
+                case INT4 -> {
+                    out.writeInt(4);
+                    out.writeInt(Math.toIntExact(longValue(value)));
+                }
+                case INT8 -> {
+                    out.writeInt(8);
+                    out.writeLong(longValue(value));
+                }
+                case FLOAT4 -> {
+                    out.writeInt(4);
+                    out.writeFloat((float) doubleValue(value));
+                }
+                case FLOAT8 -> {
+                    out.writeInt(8);
+                    out.writeDouble(doubleValue(value));
+                }
+                case NUMERIC -> writeNumeric(out, value);
+                case BOOL -> {
+                    out.writeInt(1);
+                    out.writeByte(booleanValue(value) ? 1 : 0);
+                }
+                case DATE -> {
+                    out.writeInt(4);
+                    out.writeInt(Math.toIntExact(dateValue(value).toEpochDay() - EPOCH_DAY));
+                }
+                case TIMESTAMP -> {
+                    out.writeInt(8);
+                    out.writeLong(ChronoUnit.MICROS.between(EPOCH, timestampValue(value)));
+                }
+                case TEXT, BYTEA -> {
+                    byte[] bytes = value instanceof byte[] b ? b : CanonicalTypes.text(value).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+                case OTHER -> throw new IllegalStateException("No binary COPY codec for column type");
+            }
+        } catch (ArithmeticException | java.time.DateTimeException | NumberFormatException e) {
+            throw new IllegalArgumentException("Cannot encode " + value + " as " + type + ": " + e.getMessage(), e);
+        }
+    }
+
+    /** Reads a binary-format field of {@code length} bytes ({@code -1}: null). */
+    static Object readBinary(DataInputStream in, Type type, int length) throws IOException {
+        if (length < 0) return null;
+        return switch (type) {
+            case INT2 -> (int) in.readShort();
+            case INT4 -> in.readInt();
+            case INT8 -> in.readLong();
+            case FLOAT4 -> in.readFloat();
+            case FLOAT8 -> in.readDouble();
+            case NUMERIC -> readNumeric(in);
+            case BOOL -> in.readByte() != 0;
+            case DATE -> java.sql.Date.valueOf(LocalDate.ofEpochDay(EPOCH_DAY + in.readInt()));
+            case TIMESTAMP -> Timestamp.valueOf(EPOCH.plus(in.readLong(), ChronoUnit.MICROS));
+            case TEXT, BYTEA, OTHER -> {
+                byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                yield type == Type.BYTEA ? bytes : new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /** {@code numeric} send format: digit count, weight and sign, display scale, base-10000 digits. */
+    private static void writeNumeric(DataOutputStream out, Object value) throws IOException {
+        if (value instanceof Double d && d.isNaN()) {
+            out.writeInt(8);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(NUMERIC_NAN);
+            out.writeShort(0);
+            return;
+        }
+        BigDecimal decimal = decimalValue(value);
+        int scale = Math.max(decimal.scale(), 0);
+        String plain = decimal.abs().setScale(scale).toPlainString();
+        int point = plain.indexOf('.');
+        String integer = point < 0 ? plain : plain.substring(0, point);
+        String fraction = point < 0 ? "" : plain.substring(point + 1);
+        integer = "0".repeat((4 - integer.length() % 4) % 4) + integer;
+        fraction = fraction + "0".repeat((4 - fraction.length() % 4) % 4);
+        String digits = integer + fraction;
+        int first = 0;
+        int last = digits.length() / 4;
+        while (first < last && digits.startsWith("0000", first * 4)) first++;
+        while (last > first && digits.startsWith("0000", (last - 1) * 4)) last--;
+        int count = last - first;
+        out.writeInt(8 + 2 * count);
+        out.writeShort(count);
+        out.writeShort(count == 0 ? 0 : integer.length() / 4 - 1 - first);
+        out.writeShort(decimal.signum() < 0 ? NUMERIC_NEG : 0);
+        out.writeShort(scale);
+        for (int i = first; i < last; i++) {
+            out.writeShort(Integer.parseInt(digits, i * 4, i * 4 + 4, 10));
+        }
+    }
+
+    private static Object readNumeric(DataInputStream in) throws IOException {
+        int count = in.readShort();
+        int weight = in.readShort();
+        int sign = in.readShort() & 0xffff;
+        int scale = in.readShort();
+        BigInteger unscaled = BigInteger.ZERO;
+        for (int i = 0; i < count; i++) {
+            unscaled = unscaled.multiply(NBASE).add(BigInteger.valueOf(in.readShort()));
+        }
+        if (sign == NUMERIC_NAN) return Double.NaN;
+        BigDecimal value = new BigDecimal(unscaled, (count - 1 - weight) * 4).setScale(scale, RoundingMode.HALF_UP);
+        return sign == NUMERIC_NEG ? value.negate() : value;
+    }
+
+    private static long longValue(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        return decimalValue(value).longValueExact();
+    }
+
+    private static double doubleValue(Object value) {
+        return value instanceof Number n ? n.doubleValue() : Double.parseDouble(value.toString().trim());
+    }
+
+    private static BigDecimal decimalValue(Object value) {
+        if (value instanceof BigDecimal d) return d;
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof Double || value instanceof Float) return BigDecimal.valueOf(((Number) value).doubleValue());
+        return new BigDecimal(value.toString().trim());
+    }
+
+    private static boolean booleanValue(Object value) {
+        if (value instanceof Boolean b) return b;
+        return switch (value.toString().trim().toLowerCase(Locale.ROOT)) {
+            case "t", "true", "y", "yes", "on", "1" -> true;
+            case "f", "false", "n", "no", "off", "0" -> false;
+            default -> throw new NumberFormatException("not a boolean");
+        };
+    }
+
+    private static LocalDate dateValue(Object value) {
+        if (value instanceof LocalDate d) return d;
+        if (value instanceof java.sql.Date d) return d.toLocalDate();
+        return LocalDate.parse(value.toString().trim());
+    }
+
+    private static LocalDateTime timestampValue(Object value) {
+        if (value instanceof LocalDateTime t) return t;
+        if (value instanceof Timestamp t) return t.toLocalDateTime();
+        return LocalDateTime.parse(value.toString().trim().replace(' ', 'T'));
+    }
+}
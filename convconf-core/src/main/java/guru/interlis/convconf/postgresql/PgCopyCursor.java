@@ -0,0 +1,109 @@
+package guru.interlis.convconf.postgresql;
+
+import guru.interlis.convconf.runtime.IndexedRow;
+import guru.interlis.convconf.runtime.RecordCursor;
+import guru.interlis.convconf.runtime.RowHeader;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.copy.PGCopyInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams the rows of a query with {@code COPY (...) TO STDOUT}. The {@code COPY} starts with the
+ * first {@link #next()}, so a cursor may be opened while another one is read (as the hash join
+ * does with its build side); two {@code COPY}s of one connection cannot be read interleaved.
+ */
+final class PgCopyCursor implements RecordCursor {
+    private final PostgreSqlAdapter owner;
+    private final CopyManager copy;
+    private final String sql;
+    private final RowHeader header;
+    private final int[] slots;
+    private final PgCopyCodec.Type[] types;
+    private final boolean binary;
+    private PGCopyInputStream stream;
+    private BufferedReader text;
+    private DataInputStream data;
+    private boolean done;
+
+    PgCopyCursor(PostgreSqlAdapter owner, CopyManager copy, String query, List<String> columns, PgCopyCodec.Type[] types, boolean binary) {
+        this.owner = owner;
+        this.copy = copy;
+        this.sql = "COPY (" + query + ") TO STDOUT" + (binary ? " (FORMAT binary)" : "");
+        this.header = RowHeader.of(columns);
+        this.slots = columns.stream().mapToInt(header::slot).toArray();
+        this.types = types;
+        this.binary = binary;
+    }
+
+    @Override
+    public Map<String, Object> next() throws SQLException, IOException {
+        if (done) return null;
+        if (stream == null) start();
+        Object[] values = new Object[header.size()];
+        if (binary) {
+            int fields = data.readShort();
+            if (fields == -1) return finish();
+            if (fields != types.length) throw new IllegalArgumentException("COPY row has " + fields + " fields instead of " + types.length);
+            for (int i = 0; i < types.length; i++) {
+                values[slots[i]] = PgCopyCodec.readBinary(data, types[i], data.readInt());
+            }
+        } else {
+            String line = text.readLine();
+            if (line == null) return finish();
+            String[] fields = PgCopyCodec.splitText(line, types.length);
+            for (int i = 0; i < types.length; i++) {
+                values[slots[i]] = PgCopyCodec.fromText(types[i], fields[i]);
+            }
+        }
+        return new IndexedRow(header, values);
+    }
+
+    private void start() throws SQLException, IOException {
+        owner.beginCopy();
+        try {
+            stream = new PGCopyInputStream(copy.copyOut(sql));
+        } catch (SQLException | RuntimeException e) {
+            owner.endCopy();
+            throw e;
+        }
+        if (binary) {
+            data = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            byte[] signature = new byte[PgCopyCodec.BINARY_SIGNATURE.length];
+            data.readFully(signature);
+            if (!Arrays.equals(signature, PgCopyCodec.BINARY_SIGNATURE)) throw new IllegalArgumentException("Unexpected binary COPY header");
+            data.readInt();
+            data.skipNBytes(data.readInt());
+        } else {
+            text = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8), 1 << 16);
+        }
+    }
+
+    private Map<String, Object> finish() throws IOException {
+        done = true;
+        close();
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        done = true;
+        if (stream == null) return;
+        PGCopyInputStream s = stream;
+        stream = null;
+        try {
+            s.close();
+        } finally {
+            owner.endCopy();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package guru.interlis.convconf.postgresql;
+
+import guru.interlis.convconf.runtime.IndexedRow;
+import guru.interlis.convconf.runtime.RowHeader;
+import guru.interlis.convconf.runtime.TargetTableWriter;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads rows with {@code COPY ... FROM STDIN}. Rows are encoded into a buffer that is sent as one
+ * {@code COPY} when it exceeds {@link #BUFFER_BYTES}, on {@link #flush} and on {@link #close}, so
+ * memory stays bounded and no {@code COPY} is left open while other writers of the connection append.
+ * The binary format needs a codec for every column type and otherwise falls back to text.
+ */
+final class PgCopyWriter implements TargetTableWriter {
+    static final int BUFFER_BYTES = 1 << 20;
+
+    private final PostgreSqlAdapter owner;
+    private final Connection connection;
+    private final CopyManager copy;
+    private final String targetName;
+    private final boolean binaryRequested;
+    private final Buffer buffer = new Buffer();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private final StringBuilder line = new StringBuilder();
+    private List<String> cols;
+    private RowHeader header;
+    private PgCopyCodec.Type[] types;
+    private String sql;
+    private int pending;
+
+    PgCopyWriter(PostgreSqlAdapter owner, Connection connection, CopyManager copy, String targetName, boolean binary) {
+        this.owner = owner;
+        this.connection = connection;
+        this.copy = copy;
+        this.targetName = targetName;
+        this.binaryRequested = binary;
+    }
+
+    @Override
+    public void append(Map<String, Object> row) throws SQLException, IOException {
+        if (cols == null) start(row);
+        boolean indexed = row instanceof IndexedRow r && r.header() == header;
+        if (types != null) {
+            out.writeShort(cols.size());
+            for (int i = 0; i < cols.size(); i++) {
+                Object value = indexed ? ((IndexedRow) row).valueAt(i) : row.get(cols.get(i));
+                try {
+                    PgCopyCodec.writeBinary(out, types[i], value);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Column " + cols.get(i) + " of " + targetName + ": " + e.getMessage(), e);
+                }
+            }
+        } else {
+            line.setLength(0);
+            for (int i = 0; i < cols.size(); i++) {
+                if (i > 0) line.append('\t');
+                PgCopyCodec.appendText(line, indexed ? ((IndexedRow) row).valueAt(i) : row.get(cols.get(i)));
+            }
+            out.write(line.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+        }
+        pending++;
+        if (buffer.size() >= BUFFER_BYTES) flush();
+    }
+
+    private void start(Map<String, Object> row) throws SQLException {
+        cols = new ArrayList<>(row.keySet());
+        header = row instanceof IndexedRow indexed ? indexed.header() : null;
+        String columnList = String.join(",", cols);
+        if (binaryRequested) {
+            try (PreparedStatement ps = connection.prepareStatement("SELECT " + columnList + " FROM " + targetName + " WHERE 1=0")) {
+                PgCopyCodec.Type[] columnTypes = PgCopyCodec.types(ps.getMetaData());
+                if (PgCopyCodec.binary(columnTypes)) types = columnTypes;
+            }
+        }
+        sql = "COPY " + targetName + "(" + columnList + ") FROM STDIN" + (types != null ? " (FORMAT binary)" : "");
+        reset();
+    }
+
+    private void reset() {
+        buffer.reset();
+        if (types != null) {
+            buffer.writeBytes(PgCopyCodec.BINARY_SIGNATURE);
+            buffer.writeBytes(new byte[8]);
+        }
+    }
+
+    @Override
+    public void flush() throws SQLException, IOException {
+        if (pending == 0) return;
+        if (types != null) out.writeShort(-1);
+        CopyIn in = copy.copyIn(sql);
+        try {
+            in.writeToCopy(buffer.bytes(), 0, buffer.size());
+            in.endCopy();
+        } finally {
+            if (in.isActive()) in.cancelCopy();
+        }
+        pending = 0;
+        reset();
+        owner.copied();
+    }
+
+    @Override
+    public void close() throws SQLException, IOException {
+        flush();
+    }
+
+    /** Row buffer sent without copying its array. */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(BUFFER_BYTES + (BUFFER_BYTES >> 2));
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
@@ -1,12 +1,189 @@
 package guru.interlis.convconf.postgresql;
 
+import guru.interlis.convconf.runtime.JdbcReadOptions;
 import guru.interlis.convconf.runtime.JdbcRecordAdapter;
+import guru.interlis.convconf.runtime.JdbcWriteOptions;
+import guru.interlis.convconf.runtime.RecordCursor;
+import guru.interlis.convconf.runtime.TargetTableWriter;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
 
-/** PostgreSQL-specific JDBC adapter (inherits generic JDBC behavior). */
+/**
+ * PostgreSQL-specific JDBC adapter (generic JDBC behavior, upserts via {@code ON CONFLICT}). Reads
+ * stream by default: pgjdbc only uses a server-side cursor for a forward-only query with a fetch
+ * size outside autocommit mode, so autocommit is off while a read is open.
+ * <p>
+ * With a {@link CopyFormat} other than {@link CopyFormat#NONE}, plain inserts and reads use
+ * {@code COPY} through pgjdbc's {@link CopyManager} instead ({@link PgCopyWriter}, {@link PgCopyCursor});
+ * upserts and deletes stay statements. Connections of other drivers (e.g. H2 in PostgreSQL mode)
+ * keep the JDBC path.
+ * </p>
+ */
 public final class PostgreSqlAdapter extends JdbcRecordAdapter {
+    /** Bulk transfer format. */
+    public enum CopyFormat {
+        NONE,
+        TEXT,
+        BINARY;
+
+        public static CopyFormat parse(String raw) {
+            try {
+                return valueOf(raw.trim().toUpperCase(Locale.ROOT));
+            } catch (Exception ignored) {
+                throw new IllegalArgumentException("Unsupported COPY format '" + raw + "'. Expected one of: none, text, binary");
+            }
+        }
+    }
+
+    private final CopyFormat copyFormat;
+    private CopyManager copyManager;
+    private boolean copying;
+
     public PostgreSqlAdapter(Connection connection) {
-        super(connection);
+        this(connection, JdbcReadOptions.streaming(JdbcReadOptions.DEFAULT_FETCH_SIZE));
+    }
+
+    public PostgreSqlAdapter(Connection connection, JdbcReadOptions readOptions) {
+        this(connection, readOptions, CopyFormat.NONE);
+    }
+
+    public PostgreSqlAdapter(Connection connection, JdbcReadOptions readOptions, CopyFormat copyFormat) {
+        this(connection, readOptions, JdbcWriteOptions.defaults(), copyFormat);
+    }
+
+    public PostgreSqlAdapter(Connection connection, JdbcReadOptions readOptions, JdbcWriteOptions writeOptions, CopyFormat copyFormat) {
+        super(connection, readOptions, writeOptions);
+        this.copyFormat = Objects.requireNonNull(copyFormat);
+    }
+
+    /**
+     * Connection properties for {@link java.sql.DriverManager#getConnection(String, Properties)}:
+     * credentials and, for pgjdbc URLs, {@code reWriteBatchedInserts=true}, so insert batches are
+     * sent as multi-row statements. Parameters in the JDBC URL take precedence.
+     */
+    public static Properties connectionProperties(String jdbcUrl, String user, String password) {
+        Properties properties = new Properties();
+        if (user != null) properties.setProperty("user", user);
+        if (password != null) properties.setProperty("password", password);
+        if (jdbcUrl.startsWith("jdbc:postgresql:")) properties.setProperty("reWriteBatchedInserts", "true");
+        return properties;
+    }
+
+    public CopyFormat copyFormat() {
+        return copyFormat;
+    }
+
+    /** {@code INSERT ... ON CONFLICT}; requires a unique constraint on the key column. */
+    @Override
+    protected String upsertSql(String targetName, List<String> columns, String keyColumn) {
+        String sql = "INSERT INTO " + targetName + "(" + String.join(",", columns) + ") VALUES(" + placeholders(columns.size()) + ")"
+                + " ON CONFLICT(" + keyColumn + ") DO ";
+        List<String> updates = columns.stream().filter(c -> !c.equals(keyColumn)).map(c -> c + "=EXCLUDED." + c).toList();
+        return sql + (updates.isEmpty() ? "NOTHING" : "UPDATE SET " + String.join(",", updates));
+    }
+
+    @Override
+    public TargetTableWriter open(String targetName) {
+        CopyManager copy = copyManager();
+        if (copy == null) return super.open(targetName);
+        return new PgCopyWriter(this, connection(), copy, targetName, copyFormat == CopyFormat.BINARY);
+    }
+
+    /**
+     * Exports the query with {@code COPY}; filter values are inlined as escaped string literals
+     * because {@code COPY} takes no parameters. Column names and types come from the metadata of
+     * the prepared (not executed) query; the binary format needs a codec for every column type and
+     * otherwise falls back to text.
+     */
+    @Override
+    protected RecordCursor select(String sql, List<String> parameters) throws SQLException {
+        CopyManager copy = copyManager();
+        if (copy == null) return super.select(sql, parameters);
+        String query = inline(sql, parameters);
+        List<String> columns = new ArrayList<>();
+        PgCopyCodec.Type[] types;
+        try (PreparedStatement ps = connection().prepareStatement(query)) {
+            ResultSetMetaData md = ps.getMetaData();
+            for (int i = 1; i <= md.getColumnCount(); i++) {
+                columns.add(md.getColumnLabel(i));
+            }
+            types = PgCopyCodec.types(md);
+        }
+        return new PgCopyCursor(this, copy, query, columns, types, copyFormat == CopyFormat.BINARY && PgCopyCodec.binary(types));
+    }
+
+    /**
+     * Replaces the {@code ?} placeholders with {@code E'...'} literals; a {@code ?} inside a quoted
+     * identifier or string literal is kept.
+     */
+    static String inline(String sql, List<String> parameters) {
+        StringBuilder out = new StringBuilder(sql.length() + 16 * parameters.size());
+        int next = 0;
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0 || c == '"' || c == '\'') {
+                if (quote == 0) quote = c;
+                else if (c == quote) quote = 0;
+                out.append(c);
+                continue;
+            }
+            if (c != '?') {
+                out.append(c);
+                continue;
+            }
+            String value = parameters.get(next++);
+            if (value == null) {
+                out.append("NULL");
+                continue;
+            }
+            out.append("E'");
+            for (int k = 0; k < value.length(); k++) {
+                char v = value.charAt(k);
+                if (v == '\'' || v == '\\') out.append(v);
+                out.append(v);
+            }
+            out.append('\'');
+        }
+        return out.toString();
+    }
+
+    private CopyManager copyManager() {
+        if (copyFormat == CopyFormat.NONE) return null;
+        if (copyManager == null) {
+            try {
+                if (!connection().isWrapperFor(PGConnection.class)) return null;
+                copyManager = connection().unwrap(PGConnection.class).getCopyAPI();
+            } catch (SQLException e) {
+                throw new IllegalArgumentException("COPY is not available on this connection: " + e.getMessage(), e);
+            }
+        }
+        return copyManager;
+    }
+
+    /** Counts a completed {@code COPY} of {@link PgCopyWriter} as one batch for the commit interval. */
+    void copied() throws SQLException {
+        batchExecuted();
+    }
+
+    synchronized void beginCopy() {
+        if (copying) {
+            throw new IllegalArgumentException("COPY reads of one connection cannot be interleaved; read sequentially or disable COPY");
+        }
+        copying = true;
+    }
+
+    synchronized void endCopy() {
+        copying = false;
     }
 }
@@ -3,13 +3,19 @@ package guru.interlis.convconf.runtime;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
-/** Canonical record bridging source and target logical models. */
+/**
+ * Canonical record bridging source and target logical models.
+ *
+ * @param values canonical values by KM attribute path: {@link String} for text and enumerations,
+ *               {@link Long}, {@link Double} or {@link java.math.BigDecimal} for numeric attributes
+ *               (see {@link CanonicalTypes})
+ */
 public record CanonicalRecord(
         String className,
         String ident,
         String parent,
         String structAttr,
-        Map<String, String> values) {
+        Map<String, Object> values) {
     public static CanonicalRecord of(String className, String ident) {
         return new CanonicalRecord(className, ident, null, null, new LinkedHashMap<>());
     }
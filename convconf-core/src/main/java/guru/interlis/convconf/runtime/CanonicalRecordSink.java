@@ -0,0 +1,13 @@
+package guru.interlis.convconf.runtime;
+
+/** Receives canonical records one by one while the source is read. */
+@FunctionalInterface
+public interface CanonicalRecordSink {
+    /**
+     * Accepts one canonical record.
+     *
+     * @param record record produced from one source row
+     * @throws Exception if the record cannot be processed (e.g. target write failure)
+     */
+    void accept(CanonicalRecord record) throws Exception;
+}
@@ -0,0 +1,544 @@
+package guru.interlis.convconf.runtime;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Canonical records partitioned by KM class as they are produced, stored column-wise.
+ * <p>
+ * Each {@link Partition} holds records of one class: a shared attribute-path schema, an ident
+ * vector and one value vector per path. Vectors of {@link Long} or {@link Double} values are
+ * primitive arrays; other vectors are dictionary-encoded ({@code int} codes into a per-column
+ * dictionary, pre-filled with the KM literals for enumerations) while their cardinality is low
+ * and fall back to plain object vectors once most values are distinct. Records are only materialized on demand, e.g. by
+ * {@link #records(String)} or {@link #toList()}; writing a target declaration reads the
+ * partitions of its class directly.
+ * </p>
+ * <p>
+ * With a memory budget, the store spills all in-memory partitions to a segment file once their
+ * estimated heap size exceeds the budget and continues with empty partitions. A class is then
+ * read back as a sequence of partitions, one decoded segment at a time, so heap use stays
+ * around the budget regardless of the dataset size. {@link #close()} deletes the segment file.
+ * </p>
+ */
+public final class CanonicalRecordStore implements CanonicalRecordSink, AutoCloseable {
+    private final Map<String, ClassSegments> byClass = new LinkedHashMap<>();
+    private final long memoryBudget;
+    private final Path spillDirectory;
+    private final CanonicalTypes types;
+    private Path spillFile;
+    private FileChannel spillChannel;
+    private DataOutputStream spillOut;
+    private int spilledSegments;
+    private long liveBytes;
+    private long size;
+
+    /** Creates a store that keeps all records on the heap. */
+    public CanonicalRecordStore() {
+        this(0, null, CanonicalTypes.NONE);
+    }
+
+    /** Creates an untyped store that spills to disk; see {@link #CanonicalRecordStore(long, Path, CanonicalTypes)}. */
+    public CanonicalRecordStore(long memoryBudget, Path spillDirectory) {
+        this(memoryBudget, spillDirectory, CanonicalTypes.NONE);
+    }
+
+    /**
+     * Creates a store that spills to disk when its estimated heap size exceeds {@code memoryBudget}.
+     *
+     * @param memoryBudget budget in bytes; {@code 0} keeps all records on the heap
+     * @param spillDirectory directory for the segment file ({@code null}: the system temp directory)
+     * @param types KM types; enumeration columns are encoded as ordinals of their KM literals
+     */
+    public CanonicalRecordStore(long memoryBudget, Path spillDirectory, CanonicalTypes types) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("memoryBudget must not be negative: " + memoryBudget);
+        }
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+        this.types = types;
+    }
+
+    /** Builds a store from an already materialized record list. */
+    public static CanonicalRecordStore of(Collection<CanonicalRecord> records) {
+        CanonicalRecordStore store = new CanonicalRecordStore();
+        records.forEach(store::add);
+        return store;
+    }
+
+    @Override
+    public void accept(CanonicalRecord record) {
+        add(record);
+    }
+
+    /**
+     * Adds a record, spilling in-memory partitions first if the memory budget is exhausted.
+     *
+     * @throws UncheckedIOException if the segment file cannot be written
+     */
+    public void add(CanonicalRecord record) {
+        ClassSegments segments = byClass.computeIfAbsent(record.className(), ClassSegments::new);
+        if (segments.live == null) segments.live = new Partition(record.className(), types);
+        liveBytes += segments.live.add(record);
+        size++;
+        if (memoryBudget > 0 && liveBytes > memoryBudget) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException("Spilling canonical records failed", e);
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        if (spillOut == null) {
+            Path dir = spillDirectory != null ? spillDirectory : Path.of(System.getProperty("java.io.tmpdir"));
+            Files.createDirectories(dir);
+            spillFile = Files.createTempFile(dir, "convconf-spill-", ".seg");
+            spillFile.toFile().deleteOnExit();
+            spillChannel = FileChannel.open(spillFile, StandardOpenOption.WRITE);
+            spillOut = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(spillChannel), 64 * 1024));
+        }
+        for (ClassSegments segments : byClass.values()) {
+            if (segments.live == null) continue;
+            spillOut.flush();
+            segments.spilled.add(new Segment(spillChannel.position()));
+            segments.live.writeTo(spillOut);
+            segments.live = null;
+            spilledSegments++;
+        }
+        spillOut.flush();
+        liveBytes = 0;
+    }
+
+    /**
+     * Partitions of exactly {@code className} in production order; spilled segments are decoded
+     * one at a time while iterating.
+     *
+     * @throws UncheckedIOException from the iterator if a segment cannot be read
+     */
+    public Iterable<Partition> partitions(String className) {
+        ClassSegments segments = byClass.get(className);
+        return segments == null ? List.of() : segments::iterator;
+    }
+
+    /** All partitions, grouped by class in order of first appearance. */
+    public Iterable<Partition> partitions() {
+        return () -> new Iterator<>() {
+            private final Iterator<ClassSegments> classes = List.copyOf(byClass.values()).iterator();
+            private Iterator<Partition> current = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && classes.hasNext()) {
+                    current = classes.next().iterator();
+                }
+                return current.hasNext();
+            }
+
+            @Override
+            public Partition next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return current.next();
+            }
+        };
+    }
+
+    /** Records of exactly {@code className} in production order (empty if none), materialized on access. */
+    public List<CanonicalRecord> records(String className) {
+        ClassSegments segments = byClass.get(className);
+        if (segments == null) return List.of();
+        if (segments.spilled.isEmpty() && segments.live != null) return segments.live.records();
+        List<CanonicalRecord> records = new ArrayList<>();
+        partitions(className).forEach(p -> records.addAll(p.records()));
+        return records;
+    }
+
+    /** KM classes present in the store, in order of first appearance. */
+    public Set<String> classNames() {
+        return Collections.unmodifiableSet(byClass.keySet());
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /** Number of partitions written to the segment file so far. */
+    public int spilledSegments() {
+        return spilledSegments;
+    }
+
+    /** All records grouped by class (classes in order of first appearance). */
+    public List<CanonicalRecord> toList() {
+        List<CanonicalRecord> all = new ArrayList<>((int) Math.min(size, Integer.MAX_VALUE));
+        partitions().forEach(p -> all.addAll(p.records()));
+        return all;
+    }
+
+    /** Deletes the segment file; spilled records are no longer readable afterwards. */
+    @Override
+    public void close() throws IOException {
+        if (spillOut != null) {
+            spillOut.close();
+            spillOut = null;
+            spillChannel = null;
+            Files.deleteIfExists(spillFile);
+        }
+    }
+
+    /** Spilled segments and the in-memory tail partition of one class. */
+    private final class ClassSegments {
+        private final String className;
+        private final List<Segment> spilled = new ArrayList<>();
+        private Partition live;
+
+        private ClassSegments(String className) {
+            this.className = className;
+        }
+
+        private Iterator<Partition> iterator() {
+            Iterator<Segment> segments = List.copyOf(spilled).iterator();
+            Partition tail = live;
+            return new Iterator<>() {
+                private boolean tailReturned = tail == null;
+
+                @Override
+                public boolean hasNext() {
+                    return segments.hasNext() || !tailReturned;
+                }
+
+                @Override
+                public Partition next() {
+                    if (segments.hasNext()) return readSegment(className, segments.next());
+                    if (tailReturned) throw new NoSuchElementException();
+                    tailReturned = true;
+                    return tail;
+                }
+            };
+        }
+    }
+
+    private Partition readSegment(String className, Segment segment) {
+        try (FileChannel channel = FileChannel.open(spillFile, StandardOpenOption.READ)) {
+            channel.position(segment.offset());
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+            return Partition.readFrom(className, types, in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Reading spilled canonical records failed", e);
+        }
+    }
+
+    /** Start of one spilled partition in the segment file. */
+    private record Segment(long offset) {}
+
+    /** Column vectors of the records of one KM class; rows are numbered in production order. */
+    public static final class Partition {
+        private final String className;
+        private final CanonicalTypes types;
+        private final Map<String, Integer> slots = new HashMap<>();
+        private final List<String> paths = new ArrayList<>();
+        private final List<Column> values = new ArrayList<>();
+        private final Column parents = new Column(List.of());
+        private final Column structAttrs = new Column(List.of());
+        private String[] idents = new String[16];
+        private int size;
+
+        private Partition(String className, CanonicalTypes types) {
+            this.className = className;
+            this.types = types;
+        }
+
+        /** Appends a record and returns the estimated number of heap bytes it added. */
+        private long add(CanonicalRecord rec) {
+            int row = addRow(rec.ident(), rec.parent(), rec.structAttr());
+            long bytes = Column.objectBytes(rec.ident()) + 8;
+            for (Map.Entry<String, Object> e : rec.values().entrySet()) {
+                bytes += values.get(slotOf(e.getKey())).set(row, e.getValue());
+            }
+            return bytes;
+        }
+
+        private int addRow(String ident, String parent, String structAttr) {
+            int row = size++;
+            if (row == idents.length) idents = Arrays.copyOf(idents, row * 2);
+            idents[row] = ident;
+            parents.set(row, parent);
+            structAttrs.set(row, structAttr);
+            return row;
+        }
+
+        private int slotOf(String path) {
+            Integer slot = slots.get(path);
+            if (slot == null) {
+                slot = paths.size();
+                slots.put(path, slot);
+                paths.add(path);
+                values.add(new Column(types.kind(className, path) == CanonicalTypes.Kind.ENUM ? types.enumValues(className, path) : List.of()));
+            }
+            return slot;
+        }
+
+        /** Writes the partition row by row: row count, paths, then ident, parent, struct attribute and present values. */
+        private void writeTo(DataOutput out) throws IOException {
+            SpillCodec.writeVarInt(out, size);
+            SpillCodec.writeVarInt(out, paths.size());
+            for (String path : paths) {
+                SpillCodec.writeString(out, path);
+            }
+            for (int row = 0; row < size; row++) {
+                SpillCodec.writeString(out, idents[row]);
+                SpillCodec.writeString(out, parent(row));
+                SpillCodec.writeString(out, structAttr(row));
+                for (Column column : values) {
+                    boolean present = column.present(row);
+                    out.writeBoolean(present);
+                    if (present) SpillCodec.writeValue(out, column.get(row));
+                }
+            }
+        }
+
+        private static Partition readFrom(String className, CanonicalTypes types, DataInput in) throws IOException {
+            Partition partition = new Partition(className, types);
+            int rows = SpillCodec.readVarInt(in);
+            int[] pathSlots = new int[SpillCodec.readVarInt(in)];
+            for (int i = 0; i < pathSlots.length; i++) {
+                pathSlots[i] = partition.slotOf(SpillCodec.readString(in));
+            }
+            for (int r = 0; r < rows; r++) {
+                int row = partition.addRow(SpillCodec.readString(in), SpillCodec.readString(in), SpillCodec.readString(in));
+                for (int slot : pathSlots) {
+                    if (in.readBoolean()) partition.values.get(slot).set(row, SpillCodec.readValue(in));
+                }
+            }
+            return partition;
+        }
+
+        public String className() {
+            return className;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /** Attribute paths of this class in order of first appearance. */
+        public List<String> paths() {
+            return Collections.unmodifiableList(paths);
+        }
+
+        /** Column slot of {@code path}, or -1 if no record of this class has that path. */
+        public int slot(String path) {
+            Integer slot = slots.get(path);
+            return slot == null ? -1 : slot;
+        }
+
+        public String ident(int row) {
+            return idents[Objects.checkIndex(row, size)];
+        }
+
+        public String parent(int row) {
+            return (String) parents.get(Objects.checkIndex(row, size));
+        }
+
+        public String structAttr(int row) {
+            return (String) structAttrs.get(Objects.checkIndex(row, size));
+        }
+
+        /** Value of column {@code slot} in {@code row}; {@code null} if absent, null or {@code slot < 0}. */
+        public Object value(int row, int slot) {
+            Objects.checkIndex(row, size);
+            return slot < 0 ? null : values.get(slot).get(row);
+        }
+
+        /** Whether the column of {@code path} is currently dictionary-encoded. */
+        public boolean dictionaryEncoded(String path) {
+            int slot = slot(path);
+            return slot >= 0 && values.get(slot).encoding == Encoding.DICTIONARY;
+        }
+
+        /** Whether the column of {@code path} is currently a primitive {@code long} or {@code double} vector. */
+        public boolean primitive(String path) {
+            int slot = slot(path);
+            return slot >= 0 && (values.get(slot).encoding == Encoding.LONG || values.get(slot).encoding == Encoding.DOUBLE);
+        }
+
+        /** Materializes one record; its value map contains the paths that were present when it was added. */
+        public CanonicalRecord record(int row) {
+            Objects.checkIndex(row, size);
+            Map<String, Object> vals = new LinkedHashMap<>(paths.size() * 4 / 3 + 1);
+            for (int slot = 0; slot < paths.size(); slot++) {
+                Column column = values.get(slot);
+                if (column.present(row)) vals.put(paths.get(slot), column.get(row));
+            }
+            return new CanonicalRecord(className, idents[row], parent(row), structAttr(row), vals);
+        }
+
+        private List<CanonicalRecord> records() {
+            return new RecordView(this);
+        }
+    }
+
+    /** Read-only list view that materializes records of a partition on access. */
+    private static final class RecordView extends AbstractList<CanonicalRecord> implements RandomAccess {
+        private final Partition partition;
+
+        private RecordView(Partition partition) {
+            this.partition = partition;
+        }
+
+        @Override
+        public CanonicalRecord get(int index) {
+            return partition.record(index);
+        }
+
+        @Override
+        public int size() {
+            return partition.size();
+        }
+    }
+
+    private enum Encoding { EMPTY, DICTIONARY, PLAIN, LONG, DOUBLE }
+
+    /**
+     * Value vector that distinguishes absent from {@code null} values by two bit sets. The
+     * first non-null value picks the encoding: {@link Long}s and {@link Double}s go to primitive
+     * arrays, anything else to a dictionary; a value that does not fit (or a mostly distinct
+     * dictionary) switches the column to a plain object array.
+     */
+    private static final class Column {
+        private static final int MIN_DICTIONARY = 256;
+        private static final int MAX_DICTIONARY = 1 << 16;
+
+        private final BitSet present = new BitSet();
+        private final BitSet nulls = new BitSet();
+        private final boolean bounded;
+        private Encoding encoding = Encoding.EMPTY;
+        private int[] codes;
+        private List<Object> dictionary;
+        private Map<Object, Integer> index;
+        private Object[] plain;
+        private long[] longs;
+        private double[] doubles;
+
+        /** @param literals dictionary entries known in advance (enum literals); the dictionary then never falls back to plain */
+        private Column(List<String> literals) {
+            this.bounded = !literals.isEmpty();
+            if (bounded) {
+                startDictionary();
+                for (String literal : literals) {
+                    if (index.putIfAbsent(literal, dictionary.size()) == null) dictionary.add(literal);
+                }
+            }
+        }
+
+        private void startDictionary() {
+            encoding = Encoding.DICTIONARY;
+            codes = new int[16];
+            dictionary = new ArrayList<>();
+            index = new HashMap<>();
+        }
+
+        /** Stores {@code value} in {@code row} and returns the estimated number of heap bytes added. */
+        private long set(int row, Object value) {
+            present.set(row);
+            if (value == null) {
+                nulls.set(row);
+                return 1;
+            }
+            if (encoding == Encoding.EMPTY) {
+                if (value instanceof Long) {
+                    encoding = Encoding.LONG;
+                    longs = new long[16];
+                } else if (value instanceof Double) {
+                    encoding = Encoding.DOUBLE;
+                    doubles = new double[16];
+                } else {
+                    startDictionary();
+                }
+            }
+            switch (encoding) {
+                case LONG -> {
+                    if (value instanceof Long l) {
+                        if (row >= longs.length) longs = Arrays.copyOf(longs, Math.max(row + 1, longs.length * 2));
+                        longs[row] = l;
+                        return 8;
+                    }
+                }
+                case DOUBLE -> {
+                    if (value instanceof Double d) {
+                        if (row >= doubles.length) doubles = Arrays.copyOf(doubles, Math.max(row + 1, doubles.length * 2));
+                        doubles[row] = d;
+                        return 8;
+                    }
+                }
+                case DICTIONARY -> {
+                    Integer code = index.get(value);
+                    if (code == null && (bounded ? dictionary.size() < MAX_DICTIONARY : !mostlyDistinct(row + 1))) {
+                        code = dictionary.size();
+                        dictionary.add(value);
+                        index.put(value, code);
+                        if (row >= codes.length) codes = Arrays.copyOf(codes, Math.max(row + 1, codes.length * 2));
+                        codes[row] = code;
+                        return 4 + 2 * objectBytes(value);
+                    }
+                    if (code != null) {
+                        if (row >= codes.length) codes = Arrays.copyOf(codes, Math.max(row + 1, codes.length * 2));
+                        codes[row] = code;
+                        return 4;
+                    }
+                }
+                default -> {
+                }
+            }
+            if (encoding != Encoding.PLAIN) toPlain(row);
+            if (row >= plain.length) plain = Arrays.copyOf(plain, Math.max(row + 1, plain.length * 2));
+            plain[row] = value;
+            return 8 + objectBytes(value);
+        }
+
+        private boolean mostlyDistinct(int rows) {
+            return dictionary.size() >= MAX_DICTIONARY || (dictionary.size() >= MIN_DICTIONARY && dictionary.size() * 2 >= rows);
+        }
+
+        static long objectBytes(Object value) {
+            if (value == null) return 0;
+            if (value instanceof String s) return 48 + 2L * s.length();
+            return 32;
+        }
+
+        /** Copies all rows before {@code row} into a plain object array. */
+        private void toPlain(int row) {
+            Object[] copy = new Object[Math.max(16, row + 1)];
+            for (int r = 0; r < row; r++) {
+                copy[r] = get(r);
+            }
+            encoding = Encoding.PLAIN;
+            plain = copy;
+            codes = null;
+            dictionary = null;
+            index = null;
+            longs = null;
+            doubles = null;
+        }
+
+        private boolean present(int row) {
+            return present.get(row);
+        }
+
+        private Object get(int row) {
+            if (!present.get(row) || nulls.get(row)) return null;
+            return switch (encoding) {
+                case EMPTY -> null;
+                case DICTIONARY -> dictionary.get(codes[row]);
+                case PLAIN -> plain[row];
+                case LONG -> longs[row];
+                case DOUBLE -> doubles[row];
+            };
+        }
+    }
+}
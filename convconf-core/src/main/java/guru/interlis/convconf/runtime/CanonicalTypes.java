@@ -0,0 +1,107 @@
+package guru.interlis.convconf.runtime;
+
+import guru.interlis.convconf.km.KmSchema;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * KM attribute types that decide the Java representation of canonical values.
+ * <p>
+ * Values of {@link Kind#NUMERIC} attributes are kept as {@link Long} (integral values that fit),
+ * {@link Double} (floating-point source values) or {@link BigDecimal}; all other values are
+ * canonical text. {@link Kind#ENUM} attributes also expose their literals in KM order, which the
+ * {@link CanonicalRecordStore} uses as dictionary, so enum values are stored as ordinals.
+ * Attributes are looked up in the class and its super classes; unknown attributes are text.
+ * </p>
+ */
+public final class CanonicalTypes {
+    /** Attribute type relevant for the canonical representation. */
+    public enum Kind { TEXT, NUMERIC, ENUM }
+
+    /** No type information: every value is canonical text. */
+    public static final CanonicalTypes NONE = new CanonicalTypes(Map.of());
+
+    private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    private final Map<String, Map<String, Attribute>> byClass;
+
+    private CanonicalTypes(Map<String, Map<String, Attribute>> byClass) {
+        this.byClass = byClass;
+    }
+
+    /** Derives canonical types from the {@code typeKind}s of a KM schema. */
+    public static CanonicalTypes of(KmSchema km) {
+        Map<String, Map<String, Attribute>> byClass = new HashMap<>();
+        for (String className : km.classNames()) {
+            Map<String, Attribute> attributes = new HashMap<>();
+            Set<String> visited = new HashSet<>();
+            for (var c = km.classes().get(className); c != null && visited.add(c.name()); c = c.superClass() == null ? null : km.classes().get(c.superClass())) {
+                c.attributes().values().forEach(a -> attributes.putIfAbsent(a.name(), Attribute.of(a)));
+            }
+            byClass.put(className, Map.copyOf(attributes));
+        }
+        return new CanonicalTypes(Map.copyOf(byClass));
+    }
+
+    public Kind kind(String className, String path) {
+        Attribute attribute = attribute(className, path);
+        return attribute == null ? Kind.TEXT : attribute.kind();
+    }
+
+    /** Enum literals of {@code path} in KM order (empty unless the attribute is an enumeration). */
+    public List<String> enumValues(String className, String path) {
+        Attribute attribute = attribute(className, path);
+        return attribute == null ? List.of() : attribute.enumValues();
+    }
+
+    private Attribute attribute(String className, String path) {
+        Map<String, Attribute> attributes = byClass.get(className);
+        return attributes == null ? null : attributes.get(path);
+    }
+
+    /**
+     * Converts a source value to its canonical representation. Numeric text that cannot be
+     * parsed is kept as text, so value validation stays with the validators.
+     */
+    static Object canonical(Kind kind, Object raw) {
+        if (raw == null) return null;
+        if (kind != Kind.NUMERIC) return text(raw);
+        if (raw instanceof Long || raw instanceof Double) return raw;
+        if (raw instanceof Integer || raw instanceof Short || raw instanceof Byte) return ((Number) raw).longValue();
+        if (raw instanceof Float f) return f.doubleValue();
+        if (raw instanceof BigDecimal d) return integral(d);
+        if (raw instanceof BigInteger i) return integral(new BigDecimal(i));
+        String s = raw.toString().trim();
+        if (s.isEmpty()) return null;
+        try {
+            return integral(new BigDecimal(s));
+        } catch (NumberFormatException e) {
+            return raw.toString();
+        }
+    }
+
+    private static Object integral(BigDecimal d) {
+        if (d.scale() <= 0 && d.compareTo(LONG_MIN) >= 0 && d.compareTo(LONG_MAX) <= 0) return d.longValueExact();
+        return d;
+    }
+
+    /** Textual form of a canonical value as written to text targets and trace events. */
+    public static String text(Object value) {
+        if (value == null) return null;
+        if (value instanceof BigDecimal d) return d.toPlainString();
+        return value.toString();
+    }
+
+    private record Attribute(Kind kind, List<String> enumValues) {
+        static Attribute of(KmSchema.KmAttributeInfo a) {
+            return switch (a.typeKind() == null ? "" : a.typeKind()) {
+                case "NUMERIC" -> new Attribute(Kind.NUMERIC, List.of());
+                case "ENUM" -> new Attribute(Kind.ENUM, List.copyOf(a.enumValues()));
+                default -> new Attribute(Kind.TEXT, List.of());
+            };
+        }
+    }
+}
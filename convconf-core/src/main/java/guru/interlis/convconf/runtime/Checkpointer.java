@@ -0,0 +1,117 @@
+package guru.interlis.convconf.runtime;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Checkpoints of a streaming run: the source position whose target rows have all been flushed.
+ * <p>
+ * A position is a declaration index (source {@code DATA} in LM order, then {@code INSPECTION}s)
+ * and the number of rows consumed from that declaration. The engine moves the position before
+ * every record and {@link #save saves} it after every flush, so the file always names a prefix
+ * of the source that is in the target. A resumed run skips that prefix; rows flushed after the
+ * last save are written once more, which is why resumed runs upsert their first
+ * {@link #replayRows()} target rows. Skipping by offset requires the source to return the rows
+ * in the same order as in the failed run.
+ * </p>
+ */
+final class Checkpointer {
+    private final Path file;
+    private final String declarations;
+    private final int chunkSize;
+    private final boolean resuming;
+    private final int resumeDeclaration;
+    private final long resumeRows;
+    private final int replayRows;
+    private int declaration;
+    private long rows;
+
+    private Checkpointer(Path file, String declarations, int chunkSize, boolean resuming, int resumeDeclaration, long resumeRows, int replayRows) {
+        this.file = file;
+        this.declarations = declarations;
+        this.chunkSize = chunkSize;
+        this.resuming = resuming;
+        this.resumeDeclaration = resumeDeclaration;
+        this.resumeRows = resumeRows;
+        this.replayRows = replayRows;
+    }
+
+    /**
+     * Opens the checkpoint file of a run.
+     *
+     * @param declarations source tables in declaration order; a resumed run must use the same
+     * @param resume continue after the position in {@code file}; without file the run starts at the beginning
+     */
+    static Checkpointer open(Path file, boolean resume, List<String> declarations, int chunkSize) throws IOException {
+        String fingerprint = String.join(",", declarations);
+        if (!resume || !Files.exists(file)) {
+            return new Checkpointer(file, fingerprint, chunkSize, resume, 0, 0, chunkSize);
+        }
+        Properties p = new Properties();
+        try (Reader in = Files.newBufferedReader(file)) {
+            p.load(in);
+        }
+        if (!fingerprint.equals(p.getProperty("declarations"))) {
+            throw new IllegalArgumentException("Checkpoint " + file + " was written for other source declarations: " + p.getProperty("declarations"));
+        }
+        try {
+            return new Checkpointer(file, fingerprint, chunkSize, true, Integer.parseInt(p.getProperty("declaration")),
+                    Long.parseLong(p.getProperty("rows")), Integer.parseInt(p.getProperty("chunkSize")));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid checkpoint " + file + ": " + e.getMessage());
+        }
+    }
+
+    /** Rows of declaration {@code index} that were written before; {@code -1} if the whole declaration was. */
+    long skip(int index) {
+        if (index < resumeDeclaration) return -1;
+        return index == resumeDeclaration ? resumeRows : 0;
+    }
+
+    /** Whether this run continues a failed run. */
+    boolean resuming() {
+        return resuming;
+    }
+
+    /** Target rows a resumed run writes as upserts: at most one chunk of the failed run was flushed without checkpoint. */
+    int replayRows() {
+        return replayRows;
+    }
+
+    /** Marks {@code rows} rows of declaration {@code index} as handed to the target writers. */
+    void position(int index, long rows) {
+        this.declaration = index;
+        this.rows = rows;
+    }
+
+    /** Records the current position; called once the target writers are flushed. */
+    void save() throws IOException {
+        Properties p = new Properties();
+        p.setProperty("declarations", declarations);
+        p.setProperty("declaration", Integer.toString(declaration));
+        p.setProperty("rows", Long.toString(rows));
+        p.setProperty("chunkSize", Integer.toString(chunkSize));
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(tmp)) {
+                p.store(out, "convconf checkpoint");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** Deletes the checkpoint after a successful run. */
+    void complete() throws IOException {
+        Files.deleteIfExists(file);
+    }
+}
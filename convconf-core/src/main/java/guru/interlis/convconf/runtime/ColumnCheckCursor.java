@@ -0,0 +1,65 @@
+package guru.interlis.convconf.runtime;
+
+import guru.interlis.convconf.lm.ColumnMap;
+import guru.interlis.convconf.lm.DataDecl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks during the conversion read that the rows of a source {@code DATA} have its {@code IDENT}
+ * and {@code COLUMN} columns, the checks {@code LmDataValidator} cannot do from reader metadata.
+ * Indexed rows are checked once per {@link RowHeader}, plain maps row by row.
+ */
+final class ColumnCheckCursor implements RecordCursor {
+    private final RecordCursor rows;
+    private final DataDecl decl;
+    private RowHeader checked;
+
+    ColumnCheckCursor(RecordCursor rows, DataDecl decl) {
+        this.rows = rows;
+        this.decl = decl;
+    }
+
+    @Override
+    public Map<String, Object> next() throws Exception {
+        Map<String, Object> row = rows.next();
+        if (row instanceof IndexedRow indexed) {
+            if (indexed.header() != checked) {
+                check(indexed.header(), row.keySet());
+                checked = indexed.header();
+            }
+        } else if (row != null) {
+            check(null, row.keySet());
+        }
+        return row;
+    }
+
+    private void check(RowHeader header, Set<String> keys) {
+        List<String> errors = new ArrayList<>();
+        if (decl.identColumn() != null && !has(header, keys, decl.identColumn())) {
+            errors.add("Missing ident column " + decl.identColumn() + " in source " + decl.sourceTable());
+        }
+        for (ColumnMap c : decl.columns()) {
+            if (!has(header, keys, c.column())) {
+                errors.add("Missing column " + c.column() + " in source " + decl.sourceTable());
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IllegalArgumentException("Validation failed: " + errors);
+        }
+    }
+
+    private static boolean has(RowHeader header, Set<String> keys, String column) {
+        if (header != null) return header.resolve(column) >= 0;
+        if (keys.contains(column)) return true;
+        return keys.stream().anyMatch(k -> k.equalsIgnoreCase(column));
+    }
+
+    @Override
+    public void close() throws Exception {
+        rows.close();
+    }
+}
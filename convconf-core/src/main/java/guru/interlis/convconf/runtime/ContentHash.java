@@ -0,0 +1,44 @@
+package guru.interlis.convconf.runtime;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Seeded 64-bit hash over a sequence of nullable texts (FNV-1a per text, terminated so that
+ * {@code null}, empty text and shifted boundaries hash differently, finished with the MurmurHash3
+ * mixer). Used for content-derived idents and delta state; not a cryptographic hash.
+ */
+final class ContentHash {
+    private static final long PRIME = 0x100000001b3L;
+
+    private long h;
+
+    ContentHash(long seed) {
+        this.h = seed;
+    }
+
+    ContentHash add(String text) {
+        if (text == null) {
+            h = (h ^ 0xFF) * PRIME;
+            return this;
+        }
+        for (byte b : text.getBytes(StandardCharsets.UTF_8)) {
+            h = (h ^ (b & 0xFF)) * PRIME;
+        }
+        h = (h ^ 0xFE) * PRIME;
+        return this;
+    }
+
+    ContentHash addValue(Object value) {
+        return add(CanonicalTypes.text(value));
+    }
+
+    long value() {
+        long k = h;
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -1,18 +1,34 @@
 package guru.interlis.convconf.runtime;
 
-import guru.interlis.convconf.lm.ColumnMap;
 import guru.interlis.convconf.lm.DataDecl;
 import guru.interlis.convconf.lm.InspectionDecl;
 import guru.interlis.convconf.lm.LmModel;
 import guru.interlis.convconf.plan.ConversionPlan;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Executes source-to-target conversion through canonical records.
  * <p>
- * The engine first reads source rows into KM-shaped canonical records and then
- * writes those records using target LM mappings.
+ * In {@link ConversionOptions.Mode#IN_MEMORY} mode the engine first reads source rows into
+ * KM-shaped canonical records, partitioned by class in a {@link CanonicalRecordStore}, and then
+ * writes those records using target LM mappings. With {@link ConversionOptions#memoryBudget()} the
+ * store spills to local segment files, so datasets larger than the heap can be converted.
+ * In {@link ConversionOptions.Mode#STREAMING} mode every canonical record is mapped to its
+ * target rows immediately and appended to incremental {@link TargetTableWriter}s that are
+ * flushed every {@link ConversionOptions#chunkSize()} rows, so heap usage does not grow with
+ * the dataset. Sources are always consumed through {@link RecordCursor}s.
+ * {@link ConversionOptions.Mode#PIPELINED} mode runs the streaming conversion as three concurrent
+ * stages (read, map, write) connected by bounded queues.
+ * {@link ConversionOptions.Mode#INCREMENTAL} mode streams like {@code STREAMING} but writes only
+ * the records whose content hash differs from the previous run, as upserts and deletes.
+ * With {@link ConversionOptions#parallelism()} above 1, in-memory conversions read source
+ * declarations and write target tables concurrently and merge the results in declaration order.
  * </p>
  */
 public final class ConversionEngine {
@@ -23,7 +39,20 @@ public final class ConversionEngine {
                                     RecordTargetWriter targetWriter,
                                     ConversionPlan plan,
                                     boolean traceEnabled) throws Exception {
-        return convert(sourceReader, targetWriter, plan.sourceModel(), plan.targetModel(), traceEnabled);
+        return convert(sourceReader, targetWriter, plan, ConversionOptions.defaults().withTrace(traceEnabled), null);
+    }
+
+    /**
+     * Executes conversion from a pre-built plan with explicit execution options.
+     *
+     * @param recordListener optional callback invoked for every canonical record (may be {@code null})
+     */
+    public ConversionResult convert(RecordSourceReader sourceReader,
+                                    RecordTargetWriter targetWriter,
+                                    ConversionPlan plan,
+                                    ConversionOptions options,
+                                    Consumer<CanonicalRecord> recordListener) throws Exception {
+        return convert(sourceReader, targetWriter, plan.sourceModel(), plan.targetModel(), options, recordListener);
     }
 
     /**
@@ -34,103 +63,712 @@ public final class ConversionEngine {
                                     LmModel sourceLm,
                                     LmModel targetLm,
                                     boolean traceEnabled) throws Exception {
-        List<TraceEvent> trace = traceEnabled ? new ArrayList<>() : null;
-        List<CanonicalRecord> canonical = readCanonical(sourceReader, sourceLm, trace);
-        writeCanonical(targetWriter, targetLm, canonical, trace);
-        return new ConversionResult(canonical, trace == null ? List.of() : trace);
+        return convert(sourceReader, targetWriter, sourceLm, targetLm, ConversionOptions.defaults().withTrace(traceEnabled), null);
+    }
+
+    /**
+     * Executes conversion directly from parsed source/target LM models with explicit execution options.
+     *
+     * @param recordListener optional callback invoked for every canonical record (may be {@code null})
+     */
+    public ConversionResult convert(RecordSourceReader sourceReader,
+                                    RecordTargetWriter targetWriter,
+                                    LmModel sourceLm,
+                                    LmModel targetLm,
+                                    ConversionOptions options,
+                                    Consumer<CanonicalRecord> recordListener) throws Exception {
+        return convert(sourceReader, targetWriter, sourceLm, targetLm, options, recordListener, null);
+    }
+
+    /**
+     * Executes conversion with explicit execution options and a caller-owned trace sink.
+     *
+     * @param recordListener optional callback invoked for every canonical record (may be {@code null});
+     *                       a {@link SkippedRecordListener} also receives the records a resumed run skips
+     * @param traceSink receives trace events while the conversion runs (may be {@code null}); when
+     *                  {@code null} and {@link ConversionOptions#traceEnabled()} is set, events are
+     *                  collected into {@link ConversionResult#traceEvents()} instead. The sink is not closed.
+     */
+    public ConversionResult convert(RecordSourceReader sourceReader,
+                                    RecordTargetWriter targetWriter,
+                                    LmModel sourceLm,
+                                    LmModel targetLm,
+                                    ConversionOptions options,
+                                    Consumer<CanonicalRecord> recordListener,
+                                    TraceSink traceSink) throws Exception {
+        List<TraceEvent> collected = traceSink == null && options.traceEnabled() ? new ArrayList<>() : null;
+        TraceSink trace = traceSink != null ? traceSink : collected == null ? null : collected::add;
+        List<TraceEvent> events = collected == null ? List.of() : collected;
+        Consumer<CanonicalRecord> listener = recordListener == null ? rec -> {} : recordListener;
+        Consumer<CanonicalRecord> skipped = recordListener instanceof SkippedRecordListener s ? s::skipped : null;
+        if (options.checkpoint() != null && options.mode() != ConversionOptions.Mode.STREAMING && options.mode() != ConversionOptions.Mode.PIPELINED) {
+            throw new IllegalArgumentException("Checkpoints are only supported in " + ConversionOptions.Mode.STREAMING + " and " + ConversionOptions.Mode.PIPELINED + " mode");
+        }
+        if (options.checkpoint() != null) {
+            requireStableIdents(sourceLm, options.identStrategy(), "checkpoints need", EnumSet.of(IdentStrategy.COUNTER, IdentStrategy.CONTENT_HASH));
+        }
+        if (options.checkpoint() != null && !targetWriter.commitsOnFlush()) {
+            throw new IllegalArgumentException("Checkpoints need a target that commits every flush (JDBC without transactional runs or interval commits)");
+        }
+        if (options.resume() && options.checkpoint() == null) {
+            throw new IllegalArgumentException("resume requires a checkpoint file");
+        }
+        return switch (options.mode()) {
+            case IN_MEMORY -> {
+                if (options.parallelism() > 1) {
+                    yield convertParallel(sourceReader, targetWriter, sourceLm, targetLm, options, trace, events, listener);
+                }
+                CanonicalRecordStore canonical = new CanonicalRecordStore(options.memoryBudget(), options.spillDirectory(), options.canonicalTypes());
+                try {
+                    readCanonical(sourceReader, sourceLm, trace, options, rec -> {
+                        listener.accept(rec);
+                        canonical.add(rec);
+                    });
+                    long written = writeCanonical(targetWriter, targetLm, canonical, trace, options.traceFilter());
+                    yield new ConversionResult(canonical, events, canonical.size(), written);
+                } catch (Exception | Error e) {
+                    closeQuietly(canonical, e);
+                    throw e;
+                }
+            }
+            case STREAMING -> {
+                Checkpointer checkpoints = checkpointer(sourceLm, options);
+                ConversionResult result;
+                try (ChunkedTargetRouter router = new ChunkedTargetRouter(targetWriter, targetLm, options.chunkSize(), trace, options.traceFilter(), checkpoints)) {
+                    long read = readCanonical(sourceReader, sourceLm, trace, options, checkpoints, skipped, rec -> {
+                        listener.accept(rec);
+                        router.accept(rec);
+                    });
+                    router.flush();
+                    result = new ConversionResult(new CanonicalRecordStore(), events, read, router.rowsWritten());
+                }
+                if (checkpoints != null) checkpoints.complete();
+                yield result;
+            }
+            case PIPELINED -> convertPipelined(sourceReader, targetWriter, sourceLm, targetLm, options, trace, events, listener, skipped);
+            case INCREMENTAL -> {
+                if (options.deltaState() == null) {
+                    throw new IllegalArgumentException("deltaState is required in " + ConversionOptions.Mode.INCREMENTAL + " mode");
+                }
+                requireStableIdents(sourceLm, options.identStrategy(), ConversionOptions.Mode.INCREMENTAL + " mode needs", EnumSet.of(IdentStrategy.CONTENT_HASH));
+                DeltaState previous = DeltaState.load(options.deltaState());
+                try (DeltaRouter router = new DeltaRouter(targetWriter, targetLm, previous, options.chunkSize(), trace, options.traceFilter())) {
+                    long read = readCanonical(sourceReader, sourceLm, trace, options, rec -> {
+                        listener.accept(rec);
+                        router.accept(rec);
+                    });
+                    router.finish();
+                    yield new ConversionResult(new CanonicalRecordStore(), events, read, router.rowsWritten(), null, router.stats(), router.current());
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs reading, mapping and writing on three threads connected by bounded queues of row and
+     * record batches. The caller's thread is the writer stage; listener calls, trace events and
+     * target rows keep the order of a {@link ConversionOptions.Mode#STREAMING} run.
+     */
+    private ConversionResult convertPipelined(RecordSourceReader sourceReader,
+                                              RecordTargetWriter targetWriter,
+                                              LmModel sourceLm,
+                                              LmModel targetLm,
+                                              ConversionOptions options,
+                                              TraceSink trace,
+                                              List<TraceEvent> events,
+                                              Consumer<CanonicalRecord> listener,
+                                              Consumer<CanonicalRecord> skipped) throws Exception {
+        BlockingQueue<List<SourceRow>> rowQueue = new ArrayBlockingQueue<>(options.queueCapacity());
+        BlockingQueue<List<MappedRecord>> recordQueue = new ArrayBlockingQueue<>(options.queueCapacity());
+        List<SourceRow> rowsEnd = new ArrayList<>(0);
+        List<MappedRecord> recordsEnd = new ArrayList<>(0);
+        StageGauge readerGauge = new StageGauge();
+        StageGauge mapperGauge = new StageGauge();
+        StageGauge writerGauge = new StageGauge();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        int batchSize = ConversionOptions.PIPELINE_BATCH_SIZE;
+        Checkpointer checkpoints = checkpointer(sourceLm, options);
+
+        ExecutorService stages = Executors.newFixedThreadPool(2, Thread.ofPlatform().name("convconf-stage-", 0).daemon(true).factory());
+        try {
+            Future<?> reader = stages.submit(() -> {
+                try {
+                    List<SourceRow> batch = new ArrayList<>(batchSize);
+                    List<DataSource> sources = new ArrayList<>();
+                    DeclarationLinks links = new DeclarationLinks(sourceLm, options, d -> joined(sourceReader, d, options));
+                    for (DataDecl d : sourceLm.dataDecls()) {
+                        sources.add(links.isAnnexe(d) ? null : new DataSource(checked(joined(sourceReader, d, options), d, options), d.sourceTable(), d.whereEquals(), links.mapper(d)));
+                    }
+                    sourceLm.inspections().forEach(i -> sources.add(new DataSource(sourceReader, i.sourceTable(), Map.of(),
+                            SourceRowMapper.forInspection(sourceLm, i, options.traceFilter(), options.canonicalTypes()))));
+                    for (int index = 0; index < sources.size(); index++) {
+                        DataSource source = sources.get(index);
+                        if (source == null) continue;
+                        long skip = checkpoints == null ? 0 : checkpoints.skip(index);
+                        if (skip < 0 && skipped == null) continue;
+                        long position = 0;
+                        try (RecordCursor rows = source.reader().open(source.table(), source.whereEquals(), source.mapper().sourceColumns())) {
+                            for (var row = rows.next(); row != null; row = rows.next()) {
+                                position++;
+                                batch.add(new SourceRow(source.mapper(), row, index, position, skip < 0 || position <= skip));
+                                if (batch.size() == batchSize) {
+                                    readerGauge.put(rowQueue, batch);
+                                    batch = new ArrayList<>(batchSize);
+                                }
+                            }
+                        }
+                    }
+                    if (!batch.isEmpty()) readerGauge.put(rowQueue, batch);
+                } finally {
+                    if (!cancelled.get()) readerGauge.put(rowQueue, rowsEnd);
+                }
+                return null;
+            });
+            Future<?> mapper = stages.submit(() -> {
+                try {
+                    for (List<SourceRow> batch = mapperGauge.take(rowQueue); batch != rowsEnd; batch = mapperGauge.take(rowQueue)) {
+                        List<MappedRecord> mapped = new ArrayList<>(batch.size());
+                        List<TraceEvent> batchTrace = trace == null ? null : new ArrayList<>();
+                        for (SourceRow r : batch) {
+                            int from = batchTrace == null ? 0 : batchTrace.size();
+                            CanonicalRecord rec = r.mapper().map(r.row(), batchTrace == null || r.skipped() ? null : batchTrace::add);
+                            mapped.add(new MappedRecord(rec, r.declaration(), r.position(), r.skipped(), batchTrace, from, batchTrace == null ? 0 : batchTrace.size()));
+                        }
+                        mapperGauge.put(recordQueue, mapped);
+                    }
+                } finally {
+                    if (!cancelled.get()) mapperGauge.put(recordQueue, recordsEnd);
+                }
+                return null;
+            });
+
+            long read = 0;
+            ConversionResult result;
+            try (ChunkedTargetRouter router = new ChunkedTargetRouter(targetWriter, targetLm, options.chunkSize(), trace, options.traceFilter(), checkpoints)) {
+                for (List<MappedRecord> batch = writerGauge.take(recordQueue); batch != recordsEnd; batch = writerGauge.take(recordQueue)) {
+                    for (MappedRecord m : batch) {
+                        if (m.skipped()) {
+                            if (skipped != null) skipped.accept(m.record());
+                            continue;
+                        }
+                        if (trace != null) m.replayReadTrace(trace);
+                        if (checkpoints != null) checkpoints.position(m.declaration(), m.position());
+                        listener.accept(m.record());
+                        router.accept(m.record());
+                        read++;
+                    }
+                }
+                awaitStage(mapper);
+                awaitStage(reader);
+                router.flush();
+                PipelineStats stats = new PipelineStats(options.queueCapacity(), readerGauge.maxDepth, mapperGauge.maxDepth,
+                        readerGauge.stallNanos, mapperGauge.idleNanos, mapperGauge.stallNanos, writerGauge.idleNanos);
+                result = new ConversionResult(new CanonicalRecordStore(), events, read, router.rowsWritten(), stats, null, null);
+            }
+            if (checkpoints != null) checkpoints.complete();
+            return result;
+        } finally {
+            cancelled.set(true);
+            stages.shutdownNow();
+            stages.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * Requires one of the {@code stable} ident strategies if a source {@code DATA} has no
+     * {@code IDENT} column. An incremental run matches records by ident, so generated idents must be
+     * the same in every run: only {@link IdentStrategy#CONTENT_HASH}, counters change with the source
+     * order and would delete and re-insert all their records. A resumed run upserts the rows flushed
+     * after the last checkpoint, which needs the idents of the failed run: counters qualify as well,
+     * since resuming already requires the same source order. Random and time-based idents never do.
+     */
+    private static void requireStableIdents(LmModel sourceLm, IdentStrategy strategy, String usage, Set<IdentStrategy> stable) {
+        if (stable.contains(strategy)) return;
+        for (DataDecl d : sourceLm.dataDecls()) {
+            if (d.identColumn() == null) {
+                throw new IllegalArgumentException("Source DATA " + d.name() + " has no IDENT column; " + usage + " one or ident strategy "
+                        + stable.stream().map(String::valueOf).collect(Collectors.joining(" or ")) + " instead of " + strategy);
+            }
+        }
+    }
+
+    /** Opens the checkpoint file of {@code options} ({@code null} without checkpoints). */
+    private static Checkpointer checkpointer(LmModel sourceLm, ConversionOptions options) throws Exception {
+        if (options.checkpoint() == null) return null;
+        List<String> declarations = new ArrayList<>();
+        sourceLm.dataDecls().forEach(d -> declarations.add(d.sourceTable()));
+        sourceLm.inspections().forEach(i -> declarations.add(i.sourceTable()));
+        return Checkpointer.open(options.checkpoint(), options.resume(), declarations, options.chunkSize());
+    }
+
+    private static void closeQuietly(CanonicalRecordStore store, Throwable failure) {
+        try {
+            store.close();
+        } catch (Exception e) {
+            failure.addSuppressed(e);
+        }
+    }
+
+    /** Waits for a finished stage and rethrows its failure. The mapper is awaited first: if it failed, the reader may still block on a full queue. */
+    private static void awaitStage(Future<?> stage) throws Exception {
+        try {
+            stage.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ex ? ex : e;
+        }
+    }
+
+    /**
+     * In-memory conversion that reads source declarations and writes target tables concurrently.
+     * Records and their trace events are streamed to the listener, the store and the trace sink in
+     * declaration order, each declaration reading ahead through a bounded queue, so the listener,
+     * the result and the read trace are the same as in a sequential run. Write trace events follow
+     * in target table order.
+     */
+    private ConversionResult convertParallel(RecordSourceReader sourceReader,
+                                             RecordTargetWriter targetWriter,
+                                             LmModel sourceLm,
+                                             LmModel targetLm,
+                                             ConversionOptions options,
+                                             TraceSink trace,
+                                             List<TraceEvent> events,
+                                             Consumer<CanonicalRecord> listener) throws Exception {
+        CanonicalRecordStore canonical = new CanonicalRecordStore(options.memoryBudget(), options.spillDirectory(), options.canonicalTypes());
+        try {
+            return convertParallel(sourceReader, targetWriter, sourceLm, targetLm, options, canonical, trace, events, listener);
+        } catch (Exception | Error e) {
+            closeQuietly(canonical, e);
+            throw e;
+        }
+    }
+
+    private ConversionResult convertParallel(RecordSourceReader sourceReader,
+                                             RecordTargetWriter targetWriter,
+                                             LmModel sourceLm,
+                                             LmModel targetLm,
+                                             ConversionOptions options,
+                                             CanonicalRecordStore canonical,
+                                             TraceSink trace,
+                                             List<TraceEvent> events,
+                                             Consumer<CanonicalRecord> listener) throws Exception {
+        int parallelism = options.parallelism();
+        TraceFilter traceFilter = options.traceFilter();
+        CanonicalTypes types = options.canonicalTypes();
+        RecordSourceReader reader = sourceReader.supportsConcurrentReads() ? sourceReader : DeclarationTasks.serialized(sourceReader);
+        List<DeclarationTasks.Producer<MappedRecord>> reads = new ArrayList<>();
+        DeclarationLinks links = new DeclarationLinks(sourceLm, options, d -> joined(reader, d, options));
+        for (DataDecl d : sourceLm.dataDecls()) {
+            if (links.isAnnexe(d)) continue;
+            reads.add(readTask(checked(joined(reader, d, options), d, options), d.sourceTable(), d.whereEquals(), links.mapper(d), trace != null));
+        }
+        for (InspectionDecl i : sourceLm.inspections()) {
+            reads.add(readTask(reader, i.sourceTable(), Map.of(), SourceRowMapper.forInspection(sourceLm, i, traceFilter, types), trace != null));
+        }
+        DeclarationTasks.stream(parallelism, options.queueCapacity(), ConversionOptions.PIPELINE_BATCH_SIZE, reads, m -> {
+            if (trace != null) m.replayReadTrace(trace);
+            listener.accept(m.record());
+            canonical.add(m.record());
+        });
+
+        RecordTargetWriter writer = targetWriter.supportsConcurrentWrites() ? targetWriter : DeclarationTasks.serialized(targetWriter);
+        Map<String, List<DataDecl>> declsByTable = new LinkedHashMap<>();
+        targetLm.dataDecls().forEach(d -> declsByTable.computeIfAbsent(d.sourceTable(), k -> new ArrayList<>()).add(d));
+        AtomicLong rows = new AtomicLong();
+        List<DeclarationTasks.Producer<TraceEvent>> writes = new ArrayList<>();
+        for (List<DataDecl> sameTable : declsByTable.values()) {
+            writes.add(out -> {
+                for (DataDecl d : sameTable) {
+                    rows.addAndGet(writeDecl(writer, targetLm, d, canonical, trace == null ? null : out::accept, traceFilter));
+                }
+            });
+        }
+        DeclarationTasks.stream(parallelism, options.queueCapacity(), ConversionOptions.PIPELINE_BATCH_SIZE, writes, trace == null ? event -> {} : trace::accept);
+        return new ConversionResult(canonical, events, canonical.size(), rows.get());
+    }
+
+    /**
+     * Task reading one declaration; every record is passed on with the trace events of its
+     * mapping, so they reach the trace sink in the order of a sequential run.
+     */
+    private DeclarationTasks.Producer<MappedRecord> readTask(RecordSourceReader reader, String sourceTable, Map<String, String> whereEquals,
+                                                             SourceRowMapper mapper, boolean traced) {
+        return out -> {
+            List<TraceEvent> pending = traced ? new ArrayList<>() : null;
+            readDecl(reader, sourceTable, whereEquals, mapper, pending == null ? null : pending::add, rec -> {
+                List<TraceEvent> recordTrace = pending == null || pending.isEmpty() ? List.of() : List.copyOf(pending);
+                if (pending != null) pending.clear();
+                out.accept(new MappedRecord(rec, 0, 0, false, recordTrace, 0, recordTrace.size()));
+            }, 0, null, null);
+        };
     }
 
     public List<CanonicalRecord> readCanonical(RecordSourceReader sourceReader, LmModel lm, List<TraceEvent> trace) throws Exception {
         List<CanonicalRecord> out = new ArrayList<>();
+        readCanonical(sourceReader, lm, trace == null ? null : trace::add, out::add);
+        return out;
+    }
+
+    /**
+     * Reads all source declarations, streaming canonical records to {@code sink} and trace events to {@code trace}.
+     *
+     * @param trace trace sink (may be {@code null})
+     * @return number of canonical records produced
+     */
+    public long readCanonical(RecordSourceReader sourceReader, LmModel lm, TraceSink trace, CanonicalRecordSink sink) throws Exception {
+        return readCanonical(sourceReader, lm, trace, TraceFilter.ALL, sink);
+    }
+
+    /**
+     * Reads all source declarations, tracing only the records selected by {@code traceFilter}.
+     *
+     * @return number of canonical records produced
+     */
+    public long readCanonical(RecordSourceReader sourceReader, LmModel lm, TraceSink trace, TraceFilter traceFilter, CanonicalRecordSink sink) throws Exception {
+        return readCanonical(sourceReader, lm, trace, traceFilter, CanonicalTypes.NONE, sink);
+    }
+
+    /**
+     * Reads all source declarations, converting values to the representation given by {@code types}.
+     *
+     * @return number of canonical records produced
+     */
+    public long readCanonical(RecordSourceReader sourceReader, LmModel lm, TraceSink trace, TraceFilter traceFilter,
+                              CanonicalTypes types, CanonicalRecordSink sink) throws Exception {
+        return readCanonical(sourceReader, lm, trace, ConversionOptions.defaults().withTraceFilter(traceFilter).withCanonicalTypes(types), sink);
+    }
+
+    /**
+     * Reads all source declarations with the trace filter, canonical types and ident strategy of {@code options}.
+     *
+     * @return number of canonical records produced
+     */
+    public long readCanonical(RecordSourceReader sourceReader, LmModel lm, TraceSink trace, ConversionOptions options,
+                              CanonicalRecordSink sink) throws Exception {
+        return readCanonical(sourceReader, lm, trace, options, null, null, sink);
+    }
+
+    private long readCanonical(RecordSourceReader sourceReader, LmModel lm, TraceSink trace, ConversionOptions options,
+                               Checkpointer checkpoints, Consumer<CanonicalRecord> skipped, CanonicalRecordSink sink) throws Exception {
+        long count = 0;
+        int index = 0;
+        DeclarationLinks links = new DeclarationLinks(lm, options, d -> joined(sourceReader, d, options));
         for (DataDecl d : lm.dataDecls()) {
-            var rows = sourceReader.read(d.sourceTable(), d.whereEquals());
-            for (var row : rows) {
-                String ident = d.identColumn() == null ? UUID.randomUUID().toString() : Objects.toString(get(row, d.identColumn()), null);
-                Map<String, String> vals = new LinkedHashMap<>();
-                for (ColumnMap c : d.columns()) {
-                    String raw = Objects.toString(get(row, c.column()), null);
-                    String mapped = mapValue(lm, c.valueMapName(), raw);
-                    vals.put(c.targetPath(), mapped);
-                    addTrace(trace, new TraceEvent("READ", d.className(), ident, c.column(), c.targetPath(), mapped, "source=" + d.sourceTable()));
-                }
-                out.add(new CanonicalRecord(d.className(), ident, null, null, vals));
+            if (links.isAnnexe(d)) {
+                index++;
+                continue;
             }
+            count += readDecl(checked(joined(sourceReader, d, options), d, options), d.sourceTable(), d.whereEquals(), links.mapper(d), trace, sink, index++, checkpoints, skipped);
         }
         for (InspectionDecl i : lm.inspections()) {
-            var rows = sourceReader.read(i.sourceTable(), Map.of());
-            for (var row : rows) {
-                String ident = Objects.toString(get(row, i.identColumn()), null);
-                String parent = Objects.toString(get(row, i.parentColumn()), null);
-                String structAttr = mapValue(lm, i.structAttrMap(), Objects.toString(get(row, i.structAttrColumn()), null));
-                String klass = mapValue(lm, i.classMap(), Objects.toString(get(row, i.classColumn()), null));
-                Map<String, String> vals = new LinkedHashMap<>();
-                for (ColumnMap c : i.columns()) {
-                    String mapped = mapValue(lm, c.valueMapName(), Objects.toString(get(row, c.column()), null));
-                    vals.put(c.targetPath(), mapped);
-                    addTrace(trace, new TraceEvent("READ", klass != null ? klass : i.className(), ident, c.column(), c.targetPath(), mapped, "inspection=" + i.sourceTable()));
+            count += readDecl(sourceReader, i.sourceTable(), Map.of(),
+                    SourceRowMapper.forInspection(lm, i, options.traceFilter(), options.canonicalTypes()), trace, sink, index++, checkpoints, skipped);
+        }
+        return count;
+    }
+
+    /**
+     * Reader for one source {@code DATA}: its {@code JOIN}s run as {@link HashJoinCursor}s bounded by
+     * {@link ConversionOptions#memoryBudget()}, or inside the source query if
+     * {@link ConversionOptions#joinPushdown()} is set and the reader supports it.
+     */
+    private static RecordSourceReader joined(RecordSourceReader reader, DataDecl d, ConversionOptions options) {
+        if (d.joins().isEmpty()) return reader;
+        return new RecordSourceReader() {
+            @Override
+            public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws Exception {
+                return RecordCursor.drain(open(sourceName, equalsFilter));
+            }
+
+            @Override
+            public RecordCursor open(String sourceName, Map<String, String> equalsFilter) throws Exception {
+                return open(sourceName, equalsFilter, null);
+            }
+
+            @Override
+            public RecordCursor open(String sourceName, Map<String, String> equalsFilter, Set<String> columns) throws Exception {
+                if (options.joinPushdown() && reader.supportsJoinPushdown()) {
+                    return reader.openJoin(sourceName, equalsFilter, d.joins(), columns);
+                }
+                return HashJoinCursor.open(reader, sourceName, equalsFilter, d.joins(), columns, options.memoryBudget(), options.spillDirectory());
+            }
+        };
+    }
+
+    /**
+     * Reader checking the columns of the rows of {@code d} if {@link ConversionOptions#validateSourceColumns()}
+     * is set, so source validation needs no read pass of its own.
+     */
+    private static RecordSourceReader checked(RecordSourceReader reader, DataDecl d, ConversionOptions options) {
+        if (!options.validateSourceColumns()) return reader;
+        return new RecordSourceReader() {
+            @Override
+            public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws Exception {
+                return RecordCursor.drain(open(sourceName, equalsFilter));
+            }
+
+            @Override
+            public RecordCursor open(String sourceName, Map<String, String> equalsFilter) throws Exception {
+                return new ColumnCheckCursor(reader.open(sourceName, equalsFilter), d);
+            }
+
+            @Override
+            public RecordCursor open(String sourceName, Map<String, String> equalsFilter, Set<String> columns) throws Exception {
+                return new ColumnCheckCursor(reader.open(sourceName, equalsFilter, columns), d);
+            }
+        };
+    }
+
+    /**
+     * Reads one declaration. Rows written by a resumed run's predecessor are still mapped (without
+     * trace), so generated idents and trace sampling continue as in an uninterrupted run. If
+     * {@code skipped} is not {@code null}, it receives these records, and declarations the
+     * predecessor completed are read for it as well. Only the columns the mapper needs are requested
+     * from the reader.
+     */
+    private long readDecl(RecordSourceReader sourceReader, String sourceTable, Map<String, String> whereEquals,
+                          SourceRowMapper mapper, TraceSink trace, CanonicalRecordSink sink,
+                          int index, Checkpointer checkpoints, Consumer<CanonicalRecord> skipped) throws Exception {
+        long skip = checkpoints == null ? 0 : checkpoints.skip(index);
+        if (skip < 0 && skipped == null) return 0;
+        long count = 0;
+        long position = 0;
+        try (RecordCursor rows = sourceReader.open(sourceTable, whereEquals, mapper.sourceColumns())) {
+            for (var row = rows.next(); row != null; row = rows.next()) {
+                if (skip < 0 || ++position <= skip) {
+                    CanonicalRecord rec = mapper.map(row, null);
+                    if (skipped != null) skipped.accept(rec);
+                    continue;
                 }
-                out.add(new CanonicalRecord(klass != null ? klass : i.className(), ident, parent, structAttr, vals));
+                CanonicalRecord rec = mapper.map(row, trace);
+                if (checkpoints != null) checkpoints.position(index, position);
+                sink.accept(rec);
+                count++;
             }
         }
-        return out;
+        return count;
     }
 
-    public void writeCanonical(RecordTargetWriter targetWriter, LmModel lm, List<CanonicalRecord> records, List<TraceEvent> trace) throws Exception {
+    /**
+     * Writes materialized canonical records, one table writer per target declaration.
+     *
+     * @return number of target rows written
+     */
+    public long writeCanonical(RecordTargetWriter targetWriter, LmModel lm, List<CanonicalRecord> records, List<TraceEvent> trace) throws Exception {
+        return writeCanonical(targetWriter, lm, CanonicalRecordStore.of(records), trace == null ? null : trace::add);
+    }
+
+    /**
+     * Writes class-partitioned canonical records, streaming trace events to {@code trace} (may be {@code null}).
+     *
+     * @return number of target rows written
+     */
+    public long writeCanonical(RecordTargetWriter targetWriter, LmModel lm, CanonicalRecordStore records, TraceSink trace) throws Exception {
+        return writeCanonical(targetWriter, lm, records, trace, TraceFilter.ALL);
+    }
+
+    /**
+     * Writes class-partitioned canonical records, tracing only the records selected by {@code traceFilter}.
+     *
+     * @return number of target rows written
+     */
+    public long writeCanonical(RecordTargetWriter targetWriter, LmModel lm, CanonicalRecordStore records, TraceSink trace, TraceFilter traceFilter) throws Exception {
+        long written = 0;
         for (DataDecl d : lm.dataDecls()) {
-            List<Map<String, Object>> rows = new ArrayList<>();
-            for (CanonicalRecord rec : records) {
-                if (!rec.className().equals(d.className())) continue;
-                Map<String, Object> row = new LinkedHashMap<>();
-                if (d.identColumn() != null) row.put(d.identColumn(), rec.ident());
-                for (ColumnMap c : d.columns()) {
-                    String v = switch (c.targetPath()) {
-                        case "$PARENT" -> rec.parent();
-                        case "$STRUCTATTR" -> rec.structAttr();
-                        case "$CLASS" -> rec.className();
-                        case "$IDENT" -> rec.ident();
-                        default -> rec.values().get(c.targetPath());
-                    };
-                    Object finalValue = reverseMap(lm, c.valueMapName(), v);
-                    row.put(c.column(), finalValue);
-                    addTrace(trace, new TraceEvent("WRITE", rec.className(), rec.ident(), c.targetPath(), c.column(), Objects.toString(finalValue, null), "target=" + d.sourceTable()));
+            written += writeDecl(targetWriter, lm, d, records, trace, traceFilter);
+        }
+        return written;
+    }
+
+    private long writeDecl(RecordTargetWriter targetWriter, LmModel lm, DataDecl d, CanonicalRecordStore records,
+                           TraceSink trace, TraceFilter traceFilter) throws Exception {
+        long written = 0;
+        TargetRowMapper mapper = new TargetRowMapper(lm, d, traceFilter);
+        try (TargetTableWriter table = targetWriter.open(d.sourceTable())) {
+            for (CanonicalRecordStore.Partition partition : records.partitions(d.className())) {
+                for (int row = 0; row < partition.size(); row++) {
+                    table.append(mapper.map(partition, row, trace));
+                    written++;
                 }
-                rows.add(row);
             }
-            targetWriter.write(d.sourceTable(), rows);
         }
+        return written;
     }
 
-    private void addTrace(List<TraceEvent> trace, TraceEvent event) {
-        if (trace != null) {
-            trace.add(event);
+    /**
+     * Appends target rows to one open table writer per target declaration and flushes all
+     * writers whenever {@code chunkSize} rows have been appended since the last flush.
+     * With checkpoints, every flush is followed by a checkpoint; a resumed run writes through
+     * upsert writers until it has passed the rows the failed run may have flushed after its last checkpoint.
+     */
+    private final class ChunkedTargetRouter implements CanonicalRecordSink, AutoCloseable {
+        private final RecordTargetWriter targetWriter;
+        private final int chunkSize;
+        private final TraceSink trace;
+        private final Checkpointer checkpoints;
+        private final Map<String, List<Route>> routesByClass = new HashMap<>();
+        private final List<TargetTableWriter> writers = new ArrayList<>();
+        private boolean replay;
+        private int pending;
+        private long written;
+
+        private ChunkedTargetRouter(RecordTargetWriter targetWriter, LmModel lm, int chunkSize, TraceSink trace, TraceFilter traceFilter,
+                                    Checkpointer checkpoints) {
+            this.targetWriter = targetWriter;
+            this.chunkSize = chunkSize;
+            this.trace = trace;
+            this.checkpoints = checkpoints;
+            this.replay = checkpoints != null && checkpoints.resuming();
+            lm.dataDecls().forEach(d -> routesByClass.computeIfAbsent(d.className(), k -> new ArrayList<>())
+                    .add(new Route(d, new TargetRowMapper(lm, d, traceFilter))));
+        }
+
+        @Override
+        public void accept(CanonicalRecord rec) throws Exception {
+            for (Route route : routesByClass.getOrDefault(rec.className(), List.of())) {
+                if (route.table == null) {
+                    route.table = replay ? openReplay(route.decl) : targetWriter.open(route.decl.sourceTable());
+                    writers.add(route.table);
+                }
+                route.table.append(route.mapper.map(rec, trace));
+                pending++;
+                written++;
+            }
+            if (pending >= chunkSize) {
+                flush();
+            }
         }
-    }
 
-    private Object get(Map<String, Object> row, String column) {
-        if (row.containsKey(column)) {
-            return row.get(column);
+        private TargetTableWriter openReplay(DataDecl d) throws Exception {
+            if (d.identColumn() == null) {
+                throw new IllegalArgumentException("Resuming requires an IDENT column in target DATA " + d.name());
+            }
+            return targetWriter.openUpsert(d.sourceTable(), d.identColumn());
         }
-        for (var e : row.entrySet()) {
-            if (e.getKey().equalsIgnoreCase(column)) {
-                return e.getValue();
+
+        private void flush() throws Exception {
+            for (TargetTableWriter table : writers) {
+                table.flush();
+            }
+            pending = 0;
+            if (checkpoints != null) {
+                checkpoints.save();
+                if (replay && written >= checkpoints.replayRows()) {
+                    close();
+                    routesByClass.values().forEach(routes -> routes.forEach(route -> route.table = null));
+                    replay = false;
+                }
             }
         }
-        return null;
+
+        private long rowsWritten() {
+            return written;
+        }
+
+        @Override
+        public void close() throws Exception {
+            Exception failure = null;
+            for (TargetTableWriter table : writers) {
+                try {
+                    table.close();
+                } catch (Exception e) {
+                    if (failure == null) failure = e; else failure.addSuppressed(e);
+                }
+            }
+            writers.clear();
+            if (failure != null) throw failure;
+        }
     }
 
-    private String mapValue(LmModel lm, String mapName, String value) {
-        if (mapName == null || value == null || "@".equals(value)) return value;
-        Map<Integer, String> map = lm.valueMaps().get(mapName);
-        if (map == null) throw new IllegalArgumentException("Unknown map " + mapName);
-        return map.get(Integer.parseInt(value));
+    /** Source object of one declaration in the pipelined reader stage. */
+    private record DataSource(RecordSourceReader reader, String table, Map<String, String> whereEquals, SourceRowMapper mapper) {}
+
+    /**
+     * Raw row travelling from the reader to the mapper stage, with the mapper of its declaration and
+     * its 1-based position there; {@code skipped} rows lie before the checkpoint of a resumed run.
+     */
+    private record SourceRow(SourceRowMapper mapper, Map<String, Object> row, int declaration, long position, boolean skipped) {}
+
+    /** Canonical record travelling from the mapper to the writer stage; its READ events are {@code batchTrace[from, to)}. */
+    private record MappedRecord(CanonicalRecord record, int declaration, long position, boolean skipped,
+                                List<TraceEvent> batchTrace, int from, int to) {
+        void replayReadTrace(TraceSink trace) {
+            for (int i = from; i < to; i++) {
+                trace.accept(batchTrace.get(i));
+            }
+        }
     }
 
-    private Object reverseMap(LmModel lm, String mapName, String value) {
-        if (mapName == null || value == null || "@".equals(value)) return value;
-        Map<Integer, String> map = lm.valueMaps().get(mapName);
-        return map.entrySet().stream().filter(e -> e.getValue().equals(value)).findFirst().orElseThrow().getKey();
+    /** Queue depth and blocking time of one pipeline stage; only touched by the stage's own thread. */
+    private static final class StageGauge {
+        private int maxDepth;
+        private long stallNanos;
+        private long idleNanos;
+
+        <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+            if (!queue.offer(item)) {
+                long start = System.nanoTime();
+                queue.put(item);
+                stallNanos += System.nanoTime() - start;
+            }
+            maxDepth = Math.max(maxDepth, queue.size());
+        }
+
+        <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+            T item = queue.poll();
+            if (item == null) {
+                long start = System.nanoTime();
+                item = queue.take();
+                idleNanos += System.nanoTime() - start;
+            }
+            return item;
+        }
     }
 
-    /** Result tuple with canonical records and optional trace events. */
-    public record ConversionResult(List<CanonicalRecord> canonicalRecords, List<TraceEvent> traceEvents) {}
+    /** Target declaration of the streaming router with its compiled mapper and lazily opened writer. */
+    private static final class Route {
+        private final DataDecl decl;
+        private final TargetRowMapper mapper;
+        private TargetTableWriter table;
+
+        private Route(DataDecl decl, TargetRowMapper mapper) {
+            this.decl = decl;
+            this.mapper = mapper;
+        }
+    }
+
+    /**
+     * Result tuple with canonical records, optional trace events and run counters.
+     * <p>
+     * In {@link ConversionOptions.Mode#STREAMING}, {@link ConversionOptions.Mode#PIPELINED} and
+     * {@link ConversionOptions.Mode#INCREMENTAL} mode {@code canonicalStore} is always empty;
+     * only the counters describe the run.
+     * </p>
+     *
+     * @param canonicalStore column-wise canonical records (in-memory mode only); close it to delete
+     *                       spilled segment files
+     * @param traceEvents collected trace events (empty when trace is disabled or streamed to a {@link TraceSink})
+     * @param recordsRead number of canonical records produced from the source
+     * @param rowsWritten number of rows handed to the target writer
+     * @param pipelineStats queue and stall counters ({@link ConversionOptions.Mode#PIPELINED} mode only, otherwise {@code null})
+     * @param deltaStats change counters ({@link ConversionOptions.Mode#INCREMENTAL} mode only, otherwise {@code null})
+     * @param deltaState content hashes of an {@link ConversionOptions.Mode#INCREMENTAL} run ({@code null}
+     *                   in other modes); the caller saves it to {@link ConversionOptions#deltaState()}
+     *                   once the target has committed the run
+     */
+    public record ConversionResult(CanonicalRecordStore canonicalStore,
+                                   List<TraceEvent> traceEvents,
+                                   long recordsRead,
+                                   long rowsWritten,
+                                   PipelineStats pipelineStats,
+                                   DeltaStats deltaStats,
+                                   DeltaState deltaState) {
+        public ConversionResult(CanonicalRecordStore canonicalStore, List<TraceEvent> traceEvents, long recordsRead, long rowsWritten) {
+            this(canonicalStore, traceEvents, recordsRead, rowsWritten, null, null, null);
+        }
+
+        /** Materializes all canonical records, grouped by class. */
+        public List<CanonicalRecord> canonicalRecords() {
+            return canonicalStore.toList();
+        }
+    }
 }
@@ -0,0 +1,165 @@
+package guru.interlis.convconf.runtime;
+
+import java.nio.file.Path;
+
+/**
+ * Execution options for {@link ConversionEngine}.
+ *
+ * @param mode execution mode (materialized canonical list or bounded streaming)
+ * @param chunkSize maximum number of target rows buffered before they are flushed to the writer;
+ *                  this is the memory ceiling of the {@link Mode#STREAMING} mode
+ * @param traceEnabled if {@code true}, runtime trace events are collected
+ * @param parallelism number of declarations read or written concurrently; values above 1 require
+ *                    {@link Mode#IN_MEMORY}, whose result stays identical to a sequential run
+ * @param queueCapacity capacity (in batches of {@link #PIPELINE_BATCH_SIZE} items) of each queue
+ *                      between the stages of the {@link Mode#PIPELINED} mode
+ * @param traceFilter selects the records that produce trace events
+ * @param memoryBudget estimated heap bytes of canonical records kept by the {@link Mode#IN_MEMORY} mode
+ *                     before they are spilled to disk; {@code 0} disables spilling
+ * @param spillDirectory directory for spilled segment files ({@code null}: the system temp directory)
+ * @param canonicalTypes KM attribute types deciding the representation of canonical values
+ * @param identStrategy generates idents for source declarations without {@code IDENT} column
+ * @param deltaState state file with the content hashes of the previous {@link Mode#INCREMENTAL} run
+ *                   (required in that mode; created by the first run and replaced by the caller
+ *                   with {@link ConversionEngine.ConversionResult#deltaState()} after the target committed)
+ * @param checkpoint file recording the flushed source position of a {@link Mode#STREAMING} or
+ *                   {@link Mode#PIPELINED} run after every chunk ({@code null}: no checkpoints)
+ * @param resume if {@code true}, continue after the position recorded in {@code checkpoint}
+ * @param joinPushdown if {@code true}, {@code JOIN}s of source declarations run inside the source
+ *                     query when the reader {@link RecordSourceReader#supportsJoinPushdown() supports it};
+ *                     otherwise they run as hash joins bounded by {@code memoryBudget}
+ * @param validateSourceColumns if {@code true}, the rows read for a source {@code DATA} must have its
+ *                              {@code IDENT} and {@code COLUMN} columns (checked once per row header)
+ * @param maxValidationErrors number of KM validation errors after which a run is aborted
+ */
+public record ConversionOptions(Mode mode, int chunkSize, boolean traceEnabled, int parallelism, int queueCapacity,
+                                TraceFilter traceFilter, long memoryBudget, Path spillDirectory,
+                                CanonicalTypes canonicalTypes, IdentStrategy identStrategy, Path deltaState,
+                                Path checkpoint, boolean resume, boolean joinPushdown, boolean validateSourceColumns,
+                                int maxValidationErrors) {
+    public static final int DEFAULT_CHUNK_SIZE = 10_000;
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+    public static final int PIPELINE_BATCH_SIZE = 256;
+    public static final int DEFAULT_MAX_VALIDATION_ERRORS = 1_000;
+
+    public ConversionOptions {
+        if (mode == null) {
+            throw new IllegalArgumentException("mode is required");
+        }
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        if (traceFilter == null) {
+            throw new IllegalArgumentException("traceFilter is required");
+        }
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        }
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        if (canonicalTypes == null) {
+            throw new IllegalArgumentException("canonicalTypes is required");
+        }
+        if (identStrategy == null) {
+            throw new IllegalArgumentException("identStrategy is required");
+        }
+        if (maxValidationErrors < 1) {
+            throw new IllegalArgumentException("maxValidationErrors must be positive: " + maxValidationErrors);
+        }
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("memoryBudget must not be negative: " + memoryBudget);
+        }
+        if (parallelism > 1 && mode != Mode.IN_MEMORY) {
+            throw new IllegalArgumentException("parallelism > 1 is only supported in " + Mode.IN_MEMORY + " mode");
+        }
+    }
+
+    /** Default options: sequential in-memory execution without trace, canonical values as text, content-hash idents. */
+    public static ConversionOptions defaults() {
+        return new ConversionOptions(Mode.IN_MEMORY, DEFAULT_CHUNK_SIZE, false, 1, DEFAULT_QUEUE_CAPACITY, TraceFilter.ALL, 0, null, CanonicalTypes.NONE, IdentStrategy.CONTENT_HASH, null, null, false, false, false, DEFAULT_MAX_VALIDATION_ERRORS);
+    }
+
+    public ConversionOptions withMode(Mode mode) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withChunkSize(int chunkSize) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withTrace(boolean traceEnabled) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withParallelism(int parallelism) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withQueueCapacity(int queueCapacity) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withTraceFilter(TraceFilter traceFilter) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withMemoryBudget(long memoryBudget) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withSpillDirectory(Path spillDirectory) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withCanonicalTypes(CanonicalTypes canonicalTypes) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withIdentStrategy(IdentStrategy identStrategy) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withDeltaState(Path deltaState) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withCheckpoint(Path checkpoint) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withResume(boolean resume) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withJoinPushdown(boolean joinPushdown) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withValidateSourceColumns(boolean validateSourceColumns) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    public ConversionOptions withMaxValidationErrors(int maxValidationErrors) {
+        return new ConversionOptions(mode, chunkSize, traceEnabled, parallelism, queueCapacity, traceFilter, memoryBudget, spillDirectory, canonicalTypes, identStrategy, deltaState, checkpoint, resume, joinPushdown, validateSourceColumns, maxValidationErrors);
+    }
+
+    /** Engine execution mode. */
+    public enum Mode {
+        /** Reads all canonical records first, then writes them; the result keeps all records. */
+        IN_MEMORY,
+        /** Routes every canonical record straight to the target in bounded chunks; the result keeps counters only. */
+        STREAMING,
+        /**
+         * Like {@link #STREAMING}, but reading, mapping and writing run on separate threads connected
+         * by bounded queues, so a slow target throttles the source; the result adds {@link PipelineStats}.
+         */
+        PIPELINED,
+        /**
+         * Like {@link #STREAMING}, but compares every record with the content hash stored in
+         * {@link #deltaState()} by the previous run and writes only inserts and updates (as upserts)
+         * and deletes; the result adds {@link DeltaStats}.
+         */
+        INCREMENTAL
+    }
+}
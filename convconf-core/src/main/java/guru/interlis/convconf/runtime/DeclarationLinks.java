@@ -0,0 +1,239 @@
+package guru.interlis.convconf.runtime;
+
+import guru.interlis.convconf.lm.DataDecl;
+import guru.interlis.convconf.lm.LmModel;
+import guru.interlis.convconf.lm.NestingDecl;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * {@code NESTING} and {@code ANNEXE}/{@code ANNEXED} relations between the source {@code DATA} of one LM.
+ * <p>
+ * {@code NESTING <child> BY <column>} in a parent declaration makes the {@code <column>} of every
+ * row of the child declaration (named by {@code DATA} name or source table) the record's parent;
+ * the value must be the {@code IDENT} of a parent row. {@code ANNEXE <class>} marks a declaration
+ * whose attributes extend the records of another declaration of that class with the same ident
+ * (or of the declarations naming it in {@code ANNEXED}); annexe declarations produce no records of
+ * their own. Both are resolved through hash indexes that are built once per declaration on first
+ * use (parent idents, annexe values by ident), so linking costs one pass over each related source
+ * instead of a nested loop.
+ * </p>
+ * <p>
+ * The indexes stay on the heap for the whole run, also in the streaming modes: idents in
+ * {@link IdentHashIndex}es, annexe values in one array per annexe. Their estimated size counts
+ * against {@link ConversionOptions#memoryBudget()}; a run whose indexes exceed it fails instead of
+ * running out of memory.
+ * </p>
+ */
+final class DeclarationLinks {
+    private final LmModel lm;
+    private final ConversionOptions options;
+    private final Function<DataDecl, RecordSourceReader> readers;
+    private final Map<String, List<DataDecl>> parentsByChild = new HashMap<>();
+    private final Map<String, String> parentColumnByChild = new HashMap<>();
+    private final Map<String, List<DataDecl>> annexesByData = new HashMap<>();
+    private final Set<String> annexes = new HashSet<>();
+    private final Map<String, IdentHashIndex> parentIdents = new HashMap<>();
+    private final Map<String, AnnexeValues> annexValues = new HashMap<>();
+    private long indexBytes;
+
+    DeclarationLinks(LmModel lm, ConversionOptions options, Function<DataDecl, RecordSourceReader> readers) {
+        this.lm = lm;
+        this.options = options;
+        this.readers = readers;
+        Map<String, DataDecl> byName = new HashMap<>();
+        lm.dataDecls().forEach(d -> byName.put(d.name(), d));
+        for (DataDecl parent : lm.dataDecls()) {
+            for (NestingDecl n : parent.nestings()) {
+                if (parent.identColumn() == null) {
+                    throw new IllegalArgumentException("NESTING in " + parent.name() + " requires an IDENT column");
+                }
+                List<DataDecl> children = lm.dataDecls().stream()
+                        .filter(c -> c.name().equals(n.sourceName()) || c.sourceTable().equalsIgnoreCase(n.sourceName()))
+                        .toList();
+                if (children.isEmpty()) {
+                    throw new IllegalArgumentException("Unknown NESTING source " + n.sourceName() + " in " + parent.name());
+                }
+                for (DataDecl child : children) {
+                    String column = parentColumnByChild.putIfAbsent(child.name(), n.parentColumn());
+                    if (column != null && !column.equalsIgnoreCase(n.parentColumn())) {
+                        throw new IllegalArgumentException(child.name() + " is nested by both " + column + " and " + n.parentColumn());
+                    }
+                    parentsByChild.computeIfAbsent(child.name(), k -> new ArrayList<>()).add(parent);
+                }
+            }
+        }
+        for (DataDecl d : lm.dataDecls()) {
+            for (String name : d.annexedSources()) {
+                DataDecl annexe = byName.get(name);
+                if (annexe == null) {
+                    throw new IllegalArgumentException("Unknown ANNEXED source " + name + " in " + d.name());
+                }
+                annex(d, annexe);
+            }
+            for (String target : d.annexeTargets()) {
+                List<DataDecl> annexed = lm.dataDecls().stream().filter(a -> a.annexeTargets().isEmpty() && a.className().equals(target)).toList();
+                if (annexed.isEmpty()) {
+                    throw new IllegalArgumentException("ANNEXE " + target + " in " + d.name() + " extends no DATA");
+                }
+                annexed.forEach(a -> annex(a, d));
+            }
+        }
+    }
+
+    private void annex(DataDecl annexed, DataDecl annexe) {
+        if (annexe.identColumn() == null) {
+            throw new IllegalArgumentException("ANNEXE " + annexe.name() + " requires an IDENT column");
+        }
+        List<DataDecl> list = annexesByData.computeIfAbsent(annexed.name(), k -> new ArrayList<>());
+        if (!list.contains(annexe)) list.add(annexe);
+        annexes.add(annexe.name());
+    }
+
+    /** Whether {@code d} only extends other declarations and is not read on its own. */
+    boolean isAnnexe(DataDecl d) {
+        return annexes.contains(d.name());
+    }
+
+    /** Mapper for {@code d}, building the parent and annexe indexes it needs on first use. */
+    synchronized SourceRowMapper mapper(DataDecl d) throws Exception {
+        Resolved resolved = null;
+        String parentColumn = parentColumnByChild.get(d.name());
+        List<DataDecl> annexed = annexesByData.getOrDefault(d.name(), List.of());
+        if (parentColumn != null || !annexed.isEmpty()) {
+            List<IdentHashIndex> parents = new ArrayList<>();
+            for (DataDecl parent : parentsByChild.getOrDefault(d.name(), List.of())) {
+                IdentHashIndex idents = parentIdents.get(parent.name());
+                if (idents == null) {
+                    idents = readParentIdents(parent);
+                    parentIdents.put(parent.name(), idents);
+                    indexBytes += idents.bytes();
+                }
+                parents.add(idents);
+            }
+            List<AnnexeValues> values = new ArrayList<>();
+            for (DataDecl annexe : annexed) {
+                AnnexeValues byIdent = annexValues.get(annexe.name());
+                if (byIdent == null) {
+                    byIdent = readAnnexe(annexe);
+                    annexValues.put(annexe.name(), byIdent);
+                    indexBytes += byIdent.bytes();
+                }
+                values.add(byIdent);
+            }
+            resolved = new Resolved(parentColumn, parents, values);
+        }
+        return SourceRowMapper.forData(lm, d, options.traceFilter(), options.canonicalTypes(), options.identStrategy(), resolved);
+    }
+
+    private IdentHashIndex readParentIdents(DataDecl parent) throws Exception {
+        IdentHashIndex idents = new IdentHashIndex();
+        try (RecordCursor rows = readers.apply(parent).open(parent.sourceTable(), parent.whereEquals(), Set.of(parent.identColumn()))) {
+            String key = null;
+            for (var row = rows.next(); row != null; row = rows.next()) {
+                if (key == null) key = column(row.keySet(), parent.identColumn());
+                Object ident = key == null ? null : row.get(key);
+                if (ident != null && idents.add(ident.toString())) checkBudget(parent, idents.bytes());
+            }
+        }
+        return idents;
+    }
+
+    private AnnexeValues readAnnexe(DataDecl annexe) throws Exception {
+        AnnexeValues byIdent = new AnnexeValues();
+        SourceRowMapper mapper = SourceRowMapper.forData(lm, annexe, options.traceFilter(), options.canonicalTypes(), options.identStrategy());
+        try (RecordCursor rows = readers.apply(annexe).open(annexe.sourceTable(), annexe.whereEquals(), mapper.sourceColumns())) {
+            for (var row = rows.next(); row != null; row = rows.next()) {
+                CanonicalRecord rec = mapper.map(row, null);
+                if (rec.ident() == null) continue;
+                byIdent.put(rec.ident(), rec.values());
+                checkBudget(annexe, byIdent.bytes());
+            }
+        }
+        return byIdent;
+    }
+
+    private void checkBudget(DataDecl d, long building) {
+        long budget = options.memoryBudget();
+        if (budget > 0 && indexBytes + building > budget) {
+            throw new IllegalArgumentException("NESTING/ANNEXE indexes exceed the memory budget of " + budget + " bytes while reading "
+                    + d.name() + "; raise the memory budget or restrict the source with WHERE");
+        }
+    }
+
+    private static String column(Set<String> keys, String column) {
+        if (keys.contains(column)) return column;
+        for (String key : keys) {
+            if (key.equalsIgnoreCase(column)) return key;
+        }
+        return null;
+    }
+
+    /**
+     * Links of one declaration as seen by its {@link SourceRowMapper}.
+     *
+     * @param parentColumn column holding the parent ident ({@code null} if not nested)
+     * @param parents      idents of the possible parent declarations
+     * @param annexes      annexe values by ident, merged into records without overriding own values
+     */
+    record Resolved(String parentColumn, List<IdentHashIndex> parents, List<AnnexeValues> annexes) {
+        String parent(String sourceTable, String key) {
+            if (key == null || parentColumn == null) return key;
+            for (IdentHashIndex idents : parents) {
+                if (idents.contains(key)) return key;
+            }
+            throw new IllegalArgumentException("No parent for " + sourceTable + " row with " + parentColumn + "=" + key);
+        }
+
+        void annex(String ident, Map<String, Object> values) {
+            if (ident == null) return;
+            for (AnnexeValues byIdent : annexes) {
+                byIdent.mergeInto(ident, values);
+            }
+        }
+    }
+
+    /**
+     * Mapped values of one annexe declaration by ident: the idents are numbered by an
+     * {@link IdentHashIndex}, the values of ident {@code n} are {@code values[n * paths.length ...]}.
+     * A later row with the same ident replaces the values of the earlier one.
+     */
+    static final class AnnexeValues {
+        private final IdentHashIndex idents = new IdentHashIndex();
+        private String[] paths;
+        private Object[] values = new Object[0];
+        private long valueBytes;
+
+        void put(String ident, Map<String, Object> mapped) {
+            if (paths == null) paths = mapped.keySet().toArray(String[]::new);
+            int n = idents.add(ident) ? idents.size() - 1 : idents.indexOf(ident);
+            int from = Math.multiplyExact(n, paths.length);
+            if (from + paths.length > values.length) {
+                values = Arrays.copyOf(values, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(from + paths.length, 2L * values.length + 16)));
+            }
+            for (int i = 0; i < paths.length; i++) {
+                valueBytes += objectBytes(mapped.get(paths[i])) - objectBytes(values[from + i]);
+                values[from + i] = mapped.get(paths[i]);
+            }
+        }
+
+        void mergeInto(String ident, Map<String, Object> target) {
+            int n = idents.indexOf(ident);
+            if (n < 0) return;
+            for (int i = 0; i < paths.length; i++) {
+                target.putIfAbsent(paths[i], values[n * paths.length + i]);
+            }
+        }
+
+        long bytes() {
+            return idents.bytes() + 8L * values.length + valueBytes;
+        }
+
+        private static long objectBytes(Object value) {
+            if (value == null) return 0;
+            if (value instanceof String s) return 48 + 2L * s.length();
+            return 32;
+        }
+    }
+}
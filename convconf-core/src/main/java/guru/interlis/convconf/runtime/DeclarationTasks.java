@@ -0,0 +1,246 @@
+package guru.interlis.convconf.runtime;
+
+import guru.interlis.convconf.lm.JoinDecl;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs independent per-declaration tasks on a bounded thread pool, streaming their output to the caller.
+ * <p>
+ * The first task to fail cancels all others (running ones are interrupted) and its failure is
+ * thrown; failures of the tasks cancelled because of it are dropped.
+ * </p>
+ */
+final class DeclarationTasks {
+    private static final long FAILURE_POLL_MILLIS = 50;
+
+    private DeclarationTasks() {
+    }
+
+    /** Task streaming items to a consumer that blocks while the task's queue is full. */
+    @FunctionalInterface
+    interface Producer<T> {
+        void produce(Consumer<T> out) throws Exception;
+    }
+
+    /** Receives the items of all producers on the calling thread. */
+    @FunctionalInterface
+    interface ItemSink<T> {
+        void accept(T item) throws Exception;
+    }
+
+    /**
+     * Runs producers concurrently and hands their items to {@code sink} on the calling thread in
+     * producer order: all items of the first producer, then those of the second, and so on. Each
+     * producer fills its own queue of at most {@code queueCapacity} batches of {@code batchSize}
+     * items, so it reads ahead of the sink by a bounded amount and waits while the sink is still
+     * busy with earlier producers.
+     */
+    static <T> void stream(int parallelism, int queueCapacity, int batchSize, List<Producer<T>> producers, ItemSink<T> sink) throws Exception {
+        if (producers.isEmpty()) return;
+        List<BlockingQueue<List<T>>> queues = new ArrayList<>(producers.size());
+        List<T> end = new ArrayList<>(0);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        ExecutorService executor = pool(parallelism, producers.size());
+        try {
+            for (Producer<T> producer : producers) {
+                BlockingQueue<List<T>> queue = new ArrayBlockingQueue<>(queueCapacity);
+                try {
+                    executor.submit(() -> {
+                        try {
+                            QueueConsumer<T> out = new QueueConsumer<>(queue, batchSize);
+                            producer.produce(out);
+                            out.finish(end);
+                        } catch (Exception | Error e) {
+                            if (failure.compareAndSet(null, e instanceof Exception ex ? ex : new ExecutionException(e))) executor.shutdownNow();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    break;
+                }
+                queues.add(queue);
+            }
+            for (BlockingQueue<List<T>> queue : queues) {
+                for (List<T> batch = take(queue, failure); batch != end; batch = take(queue, failure)) {
+                    for (T item : batch) {
+                        sink.accept(item);
+                    }
+                }
+            }
+            if (failure.get() != null) throw failure.get();
+        } finally {
+            shutdown(executor);
+        }
+    }
+
+    /** Takes the next batch of a producer, or throws the first failure of any producer. */
+    private static <T> List<T> take(BlockingQueue<List<T>> queue, AtomicReference<Exception> failure) throws Exception {
+        while (true) {
+            if (failure.get() != null) throw failure.get();
+            List<T> batch = queue.poll(FAILURE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (batch != null) return batch;
+        }
+    }
+
+    private static ExecutorService pool(int parallelism, int tasks) {
+        ThreadFactory threads = Thread.ofPlatform().name("convconf-worker-", 0).daemon(true).factory();
+        return Executors.newFixedThreadPool(Math.min(parallelism, tasks), threads);
+    }
+
+    private static void shutdown(ExecutorService executor) throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /** Batches the items of one producer into its queue; an interrupt cancels the producer. */
+    private static final class QueueConsumer<T> implements Consumer<T> {
+        private final BlockingQueue<List<T>> queue;
+        private final int batchSize;
+        private List<T> batch;
+
+        private QueueConsumer(BlockingQueue<List<T>> queue, int batchSize) {
+            this.queue = queue;
+            this.batchSize = batchSize;
+            this.batch = new ArrayList<>(batchSize);
+        }
+
+        @Override
+        public void accept(T item) {
+            batch.add(item);
+            if (batch.size() == batchSize) {
+                put(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+
+        private void finish(List<T> end) {
+            if (!batch.isEmpty()) put(batch);
+            put(end);
+        }
+
+        private void put(List<T> items) {
+            try {
+                queue.put(items);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Declaration task cancelled");
+            }
+        }
+    }
+
+    /** Serializes all calls into a reader that does not support concurrent use. */
+    static RecordSourceReader serialized(RecordSourceReader reader) {
+        Object lock = new Object();
+        return new RecordSourceReader() {
+            @Override
+            public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws Exception {
+                synchronized (lock) {
+                    return reader.read(sourceName, equalsFilter);
+                }
+            }
+
+            @Override
+            public RecordCursor open(String sourceName, Map<String, String> equalsFilter) throws Exception {
+                RecordCursor cursor;
+                synchronized (lock) {
+                    cursor = reader.open(sourceName, equalsFilter);
+                }
+                return locked(cursor);
+            }
+
+            @Override
+            public RecordCursor open(String sourceName, Map<String, String> equalsFilter, Set<String> columns) throws Exception {
+                RecordCursor cursor;
+                synchronized (lock) {
+                    cursor = reader.open(sourceName, equalsFilter, columns);
+                }
+                return locked(cursor);
+            }
+
+            @Override
+            public List<String> columns(String sourceName) throws Exception {
+                synchronized (lock) {
+                    return reader.columns(sourceName);
+                }
+            }
+
+            @Override
+            public boolean supportsJoinPushdown() {
+                return reader.supportsJoinPushdown();
+            }
+
+            @Override
+            public RecordCursor openJoin(String sourceName, Map<String, String> equalsFilter, List<JoinDecl> joins, Set<String> columns) throws Exception {
+                RecordCursor cursor;
+                synchronized (lock) {
+                    cursor = reader.openJoin(sourceName, equalsFilter, joins, columns);
+                }
+                return locked(cursor);
+            }
+
+            private RecordCursor locked(RecordCursor cursor) {
+                return new RecordCursor() {
+                    @Override
+                    public Map<String, Object> next() throws Exception {
+                        synchronized (lock) {
+                            return cursor.next();
+                        }
+                    }
+
+                    @Override
+                    public void close() throws Exception {
+                        synchronized (lock) {
+                            cursor.close();
+                        }
+                    }
+                };
+            }
+        };
+    }
+
+    /** Serializes all calls into a writer that does not support concurrent use. */
+    static RecordTargetWriter serialized(RecordTargetWriter writer) {
+        Object lock = new Object();
+        return new RecordTargetWriter() {
+            @Override
+            public void write(String targetName, List<Map<String, Object>> rows) throws Exception {
+                synchronized (lock) {
+                    writer.write(targetName, rows);
+                }
+            }
+
+            @Override
+            public TargetTableWriter open(String targetName) throws Exception {
+                TargetTableWriter table;
+                synchronized (lock) {
+                    table = writer.open(targetName);
+                }
+                return new TargetTableWriter() {
+                    @Override
+                    public void append(Map<String, Object> row) throws Exception {
+                        synchronized (lock) {
+                            table.append(row);
+                        }
+                    }
+
+                    @Override
+                    public void flush() throws Exception {
+                        synchronized (lock) {
+                            table.flush();
+                        }
+                    }
+
+                    @Override
+                    public void close() throws Exception {
+                        synchronized (lock) {
+                            table.close();
+                        }
+                    }
+                };
+            }
+        };
+    }
+}
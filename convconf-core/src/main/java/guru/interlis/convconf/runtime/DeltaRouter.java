@@ -0,0 +1,145 @@
+package guru.interlis.convconf.runtime;
+
+import guru.interlis.convconf.lm.DataDecl;
+import guru.interlis.convconf.lm.LmModel;
+
+import java.util.*;
+
+/**
+ * Routes the changed canonical records of an incremental run to upsert writers and deletes the
+ * records of the previous state that were not seen again.
+ * <p>
+ * Every record is hashed and compared with {@code previous}; only new and changed records are
+ * mapped and written, so the target work depends on the size of the change. Matched idents are
+ * removed from {@code previous}, which leaves the deleted records once the source is drained.
+ * Deletes run after all upserts, target declarations in reverse order (children before parents);
+ * an ident that moved to another class of the same target table is not deleted.
+ * </p>
+ */
+final class DeltaRouter implements CanonicalRecordSink, AutoCloseable {
+    private final RecordTargetWriter targetWriter;
+    private final List<DataDecl> decls;
+    private final int chunkSize;
+    private final TraceSink trace;
+    private final DeltaState previous;
+    private final DeltaState current = new DeltaState();
+    private final Map<String, List<Route>> routesByClass = new HashMap<>();
+    private final List<TargetTableWriter> writers = new ArrayList<>();
+    private int pending;
+    private long written;
+    private long inserted;
+    private long updated;
+    private long deleted;
+    private long unchanged;
+
+    DeltaRouter(RecordTargetWriter targetWriter, LmModel lm, DeltaState previous, int chunkSize, TraceSink trace, TraceFilter traceFilter) {
+        this.targetWriter = targetWriter;
+        this.decls = lm.dataDecls();
+        this.chunkSize = chunkSize;
+        this.trace = trace;
+        this.previous = previous;
+        for (DataDecl d : decls) {
+            if (d.identColumn() == null) {
+                throw new IllegalArgumentException("Incremental conversion requires an IDENT column in target DATA " + d.name());
+            }
+            routesByClass.computeIfAbsent(d.className(), k -> new ArrayList<>()).add(new Route(d, new TargetRowMapper(lm, d, traceFilter)));
+        }
+    }
+
+    @Override
+    public void accept(CanonicalRecord rec) throws Exception {
+        long hash = DeltaState.hash(rec);
+        current.put(rec.className(), rec.ident(), hash);
+        Long before = previous.remove(rec.className(), rec.ident());
+        if (before != null && before == hash) {
+            unchanged++;
+            return;
+        }
+        if (before == null) inserted++; else updated++;
+        for (Route route : routesByClass.getOrDefault(rec.className(), List.of())) {
+            if (route.table == null) {
+                route.table = targetWriter.openUpsert(route.decl.sourceTable(), route.decl.identColumn());
+                writers.add(route.table);
+            }
+            route.table.append(route.mapper.map(rec, trace));
+            pending++;
+            written++;
+        }
+        if (pending >= chunkSize) {
+            flush();
+        }
+    }
+
+    /** Flushes and closes the upsert writers, then deletes the records missing in this run. */
+    void finish() throws Exception {
+        close();
+        Set<String> deletedRecords = new HashSet<>();
+        for (int i = decls.size() - 1; i >= 0; i--) {
+            DataDecl d = decls.get(i);
+            List<String> keys = new ArrayList<>();
+            for (String ident : previous.idents(d.className())) {
+                if (sharesTarget(d, ident)) continue;
+                keys.add(ident);
+                if (deletedRecords.add(d.className() + '\n' + ident)) deleted++;
+                if (keys.size() >= chunkSize) {
+                    targetWriter.delete(d.sourceTable(), d.identColumn(), keys);
+                    keys = new ArrayList<>();
+                }
+            }
+            if (!keys.isEmpty()) targetWriter.delete(d.sourceTable(), d.identColumn(), keys);
+        }
+    }
+
+    /** Whether {@code ident} was written in this run by a class routed to the same target table. */
+    private boolean sharesTarget(DataDecl d, String ident) {
+        for (DataDecl other : decls) {
+            if (other.sourceTable().equalsIgnoreCase(d.sourceTable()) && current.contains(other.className(), ident)) return true;
+        }
+        return false;
+    }
+
+    /** State to persist for the next run. */
+    DeltaState current() {
+        return current;
+    }
+
+    long rowsWritten() {
+        return written;
+    }
+
+    DeltaStats stats() {
+        return new DeltaStats(inserted, updated, deleted, unchanged);
+    }
+
+    private void flush() throws Exception {
+        for (TargetTableWriter table : writers) {
+            table.flush();
+        }
+        pending = 0;
+    }
+
+    @Override
+    public void close() throws Exception {
+        Exception failure = null;
+        for (TargetTableWriter table : writers) {
+            try {
+                table.close();
+            } catch (Exception e) {
+                if (failure == null) failure = e; else failure.addSuppressed(e);
+            }
+        }
+        writers.clear();
+        if (failure != null) throw failure;
+    }
+
+    private static final class Route {
+        private final DataDecl decl;
+        private final TargetRowMapper mapper;
+        private TargetTableWriter table;
+
+        private Route(DataDecl decl, TargetRowMapper mapper) {
+            this.decl = decl;
+            this.mapper = mapper;
+        }
+    }
+}
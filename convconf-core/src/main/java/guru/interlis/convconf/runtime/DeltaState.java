@@ -0,0 +1,107 @@
+package guru.interlis.convconf.runtime;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Content hashes of the canonical records of one incremental run, keyed by class and ident.
+ * <p>
+ * The hash covers parent, structure attribute and all values of a record, so an unchanged hash
+ * means the target rows derived from it are unchanged. {@link ConversionEngine} returns the state
+ * of an incremental run in its result; it must only be saved once the target has committed the run
+ * ({@code ConvConfService} does so after {@link RecordTargetWriter#commitRun()}), otherwise rows that
+ * were rolled back would count as written. The state file is written to a sibling temporary file
+ * and moved into place, so an aborted save leaves the previous state intact.
+ * </p>
+ */
+public final class DeltaState {
+    private static final int MAGIC = 0x43434453;
+    private static final int VERSION = 1;
+
+    private final Map<String, Map<String, Long>> hashesByClass = new LinkedHashMap<>();
+
+    /** Loads a state file; a missing file is the empty state of a first run. */
+    static DeltaState load(Path file) throws IOException {
+        DeltaState state = new DeltaState();
+        if (!Files.exists(file)) return state;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC) throw new IOException("Not a delta state file: " + file);
+            int version = in.readUnsignedByte();
+            if (version != VERSION) throw new IOException("Unsupported delta state version " + version + " in " + file);
+            int classes = SpillCodec.readVarInt(in);
+            for (int c = 0; c < classes; c++) {
+                String className = SpillCodec.readString(in);
+                int size = SpillCodec.readVarInt(in);
+                Map<String, Long> hashes = new HashMap<>(size * 4 / 3 + 1);
+                for (int i = 0; i < size; i++) {
+                    hashes.put(SpillCodec.readString(in), in.readLong());
+                }
+                state.hashesByClass.put(className, hashes);
+            }
+        }
+        return state;
+    }
+
+    /** Writes the state to {@code file}, replacing the state of the previous run. */
+    public void save(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                SpillCodec.writeVarInt(out, hashesByClass.size());
+                for (var byClass : hashesByClass.entrySet()) {
+                    SpillCodec.writeString(out, byClass.getKey());
+                    SpillCodec.writeVarInt(out, byClass.getValue().size());
+                    for (var e : byClass.getValue().entrySet()) {
+                        SpillCodec.writeString(out, e.getKey());
+                        out.writeLong(e.getValue());
+                    }
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    static long hash(CanonicalRecord rec) {
+        ContentHash hash = new ContentHash(0xcbf29ce484222325L).add(rec.parent()).add(rec.structAttr());
+        for (var e : rec.values().entrySet()) {
+            hash.add(e.getKey()).addValue(e.getValue());
+        }
+        return hash.value();
+    }
+
+    /** Stores the hash of {@code ident} and returns the previous one ({@code null} if absent). */
+    Long put(String className, String ident, long hash) {
+        return hashesByClass.computeIfAbsent(className, k -> new HashMap<>()).put(ident, hash);
+    }
+
+    /** Removes {@code ident} and returns its hash ({@code null} if absent). */
+    Long remove(String className, String ident) {
+        Map<String, Long> hashes = hashesByClass.get(className);
+        return hashes == null ? null : hashes.remove(ident);
+    }
+
+    boolean contains(String className, String ident) {
+        Map<String, Long> hashes = hashesByClass.get(className);
+        return hashes != null && hashes.containsKey(ident);
+    }
+
+    /** Idents of {@code className} in unspecified order. */
+    Set<String> idents(String className) {
+        return hashesByClass.getOrDefault(className, Map.of()).keySet();
+    }
+
+    long size() {
+        long size = 0;
+        for (Map<String, Long> hashes : hashesByClass.values()) size += hashes.size();
+        return size;
+    }
+}
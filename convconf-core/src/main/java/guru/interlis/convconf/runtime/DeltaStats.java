@@ -0,0 +1,12 @@
+package guru.interlis.convconf.runtime;
+
+/**
+ * Change counters of a {@link ConversionOptions.Mode#INCREMENTAL} run, counted per canonical record.
+ *
+ * @param inserted records whose ident was not in the previous state (written by upsert)
+ * @param updated records whose content hash changed (written by upsert)
+ * @param deleted records of the previous state missing in this run (deleted from their targets)
+ * @param unchanged records with the same content hash as in the previous run (not written)
+ */
+public record DeltaStats(long inserted, long updated, long deleted, long unchanged) {
+}
@@ -0,0 +1,452 @@
+package guru.interlis.convconf.runtime;
+
+import guru.interlis.convconf.lm.JoinDecl;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Executes one {@code JOIN INNER|LEFT|RIGHT <source> ON <left> = <right>} of a source declaration.
+ * <p>
+ * The joined (right) source is read first into a hash table keyed by the text of its join
+ * column; the declaration's rows (left) then probe it in their original order. If the build side
+ * exceeds {@code memoryBudget}, both inputs are hash-partitioned into spill files and every
+ * partition is joined on its own, building on the smaller of its two sides (output is then
+ * grouped by partition). {@code null} keys never match. Output rows carry the left columns
+ * followed by the right columns whose names (case-insensitive) are not already present; for
+ * right rows without match such shared columns take the right value.
+ * </p>
+ */
+final class HashJoinCursor implements RecordCursor {
+    private static final int PARTITIONS = 32;
+
+    private final RecordCursor left;
+    private final RecordCursor right;
+    private final String leftColumn;
+    private final String rightColumn;
+    private final boolean keepLeft;
+    private final boolean keepRight;
+    private final long memoryBudget;
+    private final Path spillDirectory;
+
+    private RowHeader leftHeader;
+    private RowHeader rightHeader;
+    private RowHeader header;
+    private int[] rightSlots;
+    private boolean[] shared;
+    private int leftKey = -1;
+    private int rightKey = -1;
+
+    private boolean started;
+    private Path spillDir;
+    private Partition[] partitions;
+    private int nextPartition;
+    private Pass pass;
+    private final ArrayDeque<Object[]> pending = new ArrayDeque<>();
+
+    HashJoinCursor(RecordCursor left, RecordCursor right, JoinDecl join, long memoryBudget, Path spillDirectory) {
+        this.left = left;
+        this.right = right;
+        this.leftColumn = join.leftColumn();
+        this.rightColumn = join.rightColumn();
+        String type = join.joinType().toUpperCase(Locale.ROOT);
+        this.keepLeft = type.equals("LEFT");
+        this.keepRight = type.equals("RIGHT");
+        if (!keepLeft && !keepRight && !type.equals("INNER")) {
+            throw new IllegalArgumentException("Unsupported join type " + join.joinType() + " for " + join.sourceName());
+        }
+        this.memoryBudget = memoryBudget;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Opens {@code sourceName} and applies all joins in declaration order. With {@code columns}, every
+     * input is read with only those columns plus the join keys.
+     */
+    static RecordCursor open(RecordSourceReader reader, String sourceName, Map<String, String> equalsFilter,
+                             List<JoinDecl> joins, Set<String> columns, long memoryBudget, Path spillDirectory) throws Exception {
+        Set<String> needed = null;
+        if (columns != null) {
+            needed = new LinkedHashSet<>(columns);
+            for (JoinDecl join : joins) {
+                needed.add(join.leftColumn());
+                needed.add(join.rightColumn());
+            }
+        }
+        RecordCursor cursor = reader.open(sourceName, equalsFilter, needed);
+        try {
+            for (JoinDecl join : joins) {
+                RecordCursor joined = reader.open(join.sourceName(), Map.of(), needed);
+                try {
+                    cursor = new HashJoinCursor(cursor, joined, join, memoryBudget, spillDirectory);
+                } catch (RuntimeException e) {
+                    joined.close();
+                    throw e;
+                }
+            }
+            return cursor;
+        } catch (Exception e) {
+            try {
+                cursor.close();
+            } catch (Exception suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<String, Object> next() throws Exception {
+        if (!started) {
+            start();
+            started = true;
+        }
+        while (pending.isEmpty()) {
+            if (pass == null || !pass.advance()) {
+                if (partitions == null || nextPartition >= partitions.length) {
+                    pass = null;
+                    return null;
+                }
+                pass = partitions[nextPartition++].pass();
+            }
+        }
+        return new IndexedRow(outputHeader(), pending.poll());
+    }
+
+    /** Builds the right side in memory, or partitions both sides once it exceeds the budget. */
+    private void start() throws Exception {
+        List<Object[]> build = new ArrayList<>();
+        long bytes = 0;
+        for (var row = right.next(); row != null; row = right.next()) {
+            if (rightHeader == null) {
+                rightHeader = header(row);
+                rightKey = keySlot(rightHeader, rightColumn, "right");
+            }
+            Object[] values = values(row, rightHeader);
+            if (partitions != null) {
+                partitions[partition(values[rightKey])].right.write(values);
+                continue;
+            }
+            build.add(values);
+            bytes += estimate(values);
+            if (memoryBudget > 0 && bytes > memoryBudget) {
+                openPartitions();
+                for (Object[] buffered : build) {
+                    partitions[partition(buffered[rightKey])].right.write(buffered);
+                }
+                build = null;
+            }
+        }
+        if (rightHeader == null) rightHeader = RowHeader.of(List.of());
+        if (partitions == null) {
+            pass = new Pass(build, false, new LeftStream());
+            return;
+        }
+        for (var row = left.next(); row != null; row = left.next()) {
+            if (leftHeader == null) bindLeft(row);
+            Object[] values = values(row, leftHeader);
+            partitions[partition(values[leftKey])].left.write(values);
+        }
+        for (Partition p : partitions) p.finishWriting();
+    }
+
+    private void bindLeft(Map<String, Object> row) {
+        leftHeader = header(row);
+        leftKey = keySlot(leftHeader, leftColumn, "left");
+    }
+
+    private static int keySlot(RowHeader header, String column, String side) {
+        int slot = header.resolve(column);
+        if (slot < 0) throw new IllegalArgumentException("Join column " + column + " missing in " + side + " source");
+        return slot;
+    }
+
+    private RowHeader outputHeader() {
+        if (header == null) {
+            if (leftHeader == null) leftHeader = RowHeader.of(List.of());
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < leftHeader.size(); i++) names.add(leftHeader.column(i));
+            rightSlots = new int[rightHeader.size()];
+            shared = new boolean[rightHeader.size()];
+            for (int i = 0; i < rightHeader.size(); i++) {
+                int slot = leftHeader.resolve(rightHeader.column(i));
+                shared[i] = slot >= 0;
+                if (slot < 0) {
+                    slot = names.size();
+                    names.add(rightHeader.column(i));
+                }
+                rightSlots[i] = slot;
+            }
+            header = RowHeader.of(names);
+        }
+        return header;
+    }
+
+    private Object[] combine(Object[] leftValues, Object[] rightValues) {
+        Object[] out = new Object[outputHeader().size()];
+        if (leftValues != null) System.arraycopy(leftValues, 0, out, 0, leftValues.length);
+        if (rightValues != null) {
+            for (int i = 0; i < rightValues.length; i++) {
+                if (!shared[i] || leftValues == null) out[rightSlots[i]] = rightValues[i];
+            }
+        }
+        return out;
+    }
+
+    private static RowHeader header(Map<String, Object> row) {
+        return row instanceof IndexedRow indexed ? indexed.header() : RowHeader.of(row.keySet());
+    }
+
+    private static Object[] values(Map<String, Object> row, RowHeader header) {
+        Object[] values = new Object[header.size()];
+        if (row instanceof IndexedRow indexed && indexed.header() == header) {
+            for (int i = 0; i < values.length; i++) values[i] = indexed.valueAt(i);
+        } else {
+            for (int i = 0; i < values.length; i++) values[i] = row.get(header.column(i));
+        }
+        return values;
+    }
+
+    private static String key(Object value) {
+        return CanonicalTypes.text(value);
+    }
+
+    private static int partition(Object keyValue) {
+        String key = key(keyValue);
+        if (key == null) return 0;
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (PARTITIONS - 1);
+    }
+
+    private static long estimate(Object[] values) {
+        long bytes = 32 + 8L * values.length;
+        for (Object value : values) {
+            if (value instanceof String s) bytes += 48 + 2L * s.length();
+            else if (value != null) bytes += 24;
+        }
+        return bytes;
+    }
+
+    private void openPartitions() throws IOException {
+        spillDir = spillDirectory == null ? Files.createTempDirectory("convconf-join-") : Files.createTempDirectory(spillDirectory, "convconf-join-");
+        partitions = new Partition[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions[i] = new Partition(new SpillFile(spillDir.resolve("l" + i + ".seg")), new SpillFile(spillDir.resolve("r" + i + ".seg")));
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        Exception failure = null;
+        for (AutoCloseable c : new AutoCloseable[]{left, right, this::deleteSpill}) {
+            try {
+                c.close();
+            } catch (Exception e) {
+                if (failure == null) failure = e; else failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private void deleteSpill() throws IOException {
+        if (pass != null) pass.probe.close();
+        if (partitions != null) {
+            for (Partition p : partitions) {
+                p.left.close();
+                p.right.close();
+            }
+        }
+        if (spillDir != null) {
+            try (var files = Files.list(spillDir)) {
+                for (Path f : files.toList()) Files.deleteIfExists(f);
+            }
+            Files.deleteIfExists(spillDir);
+        }
+    }
+
+    /** Probe-side input of a pass. */
+    private interface RowStream extends Closeable {
+        /** Next row values or {@code null}. */
+        Object[] next() throws Exception;
+    }
+
+    /** Streams the unpartitioned left cursor. */
+    private final class LeftStream implements RowStream {
+        @Override
+        public Object[] next() throws Exception {
+            var row = left.next();
+            if (row == null) return null;
+            if (leftHeader == null) bindLeft(row);
+            return values(row, leftHeader);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** Row in a build hash table; {@code matched} drives the outer-join output of the build side. */
+    private static final class BuildRow {
+        private final Object[] values;
+        private boolean matched;
+
+        private BuildRow(Object[] values) {
+            this.values = values;
+        }
+    }
+
+    /** Joins one in-memory build side with one streamed probe side. */
+    private final class Pass {
+        private final boolean buildIsLeft;
+        private final RowStream probe;
+        private final List<BuildRow> rows;
+        private final Map<String, List<BuildRow>> index;
+        private final boolean keepProbe;
+        private final boolean keepBuild;
+        private Iterator<BuildRow> unmatched;
+
+        private Pass(List<Object[]> build, boolean buildIsLeft, RowStream probe) {
+            this.buildIsLeft = buildIsLeft;
+            this.probe = probe;
+            this.keepProbe = buildIsLeft ? keepRight : keepLeft;
+            this.keepBuild = buildIsLeft ? keepLeft : keepRight;
+            this.rows = new ArrayList<>(build.size());
+            this.index = new HashMap<>(build.size() * 4 / 3 + 1);
+            int keySlot = buildIsLeft ? leftKey : rightKey;
+            for (Object[] values : build) {
+                BuildRow row = new BuildRow(values);
+                if (keepBuild) rows.add(row);
+                String key = key(values[keySlot]);
+                if (key != null) index.computeIfAbsent(key, k -> new ArrayList<>(1)).add(row);
+            }
+        }
+
+        /** Adds the output of the next probe row (or unmatched build rows) to {@code pending}; {@code false} when done. */
+        private boolean advance() throws Exception {
+            if (unmatched == null) {
+                Object[] values = probe.next();
+                if (values != null) {
+                    String key = key(values[buildIsLeft ? rightKey : leftKey]);
+                    List<BuildRow> matches = key == null ? null : index.get(key);
+                    if (matches == null) {
+                        if (keepProbe) pending.add(buildIsLeft ? combine(null, values) : combine(values, null));
+                    } else {
+                        for (BuildRow match : matches) {
+                            match.matched = true;
+                            pending.add(buildIsLeft ? combine(match.values, values) : combine(values, match.values));
+                        }
+                    }
+                    return true;
+                }
+                probe.close();
+                unmatched = rows.iterator();
+            }
+            while (unmatched.hasNext()) {
+                BuildRow row = unmatched.next();
+                if (!row.matched) {
+                    pending.add(buildIsLeft ? combine(row.values, null) : combine(null, row.values));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /** Left and right spill files of one hash partition. */
+    private final class Partition {
+        private final SpillFile left;
+        private final SpillFile right;
+
+        private Partition(SpillFile left, SpillFile right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        private void finishWriting() throws IOException {
+            left.finishWriting();
+            right.finishWriting();
+        }
+
+        /** Builds on the side with fewer rows and streams the other. */
+        private Pass pass() throws Exception {
+            boolean buildIsLeft = left.rows < right.rows;
+            SpillFile build = buildIsLeft ? left : right;
+            SpillFile probe = buildIsLeft ? right : left;
+            List<Object[]> rows = new ArrayList<>((int) Math.min(build.rows, Integer.MAX_VALUE));
+            try (RowStream in = build.reader(buildIsLeft ? leftHeader : rightHeader)) {
+                for (Object[] values = in.next(); values != null; values = in.next()) rows.add(values);
+            }
+            build.delete();
+            return new Pass(rows, buildIsLeft, probe.reader(buildIsLeft ? rightHeader : leftHeader));
+        }
+    }
+
+    /** Rows of one side of one partition, encoded with {@link SpillCodec}. */
+    private static final class SpillFile {
+        private final Path file;
+        private DataOutputStream out;
+        private long rows;
+
+        private SpillFile(Path file) {
+            this.file = file;
+        }
+
+        private void write(Object[] values) throws IOException {
+            if (out == null) out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 14));
+            for (Object value : values) SpillCodec.writeValue(out, value);
+            rows++;
+        }
+
+        private void finishWriting() throws IOException {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        }
+
+        private RowStream reader(RowHeader header) throws IOException {
+            if (rows == 0) {
+                return new RowStream() {
+                    @Override
+                    public Object[] next() {
+                        return null;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 14));
+            int width = header.size();
+            return new RowStream() {
+                private long remaining = rows;
+
+                @Override
+                public Object[] next() throws IOException {
+                    if (remaining == 0) return null;
+                    remaining--;
+                    Object[] values = new Object[width];
+                    for (int i = 0; i < width; i++) values[i] = SpillCodec.readValue(in);
+                    return values;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    in.close();
+                    delete();
+                }
+            };
+        }
+
+        private void delete() throws IOException {
+            Files.deleteIfExists(file);
+        }
+
+        private void close() throws IOException {
+            finishWriting();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package guru.interlis.convconf.runtime;
+
+/**
+ * Produces idents for source rows of a declaration without {@code IDENT} column.
+ * <p>
+ * One generator is created per declaration and mapper ({@link IdentStrategy#newGenerator}), so
+ * implementations need no synchronization.
+ * </p>
+ */
+@FunctionalInterface
+public interface IdentGenerator {
+    /**
+     * @param className KM class of the record
+     * @param values canonical values of the record in declaration column order
+     * @return new ident
+     */
+    String next(String className, Object[] values);
+}
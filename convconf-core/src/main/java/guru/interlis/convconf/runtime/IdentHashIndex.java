@@ -0,0 +1,120 @@
+package guru.interlis.convconf.runtime;
+
+import java.util.Arrays;
+
+/**
+ * Set of idents in an open-addressing table (linear probing, at most half full) instead of a
+ * {@code String} per entry: a slot holds the ident's 64-bit hash and the offset of its characters
+ * in one shared {@code char[]} pool. Equal hashes are confirmed against the pooled characters, so
+ * membership is exact; an ident takes 32 to 64 bytes of table plus two bytes per character. Every
+ * ident is numbered in insertion order ({@link #indexOf}), so callers can keep values per ident in
+ * plain arrays. Not thread-safe for writes; lookups may run concurrently once filled.
+ */
+public final class IdentHashIndex {
+    private static final long EMPTY = 0L;
+    private static final int MAX_POOL = Integer.MAX_VALUE - 8;
+
+    private long[] table = new long[1024];
+    private int[] offsets = new int[1024];
+    private int[] ordinals = new int[1024];
+    private char[] pool = new char[16 * 1024];
+    private int poolSize;
+    private int size;
+
+    /** Adds {@code ident} as number {@link #size()}; {@code false} if it was already present. */
+    public boolean add(String ident) {
+        long h = hash(ident);
+        if (size * 2 >= table.length) grow();
+        int mask = table.length - 1;
+        for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+            if (table[i] == EMPTY) {
+                table[i] = h;
+                offsets[i] = store(ident);
+                ordinals[i] = size++;
+                return true;
+            }
+            if (table[i] == h && matches(offsets[i], ident)) return false;
+        }
+    }
+
+    public boolean contains(String ident) {
+        return indexOf(ident) >= 0;
+    }
+
+    /** Number of {@code ident} in insertion order, {@code -1} if absent. */
+    public int indexOf(String ident) {
+        long h = hash(ident);
+        int mask = table.length - 1;
+        for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+            if (table[i] == EMPTY) return -1;
+            if (table[i] == h && matches(offsets[i], ident)) return ordinals[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Estimated heap bytes of the table and the character pool. */
+    public long bytes() {
+        return 16L * table.length + 2L * pool.length;
+    }
+
+    private void grow() {
+        long[] old = table;
+        int[] oldOffsets = offsets;
+        int[] oldOrdinals = ordinals;
+        table = new long[old.length * 2];
+        offsets = new int[table.length];
+        ordinals = new int[table.length];
+        int mask = table.length - 1;
+        for (int k = 0; k < old.length; k++) {
+            long h = old[k];
+            if (h == EMPTY) continue;
+            int i = (int) h & mask;
+            while (table[i] != EMPTY) i = (i + 1) & mask;
+            table[i] = h;
+            offsets[i] = oldOffsets[k];
+            ordinals[i] = oldOrdinals[k];
+        }
+    }
+
+    /** Appends the length (two chars) and characters of {@code ident} to the pool; returns its offset. */
+    private int store(String ident) {
+        long needed = (long) poolSize + 2 + ident.length();
+        if (needed > pool.length) {
+            if (needed > MAX_POOL) throw new IllegalStateException("Ident index exceeds " + MAX_POOL + " characters");
+            pool = Arrays.copyOf(pool, (int) Math.min(MAX_POOL, Math.max(needed, 2L * pool.length)));
+        }
+        int offset = poolSize;
+        pool[offset] = (char) (ident.length() >>> 16);
+        pool[offset + 1] = (char) ident.length();
+        ident.getChars(0, ident.length(), pool, offset + 2);
+        poolSize = (int) needed;
+        return offset;
+    }
+
+    private boolean matches(int offset, String ident) {
+        int length = pool[offset] << 16 | pool[offset + 1];
+        if (length != ident.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (pool[offset + 2 + i] != ident.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /** FNV-1a over the UTF-16 code units, finished with the MurmurHash3 mixer; never {@link #EMPTY}. */
+    static long hash(String ident) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < ident.length(); i++) {
+            h ^= ident.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == EMPTY ? 1L : h;
+    }
+}
@@ -0,0 +1,117 @@
+package guru.interlis.convconf.runtime;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/** Ident generation strategies for declarations without {@code IDENT} column. */
+public enum IdentStrategy {
+    /** Random UUID (version 4) from {@link UUID#randomUUID()}; slow and not reproducible. */
+    RANDOM_UUID {
+        @Override
+        public IdentGenerator newGenerator(String declaration) {
+            return (className, values) -> UUID.randomUUID().toString();
+        }
+    },
+    /** Time-ordered UUID (version 7) with a per-generator monotonic sequence and non-cryptographic random bits. */
+    UUIDV7 {
+        @Override
+        public IdentGenerator newGenerator(String declaration) {
+            return new UuidV7Generator();
+        }
+    },
+    /** {@code <declaration>:<n>} with a per-declaration counter; reproducible for the same source order. */
+    COUNTER {
+        @Override
+        public IdentGenerator newGenerator(String declaration) {
+            String prefix = declaration + ":";
+            long[] next = {0};
+            return (className, values) -> prefix + ++next[0];
+        }
+    },
+    /**
+     * UUID-shaped 128-bit hash (version 8) of class, mapped values and occurrence number among
+     * identical rows of the declaration; reproducible independent of the source order.
+     */
+    CONTENT_HASH {
+        @Override
+        public IdentGenerator newGenerator(String declaration) {
+            return new ContentHashGenerator();
+        }
+    };
+
+    public static IdentStrategy parse(String raw) {
+        try {
+            return valueOf(raw.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        } catch (Exception ignored) {
+            throw new IllegalArgumentException("Unsupported ident strategy '" + raw + "'. Expected one of: random-uuid, uuidv7, counter, content-hash");
+        }
+    }
+
+    /** Creates the generator used by one declaration mapper. */
+    public abstract IdentGenerator newGenerator(String declaration);
+
+    /** Content hash of the {@code occurrence}-th identical row; the first occurrence is the plain hash. */
+    static String contentHash(String className, Object[] values, int occurrence) {
+        ContentHash high = new ContentHash(0xcbf29ce484222325L).add(className);
+        ContentHash low = new ContentHash(0x84222325cbf29ce4L).add(className);
+        for (Object value : values) {
+            high.addValue(value);
+            low.addValue(value);
+        }
+        if (occurrence > 1) {
+            high.add("#" + occurrence);
+            low.add("#" + occurrence);
+        }
+        long msb = (high.value() & ~0xF000L) | 0x8000L;
+        long lsb = (low.value() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb).toString();
+    }
+
+    /**
+     * Counts the rows per plain content hash so that identical rows get distinct idents; the
+     * {@code n}-th of them is the same row in every run, whatever their order. Keeps one
+     * {@link IdentHashIndex} entry and an {@code int} per distinct row.
+     */
+    private static final class ContentHashGenerator implements IdentGenerator {
+        private final IdentHashIndex seen = new IdentHashIndex();
+        private int[] occurrences = new int[64];
+
+        @Override
+        public String next(String className, Object[] values) {
+            String hash = contentHash(className, values, 1);
+            if (seen.add(hash)) {
+                int n = seen.size() - 1;
+                if (n == occurrences.length) occurrences = Arrays.copyOf(occurrences, n * 2);
+                occurrences[n] = 1;
+                return hash;
+            }
+            return contentHash(className, values, ++occurrences[seen.indexOf(hash)]);
+        }
+    }
+
+    /** RFC 9562 UUIDv7: 48-bit Unix milliseconds, 12-bit sequence for ordering within a millisecond, 62 random bits. */
+    private static final class UuidV7Generator implements IdentGenerator {
+        private long lastMillis = -1;
+        private int sequence;
+
+        @Override
+        public String next(String className, Object[] values) {
+            long millis = System.currentTimeMillis();
+            if (millis <= lastMillis) {
+                millis = lastMillis;
+                if (++sequence > 0xFFF) {
+                    millis++;
+                    sequence = 0;
+                }
+            } else {
+                sequence = 0;
+            }
+            lastMillis = millis;
+            long msb = (millis << 16) | 0x7000L | sequence;
+            long lsb = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+            return new UUID(msb, lsb).toString();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package guru.interlis.convconf.runtime;
+
+import java.util.*;
+
+/**
+ * Read-only row map backed by a shared {@link RowHeader} and a value array.
+ * <p>
+ * Adapters return these rows so that compiled mappers can read values by slot instead of
+ * hashing column names; other consumers still see an ordinary insertion-ordered map.
+ * </p>
+ */
+public final class IndexedRow extends AbstractMap<String, Object> {
+    private final RowHeader header;
+    private final Object[] values;
+
+    public IndexedRow(RowHeader header, Object[] values) {
+        if (values.length != header.size()) {
+            throw new IllegalArgumentException("Expected " + header.size() + " values but got " + values.length);
+        }
+        this.header = header;
+        this.values = values;
+    }
+
+    public RowHeader header() {
+        return header;
+    }
+
+    public Object valueAt(int slot) {
+        return values[slot];
+    }
+
+    @Override
+    public Object get(Object key) {
+        int slot = key instanceof String s ? header.slot(s) : -1;
+        return slot < 0 ? null : values[slot];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String s && header.slot(s) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (next >= values.length) throw new NoSuchElementException();
+                        int slot = next++;
+                        return new SimpleImmutableEntry<>(header.column(slot), values[slot]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+}
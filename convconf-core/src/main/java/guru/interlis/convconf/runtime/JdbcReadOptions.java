@@ -0,0 +1,34 @@
+package guru.interlis.convconf.runtime;
+
+/**
+ * Read settings of a {@link JdbcRecordAdapter}.
+ *
+ * @param fetchSize rows fetched per round trip by a streaming read; {@code 0} keeps the driver
+ *                  defaults, which may buffer the whole result before the first row is returned
+ */
+public record JdbcReadOptions(int fetchSize) {
+    public static final int DEFAULT_FETCH_SIZE = 10_000;
+
+    public JdbcReadOptions {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("fetchSize must not be negative: " + fetchSize);
+        }
+    }
+
+    /** Driver defaults (no streaming). */
+    public static JdbcReadOptions defaults() {
+        return new JdbcReadOptions(0);
+    }
+
+    /** Streams results in batches of {@code fetchSize} rows through a forward-only, read-only cursor. */
+    public static JdbcReadOptions streaming(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize must be positive: " + fetchSize);
+        }
+        return new JdbcReadOptions(fetchSize);
+    }
+
+    public boolean streaming() {
+        return fetchSize > 0;
+    }
+}
@@ -1,58 +1,484 @@
 package guru.interlis.convconf.runtime;
 
+import guru.interlis.convconf.lm.JoinDecl;
+
+import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-/** Generic JDBC implementation reusable for H2/PostgreSQL and other SQL databases. */
+/**
+ * Generic JDBC implementation reusable for H2/PostgreSQL and other SQL databases.
+ * <p>
+ * Reads use forward-only, read-only cursors. With a {@link JdbcReadOptions#streaming() streaming}
+ * fetch size, rows are fetched in batches of that size; if the dialect needs a transaction for that
+ * ({@link #streamingNeedsTransaction()}), autocommit is switched off while cursors are open and
+ * restored when the last one is closed.
+ * </p>
+ * <p>
+ * Writes are sent in batches of {@link JdbcWriteOptions#batchSize()} rows. A
+ * {@link JdbcWriteOptions#transactional() transactional} adapter writes each run in one
+ * transaction; otherwise runs (and connections outside autocommit mode) are committed every
+ * {@link JdbcWriteOptions#commitInterval()} batches. pgjdbc rewrites the batches into multi-row inserts if the connection was opened
+ * with {@code reWriteBatchedInserts=true}.
+ * </p>
+ * <p>
+ * Column names of sources are looked up once per table and cached for the adapter's lifetime, so
+ * tables must not change their columns while an adapter reads them.
+ * </p>
+ */
 public class JdbcRecordAdapter implements RecordSourceReader, RecordTargetWriter {
     private final Connection connection;
+    private final JdbcReadOptions readOptions;
+    private final JdbcWriteOptions writeOptions;
+    private final Map<String, List<String>> columnCache = new HashMap<>();
+    private int streamingCursors;
+    private boolean restoreAutoCommit;
+    private boolean runActive;
+    private boolean restoreAutoCommitAfterRun;
+    private int batchesSinceCommit;
 
     public JdbcRecordAdapter(Connection connection) {
+        this(connection, JdbcReadOptions.defaults());
+    }
+
+    public JdbcRecordAdapter(Connection connection, JdbcReadOptions readOptions) {
+        this(connection, readOptions, JdbcWriteOptions.defaults());
+    }
+
+    public JdbcRecordAdapter(Connection connection, JdbcReadOptions readOptions, JdbcWriteOptions writeOptions) {
         this.connection = Objects.requireNonNull(connection);
+        this.readOptions = Objects.requireNonNull(readOptions);
+        this.writeOptions = Objects.requireNonNull(writeOptions);
+    }
+
+    public JdbcReadOptions readOptions() {
+        return readOptions;
+    }
+
+    public JdbcWriteOptions writeOptions() {
+        return writeOptions;
+    }
+
+    protected Connection connection() {
+        return connection;
+    }
+
+    @Override
+    public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws Exception {
+        return RecordCursor.drain(open(sourceName, equalsFilter));
+    }
+
+    @Override
+    public RecordCursor open(String sourceName, Map<String, String> equalsFilter) throws SQLException {
+        return query("SELECT * FROM " + sourceName, "", equalsFilter);
+    }
+
+    /**
+     * Selects only the requested columns that exist in {@code sourceName} (see {@link #columns}),
+     * so unmapped columns of wide tables are neither transferred nor materialized.
+     *
+     * @throws IllegalArgumentException if none of the requested columns exists
+     */
+    @Override
+    public RecordCursor open(String sourceName, Map<String, String> equalsFilter, Set<String> columns) throws SQLException {
+        if (columns == null) return open(sourceName, equalsFilter);
+        Set<String> wanted = upperCase(columns);
+        String select = columns(sourceName).stream()
+                .filter(c -> wanted.contains(c.toUpperCase(Locale.ROOT)))
+                .collect(Collectors.joining(","));
+        if (select.isEmpty()) throw noColumns(columns, sourceName);
+        return query("SELECT " + select + " FROM " + sourceName, "", equalsFilter);
     }
 
     @Override
-    public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws SQLException {
-        String sql = "SELECT * FROM " + sourceName;
+    public boolean supportsJoinPushdown() {
+        return true;
+    }
+
+    /**
+     * Runs the joins as one {@code SELECT} with explicit column list, so the result has the
+     * columns of the engine's hash join; for unmatched rows of a {@code RIGHT} join, shared
+     * columns take the joined table's value. Join columns are compared with SQL semantics
+     * (the hash join compares their text).
+     *
+     * @throws IllegalArgumentException if none of the requested columns exists in the joined tables
+     */
+    @Override
+    public RecordCursor openJoin(String sourceName, Map<String, String> equalsFilter, List<JoinDecl> joins, Set<String> columns) throws SQLException {
+        Map<String, String> exprs = new LinkedHashMap<>();
+        Map<String, String> names = new HashMap<>();
+        for (String column : columns(sourceName)) {
+            String key = column.toUpperCase(Locale.ROOT);
+            if (names.putIfAbsent(key, column) == null) exprs.put(key, "t0." + column);
+        }
+        StringBuilder from = new StringBuilder(sourceName).append(" t0");
+        for (int k = 0; k < joins.size(); k++) {
+            JoinDecl join = joins.get(k);
+            String alias = "t" + (k + 1);
+            String leftExpr = exprs.get(join.leftColumn().toUpperCase(Locale.ROOT));
+            if (leftExpr == null) throw new IllegalArgumentException("Join column " + join.leftColumn() + " missing in left source of " + join.sourceName());
+            boolean right = join.joinType().equalsIgnoreCase("RIGHT");
+            from.append(' ').append(join.joinType().toUpperCase(Locale.ROOT)).append(" JOIN ").append(join.sourceName()).append(' ').append(alias)
+                    .append(" ON ").append(leftExpr).append('=').append(alias).append('.').append(join.rightColumn());
+            for (String column : columns(join.sourceName())) {
+                String key = column.toUpperCase(Locale.ROOT);
+                String own = alias + "." + column;
+                if (names.putIfAbsent(key, column) == null) {
+                    exprs.put(key, own);
+                } else if (right) {
+                    exprs.put(key, "CASE WHEN " + leftExpr + " IS NULL THEN " + own + " ELSE " + exprs.get(key) + " END");
+                }
+            }
+        }
+        Set<String> wanted = columns == null ? null : upperCase(columns);
+        String select = exprs.entrySet().stream()
+                .filter(e -> wanted == null || wanted.contains(e.getKey()))
+                .map(e -> e.getValue() + " AS " + names.get(e.getKey()))
+                .collect(Collectors.joining(","));
+        if (select.isEmpty()) throw noColumns(columns, sourceName);
+        return query("SELECT " + select + " FROM " + from, "t0.", equalsFilter);
+    }
+
+    private RecordCursor query(String sql, String qualifier, Map<String, String> equalsFilter) throws SQLException {
         List<String> whereColumns = new ArrayList<>(equalsFilter.keySet());
         if (!whereColumns.isEmpty()) {
-            sql += " WHERE " + whereColumns.stream().map(c -> c + "=?").collect(Collectors.joining(" AND "));
-        }
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
-            for (int i = 0; i < whereColumns.size(); i++) {
-                ps.setString(i + 1, equalsFilter.get(whereColumns.get(i)));
-            }
-            try (ResultSet rs = ps.executeQuery()) {
-                List<Map<String, Object>> rows = new ArrayList<>();
-                ResultSetMetaData md = rs.getMetaData();
-                while (rs.next()) {
-                    Map<String, Object> row = new LinkedHashMap<>();
-                    for (int i = 1; i <= md.getColumnCount(); i++) {
-                        row.put(md.getColumnName(i), rs.getObject(i));
-                    }
-                    rows.add(row);
-                }
-                return rows;
+            sql += " WHERE " + whereColumns.stream().map(c -> qualifier + c + "=?").collect(Collectors.joining(" AND "));
+        }
+        return select(sql, whereColumns.stream().map(equalsFilter::get).toList());
+    }
+
+    /**
+     * Runs a query of the reader; {@code parameters} are bound as strings to its {@code ?} placeholders.
+     * Dialects with a faster bulk export override this.
+     */
+    protected RecordCursor select(String sql, List<String> parameters) throws SQLException {
+        boolean streaming = readOptions.streaming();
+        if (streaming) beginStreamingRead();
+        PreparedStatement ps = null;
+        try {
+            ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (streaming) ps.setFetchSize(readOptions.fetchSize());
+            for (int i = 0; i < parameters.size(); i++) {
+                ps.setString(i + 1, parameters.get(i));
+            }
+            return new ResultSetCursor(ps, ps.executeQuery(), streaming ? this::endStreamingRead : null);
+        } catch (SQLException | RuntimeException e) {
+            try {
+                if (ps != null) ps.close();
+            } finally {
+                if (streaming) endStreamingRead();
             }
+            throw e;
+        }
+    }
+
+    /**
+     * {@code true} if the driver only honors the fetch size inside a transaction (PostgreSQL
+     * fetches the whole result in autocommit mode). Dialects streaming without one override this.
+     */
+    protected boolean streamingNeedsTransaction() {
+        return true;
+    }
+
+    private synchronized void beginStreamingRead() throws SQLException {
+        if (streamingCursors == 0 && streamingNeedsTransaction() && connection.getAutoCommit()) {
+            connection.setAutoCommit(false);
+            restoreAutoCommit = true;
+        }
+        streamingCursors++;
+    }
+
+    /** Ends the read transaction (switching autocommit back on commits it) after the last open cursor. */
+    private synchronized void endStreamingRead() throws SQLException {
+        if (--streamingCursors == 0 && restoreAutoCommit) {
+            restoreAutoCommit = false;
+            connection.setAutoCommit(true);
         }
     }
 
+    private static Set<String> upperCase(Set<String> columns) {
+        Set<String> upper = new HashSet<>();
+        columns.forEach(c -> upper.add(c.toUpperCase(Locale.ROOT)));
+        return upper;
+    }
+
+    private static IllegalArgumentException noColumns(Set<String> columns, String sourceName) {
+        return new IllegalArgumentException("None of the columns " + columns + " exists in source " + sourceName);
+    }
+
+    /**
+     * Column names of a table or view, from the metadata of an empty query on the first lookup of
+     * {@code sourceName} and from the adapter's cache afterwards.
+     */
     @Override
-    public void write(String targetName, List<Map<String, Object>> rows) throws SQLException {
-        if (rows.isEmpty()) {
-            return;
+    public List<String> columns(String sourceName) throws SQLException {
+        String key = sourceName.toUpperCase(Locale.ROOT);
+        synchronized (columnCache) {
+            List<String> cached = columnCache.get(key);
+            if (cached != null) return cached;
+        }
+        List<String> columns;
+        try (PreparedStatement ps = connection.prepareStatement("SELECT * FROM " + sourceName + " WHERE 1=0");
+             ResultSet rs = ps.executeQuery()) {
+            ResultSetMetaData md = rs.getMetaData();
+            columns = new ArrayList<>(md.getColumnCount());
+            for (int i = 1; i <= md.getColumnCount(); i++) {
+                columns.add(md.getColumnLabel(i));
+            }
         }
-        List<String> cols = new ArrayList<>(rows.getFirst().keySet());
-        String sql = "INSERT INTO " + targetName + "(" + String.join(",", cols) + ") VALUES(" + String.join(",", Collections.nCopies(cols.size(), "?")) + ")";
-        try (PreparedStatement ps = connection.prepareStatement(sql)) {
+        synchronized (columnCache) {
+            columnCache.putIfAbsent(key, List.copyOf(columns));
+            return columnCache.get(key);
+        }
+    }
+
+    @Override
+    public void write(String targetName, List<Map<String, Object>> rows) throws Exception {
+        try (TargetTableWriter writer = open(targetName)) {
             for (Map<String, Object> row : rows) {
+                writer.append(row);
+            }
+        }
+    }
+
+    @Override
+    public TargetTableWriter open(String targetName) {
+        return new BatchWriter(cols -> "INSERT INTO " + targetName + "(" + String.join(",", cols) + ") VALUES(" + placeholders(cols.size()) + ")");
+    }
+
+    @Override
+    public TargetTableWriter openUpsert(String targetName, String keyColumn) {
+        return new BatchWriter(cols -> {
+            if (!cols.contains(keyColumn)) {
+                throw new IllegalArgumentException("Key column " + keyColumn + " missing in rows for " + targetName);
+            }
+            return upsertSql(targetName, cols, keyColumn);
+        });
+    }
+
+    @Override
+    public void delete(String targetName, String keyColumn, List<?> keys) throws SQLException {
+        if (keys.isEmpty()) return;
+        try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + targetName + " WHERE " + keyColumn + "=?")) {
+            int pending = 0;
+            for (Object key : keys) {
+                bind(ps, 1, key);
+                ps.addBatch();
+                if (++pending == writeOptions.batchSize()) {
+                    ps.executeBatch();
+                    batchExecuted();
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                ps.executeBatch();
+                batchExecuted();
+            }
+        }
+    }
+
+    /** {@code false} for transactional runs, interval commits and connections outside autocommit mode. */
+    @Override
+    public boolean commitsOnFlush() throws SQLException {
+        return !writeOptions.transactional() && writeOptions.commitInterval() == 0 && connection.getAutoCommit();
+    }
+
+    /**
+     * Switches autocommit off for a {@link JdbcWriteOptions#transactional() transactional} run or
+     * one with {@link JdbcWriteOptions#commitInterval() interval commits}.
+     */
+    @Override
+    public synchronized void beginRun() throws SQLException {
+        if (!writeOptions.transactional() && writeOptions.commitInterval() == 0 || runActive) return;
+        if (connection.getAutoCommit()) {
+            connection.setAutoCommit(false);
+            restoreAutoCommitAfterRun = true;
+        }
+        runActive = true;
+        batchesSinceCommit = 0;
+    }
+
+    @Override
+    public synchronized void commitRun() throws SQLException {
+        if (!runActive) return;
+        runActive = false;
+        try {
+            connection.commit();
+        } finally {
+            endRun();
+        }
+    }
+
+    @Override
+    public synchronized void rollbackRun() throws SQLException {
+        if (!runActive) return;
+        runActive = false;
+        try {
+            connection.rollback();
+        } finally {
+            endRun();
+        }
+    }
+
+    private void endRun() throws SQLException {
+        if (restoreAutoCommitAfterRun) {
+            restoreAutoCommitAfterRun = false;
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Called by table writers after each executed batch; commits every
+     * {@link JdbcWriteOptions#commitInterval()} batches unless the connection autocommits.
+     */
+    protected final synchronized void batchExecuted() throws SQLException {
+        if (writeOptions.commitInterval() == 0 || connection.getAutoCommit()) return;
+        if (++batchesSinceCommit >= writeOptions.commitInterval()) {
+            connection.commit();
+            batchesSinceCommit = 0;
+        }
+    }
+
+    /**
+     * Statement inserting or replacing one row identified by {@code keyColumn}; parameters follow
+     * {@code columns}. The default is a standard SQL {@code MERGE}; dialect adapters override it.
+     */
+    protected String upsertSql(String targetName, List<String> columns, String keyColumn) {
+        String source = columns.stream().map(c -> "s." + c).collect(Collectors.joining(","));
+        String sql = "MERGE INTO " + targetName + " t USING (VALUES(" + placeholders(columns.size()) + ")) AS s(" + String.join(",", columns) + ")"
+                + " ON t." + keyColumn + "=s." + keyColumn;
+        List<String> updates = columns.stream().filter(c -> !c.equals(keyColumn)).map(c -> c + "=s." + c).toList();
+        if (!updates.isEmpty()) {
+            sql += " WHEN MATCHED THEN UPDATE SET " + String.join(",", updates);
+        }
+        return sql + " WHEN NOT MATCHED THEN INSERT(" + String.join(",", columns) + ") VALUES(" + source + ")";
+    }
+
+    protected static String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
+    /** Cursor streaming rows from an open result set; {@code onClose} runs after the statement is closed. */
+    private static final class ResultSetCursor implements RecordCursor {
+        private final PreparedStatement statement;
+        private final ResultSet resultSet;
+        private final RowHeader header;
+        private final int[] slots;
+        private SqlAction onClose;
+
+        private ResultSetCursor(PreparedStatement statement, ResultSet resultSet, SqlAction onClose) throws SQLException {
+            this.statement = statement;
+            this.resultSet = resultSet;
+            this.onClose = onClose;
+            ResultSetMetaData md = resultSet.getMetaData();
+            List<String> columns = new ArrayList<>();
+            for (int i = 1; i <= md.getColumnCount(); i++) {
+                columns.add(md.getColumnLabel(i));
+            }
+            this.header = RowHeader.of(columns);
+            this.slots = columns.stream().mapToInt(header::slot).toArray();
+        }
+
+        @Override
+        public Map<String, Object> next() throws SQLException {
+            if (!resultSet.next()) {
+                return null;
+            }
+            Object[] values = new Object[header.size()];
+            for (int i = 0; i < slots.length; i++) {
+                values[slots[i]] = resultSet.getObject(i + 1);
+            }
+            return new IndexedRow(header, values);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try (statement) {
+                resultSet.close();
+            } finally {
+                SqlAction action = onClose;
+                onClose = null;
+                if (action != null) action.run();
+            }
+        }
+    }
+
+    private interface SqlAction {
+        void run() throws SQLException;
+    }
+
+    /** Binds canonical values with their typed setter, so numbers are not sent as text. */
+    static void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+        if (value instanceof Long l) {
+            ps.setLong(index, l);
+        } else if (value instanceof BigDecimal d) {
+            ps.setBigDecimal(index, d);
+        } else if (value instanceof Double d) {
+            ps.setDouble(index, d);
+        } else if (value instanceof String s) {
+            ps.setString(index, s);
+        } else {
+            ps.setObject(index, value);
+        }
+    }
+
+    /**
+     * Appends rows to a JDBC batch of the statement built for the first row's columns; the batch is
+     * executed when it reaches {@link JdbcWriteOptions#batchSize()} rows and on flush/close.
+     */
+    private final class BatchWriter implements TargetTableWriter {
+        private final Function<List<String>, String> sql;
+        private List<String> cols;
+        private RowHeader header;
+        private PreparedStatement ps;
+        private int pending;
+
+        private BatchWriter(Function<List<String>, String> sql) {
+            this.sql = sql;
+        }
+
+        @Override
+        public void append(Map<String, Object> row) throws SQLException {
+            if (ps == null) {
+                cols = new ArrayList<>(row.keySet());
+                header = row instanceof IndexedRow indexed ? indexed.header() : null;
+                ps = connection.prepareStatement(sql.apply(cols));
+            }
+            if (row instanceof IndexedRow indexed && indexed.header() == header) {
                 for (int i = 0; i < cols.size(); i++) {
-                    ps.setObject(i + 1, row.get(cols.get(i)));
+                    bind(ps, i + 1, indexed.valueAt(i));
                 }
-                ps.addBatch();
+            } else {
+                for (int i = 0; i < cols.size(); i++) {
+                    bind(ps, i + 1, row.get(cols.get(i)));
+                }
+            }
+            ps.addBatch();
+            if (++pending == writeOptions.batchSize()) flush();
+        }
+
+        @Override
+        public void flush() throws SQLException {
+            if (pending > 0) {
+                ps.executeBatch();
+                pending = 0;
+                batchExecuted();
+            }
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (ps == null) {
+                return;
+            }
+            try {
+                flush();
+            } finally {
+                ps.close();
+                ps = null;
             }
-            ps.executeBatch();
         }
     }
 }
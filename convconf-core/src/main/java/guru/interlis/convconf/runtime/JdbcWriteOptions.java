@@ -0,0 +1,45 @@
+package guru.interlis.convconf.runtime;
+
+/**
+ * Write settings of a {@link JdbcRecordAdapter}.
+ *
+ * @param batchSize rows sent per {@code executeBatch}
+ * @param commitInterval number of executed batches after which the adapter commits; a run
+ *                       ({@link RecordTargetWriter#beginRun()} to {@link RecordTargetWriter#commitRun()})
+ *                       switches autocommit off for that and commits the rest at its end, a failed
+ *                       run keeps the batches committed until then; {@code 0}: no interval commits
+ * @param transactional if {@code true}, a run is written in one explicit transaction that is rolled
+ *                      back on failure; requires {@code commitInterval} {@code 0}
+ */
+public record JdbcWriteOptions(int batchSize, int commitInterval, boolean transactional) {
+    public static final int DEFAULT_BATCH_SIZE = 1_000;
+
+    public JdbcWriteOptions {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+        if (commitInterval < 0) {
+            throw new IllegalArgumentException("commitInterval must not be negative: " + commitInterval);
+        }
+        if (transactional && commitInterval > 0) {
+            throw new IllegalArgumentException("commitInterval must be 0 for transactional runs: " + commitInterval);
+        }
+    }
+
+    /** Batches of {@link #DEFAULT_BATCH_SIZE} rows, commits left to the connection's autocommit mode. */
+    public static JdbcWriteOptions defaults() {
+        return new JdbcWriteOptions(DEFAULT_BATCH_SIZE, 0, false);
+    }
+
+    public JdbcWriteOptions withBatchSize(int batchSize) {
+        return new JdbcWriteOptions(batchSize, commitInterval, transactional);
+    }
+
+    public JdbcWriteOptions withCommitInterval(int commitInterval) {
+        return new JdbcWriteOptions(batchSize, commitInterval, transactional);
+    }
+
+    public JdbcWriteOptions withTransactional(boolean transactional) {
+        return new JdbcWriteOptions(batchSize, commitInterval, transactional);
+    }
+}
@@ -0,0 +1,25 @@
+package guru.interlis.convconf.runtime;
+
+/**
+ * Queue and stall counters of a {@link ConversionOptions.Mode#PIPELINED} run.
+ * <p>
+ * A high {@code readerStallNanos} means the mapping or writing stage is the bottleneck (the
+ * source is throttled); a high {@code writerIdleNanos} means the target waits for the source.
+ * </p>
+ *
+ * @param queueCapacity capacity of each queue in batches
+ * @param maxRowQueueDepth highest number of row batches waiting between reader and mapper
+ * @param maxRecordQueueDepth highest number of record batches waiting between mapper and writer
+ * @param readerStallNanos time the reader was blocked on a full row queue
+ * @param mapperIdleNanos time the mapper waited on an empty row queue
+ * @param mapperStallNanos time the mapper was blocked on a full record queue
+ * @param writerIdleNanos time the writer waited on an empty record queue
+ */
+public record PipelineStats(int queueCapacity,
+                            int maxRowQueueDepth,
+                            int maxRecordQueueDepth,
+                            long readerStallNanos,
+                            long mapperIdleNanos,
+                            long mapperStallNanos,
+                            long writerIdleNanos) {
+}
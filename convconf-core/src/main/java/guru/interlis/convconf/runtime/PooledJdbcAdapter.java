@@ -0,0 +1,291 @@
+package guru.interlis.convconf.runtime;
+
+import guru.interlis.convconf.lm.JoinDecl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * JDBC endpoint for parallel conversions: every open cursor and table writer gets a
+ * {@link JdbcRecordAdapter} of its own, leased from a pool of connections that grows up to the
+ * number of concurrently used cursors and writers. Connections are opened on demand by
+ * {@code connections} and closed by {@link #close()}.
+ * <p>
+ * Runs span all connections of the pool: connections opened during a run begin it too, and
+ * {@link #commitRun()}/{@link #rollbackRun()} end it on every connection in turn. Since a commit
+ * that fails on one connection cannot undo the others, adapters with
+ * {@link JdbcWriteOptions#transactional() transactional} write options are rejected; interval
+ * commits are allowed, a failed run keeps the committed batches anyway.
+ * </p>
+ */
+public final class PooledJdbcAdapter implements RecordSourceReader, RecordTargetWriter, AutoCloseable {
+    /** Opens a new connection to the endpoint. */
+    @FunctionalInterface
+    public interface ConnectionFactory {
+        Connection connect() throws SQLException;
+    }
+
+    private final ConnectionFactory connections;
+    private final Function<Connection, ? extends JdbcRecordAdapter> adapters;
+    private final List<Connection> opened = new ArrayList<>();
+    private final List<JdbcRecordAdapter> all = new ArrayList<>();
+    private final Deque<JdbcRecordAdapter> idle = new ArrayDeque<>();
+    private boolean runActive;
+    private boolean closed;
+
+    /**
+     * @param connections opens the connections of the pool
+     * @param adapters creates the adapter of a pooled connection, e.g. {@code H2Adapter::new}
+     */
+    public PooledJdbcAdapter(ConnectionFactory connections, Function<Connection, ? extends JdbcRecordAdapter> adapters) {
+        this.connections = Objects.requireNonNull(connections);
+        this.adapters = Objects.requireNonNull(adapters);
+    }
+
+    /** Number of connections opened so far. */
+    public synchronized int connectionCount() {
+        return opened.size();
+    }
+
+    @Override
+    public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws Exception {
+        return RecordCursor.drain(open(sourceName, equalsFilter));
+    }
+
+    @Override
+    public RecordCursor open(String sourceName, Map<String, String> equalsFilter) throws Exception {
+        return open(sourceName, equalsFilter, null);
+    }
+
+    @Override
+    public RecordCursor open(String sourceName, Map<String, String> equalsFilter, Set<String> columns) throws Exception {
+        JdbcRecordAdapter adapter = lease();
+        try {
+            return released(adapter.open(sourceName, equalsFilter, columns), adapter);
+        } catch (Exception | Error e) {
+            release(adapter);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<String> columns(String sourceName) throws Exception {
+        JdbcRecordAdapter adapter = lease();
+        try {
+            return adapter.columns(sourceName);
+        } finally {
+            release(adapter);
+        }
+    }
+
+    @Override
+    public boolean supportsJoinPushdown() {
+        return true;
+    }
+
+    @Override
+    public RecordCursor openJoin(String sourceName, Map<String, String> equalsFilter, List<JoinDecl> joins, Set<String> columns) throws Exception {
+        JdbcRecordAdapter adapter = lease();
+        try {
+            return released(adapter.openJoin(sourceName, equalsFilter, joins, columns), adapter);
+        } catch (Exception | Error e) {
+            release(adapter);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean supportsConcurrentReads() {
+        return true;
+    }
+
+    @Override
+    public void write(String targetName, List<Map<String, Object>> rows) throws Exception {
+        JdbcRecordAdapter adapter = lease();
+        try {
+            adapter.write(targetName, rows);
+        } finally {
+            release(adapter);
+        }
+    }
+
+    @Override
+    public TargetTableWriter open(String targetName) throws Exception {
+        JdbcRecordAdapter adapter = lease();
+        try {
+            return released(adapter.open(targetName), adapter);
+        } catch (Exception | Error e) {
+            release(adapter);
+            throw e;
+        }
+    }
+
+    @Override
+    public TargetTableWriter openUpsert(String targetName, String keyColumn) throws Exception {
+        JdbcRecordAdapter adapter = lease();
+        try {
+            return released(adapter.openUpsert(targetName, keyColumn), adapter);
+        } catch (Exception | Error e) {
+            release(adapter);
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(String targetName, String keyColumn, List<?> keys) throws Exception {
+        JdbcRecordAdapter adapter = lease();
+        try {
+            adapter.delete(targetName, keyColumn, keys);
+        } finally {
+            release(adapter);
+        }
+    }
+
+    @Override
+    public boolean commitsOnFlush() throws Exception {
+        JdbcRecordAdapter adapter = lease();
+        try {
+            return adapter.commitsOnFlush();
+        } finally {
+            release(adapter);
+        }
+    }
+
+    @Override
+    public boolean supportsConcurrentWrites() {
+        return true;
+    }
+
+    @Override
+    public synchronized void beginRun() throws Exception {
+        if (runActive) return;
+        for (JdbcRecordAdapter adapter : all) {
+            adapter.beginRun();
+        }
+        runActive = true;
+    }
+
+    @Override
+    public synchronized void commitRun() throws Exception {
+        runActive = false;
+        for (JdbcRecordAdapter adapter : all) {
+            adapter.commitRun();
+        }
+    }
+
+    @Override
+    public synchronized void rollbackRun() throws Exception {
+        runActive = false;
+        Exception failure = null;
+        for (JdbcRecordAdapter adapter : all) {
+            try {
+                adapter.rollbackRun();
+            } catch (Exception e) {
+                if (failure == null) failure = e; else failure.addSuppressed(e);
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /** Closes all connections of the pool, including those of cursors and writers still open. */
+    @Override
+    public synchronized void close() throws SQLException {
+        closed = true;
+        SQLException failure = null;
+        for (Connection connection : opened) {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                if (failure == null) failure = e; else failure.addSuppressed(e);
+            }
+        }
+        opened.clear();
+        all.clear();
+        idle.clear();
+        if (failure != null) throw failure;
+    }
+
+    private JdbcRecordAdapter lease() throws Exception {
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Connection pool is closed");
+            JdbcRecordAdapter adapter = idle.pollFirst();
+            if (adapter != null) return adapter;
+        }
+        Connection connection = connections.connect();
+        synchronized (this) {
+            try {
+                if (closed) throw new IllegalStateException("Connection pool is closed");
+                JdbcRecordAdapter adapter = adapters.apply(connection);
+                if (adapter.writeOptions().transactional()) {
+                    throw new IllegalArgumentException("Pooled JDBC endpoints cannot write transactional runs: the run spans several connections and is not committed atomically");
+                }
+                if (runActive) adapter.beginRun();
+                opened.add(connection);
+                all.add(adapter);
+                return adapter;
+            } catch (Exception | Error e) {
+                try {
+                    connection.close();
+                } catch (SQLException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private synchronized void release(JdbcRecordAdapter adapter) {
+        if (!closed) idle.addFirst(adapter);
+    }
+
+    private RecordCursor released(RecordCursor cursor, JdbcRecordAdapter adapter) {
+        return new RecordCursor() {
+            private boolean open = true;
+
+            @Override
+            public Map<String, Object> next() throws Exception {
+                return cursor.next();
+            }
+
+            @Override
+            public void close() throws Exception {
+                if (!open) return;
+                open = false;
+                try {
+                    cursor.close();
+                } finally {
+                    release(adapter);
+                }
+            }
+        };
+    }
+
+    private TargetTableWriter released(TargetTableWriter table, JdbcRecordAdapter adapter) {
+        return new TargetTableWriter() {
+            private boolean open = true;
+
+            @Override
+            public void append(Map<String, Object> row) throws Exception {
+                table.append(row);
+            }
+
+            @Override
+            public void flush() throws Exception {
+                table.flush();
+            }
+
+            @Override
+            public void close() throws Exception {
+                if (!open) return;
+                open = false;
+                try {
+                    table.close();
+                } finally {
+                    release(adapter);
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,52 @@
+package guru.interlis.convconf.runtime;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Forward-only cursor over source rows.
+ * <p>
+ * A cursor holds backend resources (result sets, file handles, ...) until it is closed,
+ * so callers must always close it, typically with try-with-resources.
+ * </p>
+ */
+public interface RecordCursor extends AutoCloseable {
+    /**
+     * Advances the cursor.
+     *
+     * @return next row as column/value map or {@code null} when the cursor is exhausted
+     * @throws Exception on backend access failures
+     */
+    Map<String, Object> next() throws Exception;
+
+    @Override
+    void close() throws Exception;
+
+    /** Wraps already materialized rows; used by the default bridge of {@link RecordSourceReader#open}. */
+    static RecordCursor of(List<Map<String, Object>> rows) {
+        Iterator<Map<String, Object>> it = rows.iterator();
+        return new RecordCursor() {
+            @Override
+            public Map<String, Object> next() {
+                return it.hasNext() ? it.next() : null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /** Reads all remaining rows into a list; used by adapters to implement {@link RecordSourceReader#read}. */
+    static List<Map<String, Object>> drain(RecordCursor cursor) throws Exception {
+        try (cursor) {
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (var row = cursor.next(); row != null; row = cursor.next()) {
+                rows.add(row);
+            }
+            return rows;
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package guru.interlis.convconf.runtime;
 
+import guru.interlis.convconf.lm.JoinDecl;
+
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Abstraction for reading raw records from a source backend.
@@ -9,6 +12,11 @@ import java.util.Map;
  * Implementations are free to map {@code sourceName} to a table name, CSV file,
  * worksheet name, API endpoint, etc.
  * </p>
+ * <p>
+ * The engine reads through {@link #open}. Adapters that can only produce complete
+ * row lists implement {@link #read} and inherit a bridging {@code open}; streaming
+ * adapters override {@code open} so a source never has to be held in memory.
+ * </p>
  */
 public interface RecordSourceReader {
     /**
@@ -20,4 +28,67 @@ public interface RecordSourceReader {
      * @throws Exception on backend access failures
      */
     List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws Exception;
+
+    /**
+     * Opens a forward-only cursor over a backend object with an equality filter.
+     *
+     * @param sourceName backend-specific source object name
+     * @param equalsFilter key/value equality filter (column -> required value)
+     * @return cursor that must be closed by the caller
+     * @throws Exception on backend access failures
+     */
+    default RecordCursor open(String sourceName, Map<String, String> equalsFilter) throws Exception {
+        return RecordCursor.of(read(sourceName, equalsFilter));
+    }
+
+    /**
+     * Opens a cursor that only has to return the given columns. The engine passes the columns its
+     * mappings need (matched case-insensitively); columns missing in the source are left out.
+     * Readers that cannot restrict the columns they read return all of them.
+     *
+     * @param columns needed columns, or {@code null} for all columns
+     */
+    default RecordCursor open(String sourceName, Map<String, String> equalsFilter, Set<String> columns) throws Exception {
+        return open(sourceName, equalsFilter);
+    }
+
+    /**
+     * Column names of a source object, if the reader knows them without reading rows (result-set
+     * metadata, a file header). Used to validate LMs before any data is read.
+     *
+     * @return column names, or {@code null} if unknown
+     * @throws Exception on backend access failures
+     */
+    default List<String> columns(String sourceName) throws Exception {
+        return null;
+    }
+
+    /** Whether {@link #openJoin} can evaluate {@code JOIN} declarations inside the backend. */
+    default boolean supportsJoinPushdown() {
+        return false;
+    }
+
+    /**
+     * Opens a cursor over {@code sourceName} joined with the sources of {@code joins}, evaluated by
+     * the backend. Rows must look like the rows of the engine's hash join: the columns of
+     * {@code sourceName} followed by joined columns whose names are not yet present.
+     *
+     * @param sourceName backend-specific source object name
+     * @param equalsFilter key/value equality filter on columns of {@code sourceName}
+     * @param joins joins in declaration order; each left column refers to the columns joined so far
+     * @param columns needed output columns (see {@link #open(String, Map, Set)}), or {@code null} for all columns
+     * @return cursor that must be closed by the caller
+     * @throws Exception on backend access failures
+     */
+    default RecordCursor openJoin(String sourceName, Map<String, String> equalsFilter, List<JoinDecl> joins, Set<String> columns) throws Exception {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support join pushdown");
+    }
+
+    /**
+     * Whether cursors for different sources may be opened and consumed from several threads at once.
+     * If {@code false}, a parallel engine serializes all calls into this reader.
+     */
+    default boolean supportsConcurrentReads() {
+        return false;
+    }
 }
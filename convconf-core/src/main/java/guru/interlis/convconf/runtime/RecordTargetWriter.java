@@ -1,5 +1,6 @@
 package guru.interlis.convconf.runtime;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -9,14 +10,131 @@ import java.util.Map;
  * Implementations are free to map {@code targetName} to a table name, CSV file,
  * worksheet name, API endpoint, etc.
  * </p>
+ * <p>
+ * The engine writes through {@link #open}. Adapters that only implement {@link #write}
+ * inherit a bridging {@code open} that buffers rows until the table writer is flushed;
+ * streaming adapters override {@code open} and push rows to the backend as they arrive.
+ * </p>
  */
 public interface RecordTargetWriter {
     /**
      * Writes rows to a backend object.
+     * <p>
+     * The engine may call this method several times for the same {@code targetName}
+     * during one run (e.g. once per chunk in streaming mode); later calls append to
+     * the rows written before.
+     * </p>
      *
      * @param targetName backend-specific target object name
      * @param rows rows to write as column/value maps
      * @throws Exception on backend access failures
      */
     void write(String targetName, List<Map<String, Object>> rows) throws Exception;
+
+    /**
+     * Opens an incremental writer for a backend object.
+     * <p>
+     * Opening the same {@code targetName} again in one run appends to the rows written before.
+     * </p>
+     *
+     * @param targetName backend-specific target object name
+     * @return table writer that must be closed by the caller
+     * @throws Exception on backend access failures
+     */
+    default TargetTableWriter open(String targetName) throws Exception {
+        return new TargetTableWriter() {
+            private List<Map<String, Object>> buffer = new ArrayList<>();
+
+            @Override
+            public void append(Map<String, Object> row) {
+                buffer.add(row);
+            }
+
+            @Override
+            public void flush() throws Exception {
+                if (!buffer.isEmpty()) {
+                    write(targetName, buffer);
+                    buffer = new ArrayList<>();
+                }
+            }
+
+            @Override
+            public void close() throws Exception {
+                flush();
+            }
+        };
+    }
+
+    /**
+     * Opens a writer that inserts new rows and replaces existing rows with the same key.
+     * <p>
+     * Used by {@link ConversionOptions.Mode#INCREMENTAL} runs; adapters that cannot update rows
+     * in place keep the default, which rejects incremental runs.
+     * </p>
+     *
+     * @param targetName backend-specific target object name
+     * @param keyColumn column identifying a row (the target {@code IDENT} column)
+     * @return table writer that must be closed by the caller
+     * @throws Exception on backend access failures
+     */
+    default TargetTableWriter openUpsert(String targetName, String keyColumn) throws Exception {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support upserts into " + targetName);
+    }
+
+    /**
+     * Deletes the rows whose {@code keyColumn} equals one of {@code keys}; missing keys are ignored.
+     *
+     * @param targetName backend-specific target object name
+     * @param keyColumn column identifying a row (the target {@code IDENT} column)
+     * @param keys key values of the rows to delete
+     * @throws Exception on backend access failures
+     */
+    default void delete(String targetName, String keyColumn, List<?> keys) throws Exception {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support deletes from " + targetName);
+    }
+
+    /**
+     * Starts a conversion run; called before anything is written. Transactional adapters begin
+     * their run transaction here, the default does nothing.
+     *
+     * @throws Exception on backend access failures
+     */
+    default void beginRun() throws Exception {
+    }
+
+    /**
+     * Ends a successful run after all table writers are closed (commits the run transaction).
+     *
+     * @throws Exception on backend access failures
+     */
+    default void commitRun() throws Exception {
+    }
+
+    /**
+     * Ends a failed run; transactional adapters discard what was written since their last commit.
+     *
+     * @throws Exception on backend access failures
+     */
+    default void rollbackRun() throws Exception {
+    }
+
+    /**
+     * Whether rows are committed once {@link TargetTableWriter#flush()} returns, as checkpoints
+     * require: a checkpoint saved after a flush must not cover rows a rollback can still discard.
+     * Adapters that defer commits to the end of a run or to a commit interval return {@code false}.
+     *
+     * @throws Exception on backend access failures
+     */
+    default boolean commitsOnFlush() throws Exception {
+        return true;
+    }
+
+    /**
+     * Whether table writers for different targets may be used from several threads at once.
+     * If {@code false}, a parallel engine serializes all calls into this writer.
+     * A single target is never written from two threads concurrently.
+     */
+    default boolean supportsConcurrentWrites() {
+        return false;
+    }
 }
@@ -0,0 +1,53 @@
+package guru.interlis.convconf.runtime;
+
+import java.util.*;
+
+/**
+ * Ordered, duplicate-free column names shared by all {@link IndexedRow}s of one cursor or writer.
+ * <p>
+ * Column names are resolved to slots once, so per-row access is a plain array index.
+ * </p>
+ */
+public final class RowHeader {
+    private final String[] columns;
+    private final Map<String, Integer> slots;
+
+    private RowHeader(String[] columns, Map<String, Integer> slots) {
+        this.columns = columns;
+        this.slots = slots;
+    }
+
+    /** Builds a header; repeated names collapse onto the slot of their first occurrence. */
+    public static RowHeader of(Collection<String> columns) {
+        Map<String, Integer> slots = new LinkedHashMap<>();
+        for (String column : columns) {
+            slots.putIfAbsent(column, slots.size());
+        }
+        return new RowHeader(slots.keySet().toArray(String[]::new), slots);
+    }
+
+    public int size() {
+        return columns.length;
+    }
+
+    public String column(int slot) {
+        return columns[slot];
+    }
+
+    /** Exact slot of {@code column} or {@code -1}. */
+    public int slot(String column) {
+        Integer slot = slots.get(column);
+        return slot == null ? -1 : slot;
+    }
+
+    /** Slot of {@code column}, falling back to a case-insensitive match; {@code -1} if absent. */
+    public int resolve(String column) {
+        if (column == null) return -1;
+        int slot = slot(column);
+        if (slot >= 0) return slot;
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equalsIgnoreCase(column)) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,17 @@
+package guru.interlis.convconf.runtime;
+
+import java.util.function.Consumer;
+
+/**
+ * Record listener of {@link ConversionEngine#convert} that is also told about the records a resumed
+ * run skips because the failed run already wrote them, e.g. to index their idents. Skipped records
+ * are mapped without trace, in source order, and are neither written nor passed to {@link #accept}.
+ */
+public interface SkippedRecordListener extends Consumer<CanonicalRecord> {
+    /**
+     * Receives one record before the checkpoint of a resumed run.
+     *
+     * @param record record produced from one skipped source row
+     */
+    void skipped(CanonicalRecord record);
+}
@@ -0,0 +1,187 @@
+package guru.interlis.convconf.runtime;
+
+import guru.interlis.convconf.lm.ColumnMap;
+import guru.interlis.convconf.lm.DataDecl;
+import guru.interlis.convconf.lm.InspectionDecl;
+import guru.interlis.convconf.lm.LmModel;
+import guru.interlis.convconf.lm.ValueMapTable;
+
+import java.util.*;
+
+/**
+ * Maps source rows of one DATA or INSPECTION declaration to canonical records.
+ * <p>
+ * Value maps and trace labels are resolved when the mapper is compiled; column names are
+ * resolved to slots (or to the exact key spelling for plain maps) on the first row and
+ * reused until the row header changes. Source values are converted to their canonical
+ * representation according to {@link CanonicalTypes}, without a detour through text for
+ * numeric attributes. Declarations without {@code IDENT} column get their idents from the
+ * {@link IdentGenerator} of the configured {@link IdentStrategy}, after the values are mapped.
+ * {@code NESTING} parents and {@code ANNEXE} values are looked up in the indexes of
+ * {@link DeclarationLinks}.
+ * </p>
+ */
+final class SourceRowMapper {
+    private static final int IDENT = 0;
+    private static final int PARENT = 1;
+    private static final int STRUCT_ATTR = 2;
+    private static final int CLASS = 3;
+    private static final int FIRST_VALUE = 4;
+
+    private final String className;
+    private final String sourceTable;
+    private final DeclarationLinks.Resolved links;
+    private final IdentGenerator identGenerator;
+    private final String traceDetail;
+    private final TraceFilter traceFilter;
+    private final boolean traceDeclaration;
+    private final String[] columns;
+    private final String[] targetPaths;
+    private final ValueMapTable[] valueMaps;
+    private final ValueMapTable structAttrMap;
+    private final ValueMapTable classMap;
+    private final CanonicalTypes types;
+    private final Map<String, CanonicalTypes.Kind[]> kindsByClass = new HashMap<>();
+
+    private long ordinal;
+    private boolean bound;
+    private RowHeader header;
+    private final int[] slots;
+    private final String[] keys;
+
+    private SourceRowMapper(LmModel lm, TraceFilter traceFilter, CanonicalTypes types, String sourceTable, String className, IdentGenerator identGenerator, DeclarationLinks.Resolved links, String traceDetail,
+                            String identColumn, String parentColumn, String structAttrColumn, String classColumn,
+                            String structAttrMap, String classMap, List<ColumnMap> columnMaps) {
+        this.className = className;
+        this.sourceTable = sourceTable;
+        this.links = links;
+        this.identGenerator = identGenerator;
+        this.traceDetail = traceDetail;
+        this.traceFilter = traceFilter;
+        this.types = types;
+        this.traceDeclaration = traceFilter.tracesDeclaration(TraceFilter.READ, sourceTable);
+        this.columns = new String[FIRST_VALUE + columnMaps.size()];
+        this.targetPaths = new String[columnMaps.size()];
+        this.valueMaps = new ValueMapTable[columnMaps.size()];
+        columns[IDENT] = identColumn;
+        columns[PARENT] = parentColumn;
+        columns[STRUCT_ATTR] = structAttrColumn;
+        columns[CLASS] = classColumn;
+        for (int i = 0; i < columnMaps.size(); i++) {
+            ColumnMap c = columnMaps.get(i);
+            columns[FIRST_VALUE + i] = c.column();
+            targetPaths[i] = c.targetPath();
+            valueMaps[i] = valueMap(lm, c.valueMapName());
+        }
+        this.structAttrMap = valueMap(lm, structAttrMap);
+        this.classMap = valueMap(lm, classMap);
+        this.slots = new int[columns.length];
+        this.keys = new String[columns.length];
+    }
+
+    static SourceRowMapper forData(LmModel lm, DataDecl d, TraceFilter traceFilter, CanonicalTypes types, IdentStrategy identStrategy) {
+        return forData(lm, d, traceFilter, types, identStrategy, null);
+    }
+
+    static SourceRowMapper forData(LmModel lm, DataDecl d, TraceFilter traceFilter, CanonicalTypes types, IdentStrategy identStrategy,
+                                   DeclarationLinks.Resolved links) {
+        return new SourceRowMapper(lm, traceFilter, types, d.sourceTable(), d.className(),
+                d.identColumn() == null ? identStrategy.newGenerator(d.name()) : null, links, "source=" + d.sourceTable(),
+                d.identColumn(), links == null ? null : links.parentColumn(), null, null, null, null, d.columns());
+    }
+
+    static SourceRowMapper forInspection(LmModel lm, InspectionDecl i, TraceFilter traceFilter, CanonicalTypes types) {
+        return new SourceRowMapper(lm, traceFilter, types, i.sourceTable(), i.className(), null, null, "inspection=" + i.sourceTable(),
+                i.identColumn(), i.parentColumn(), i.structAttrColumn(), i.classColumn(),
+                i.structAttrMap(), i.classMap(), i.columns());
+    }
+
+    /** Source columns read by this mapper (ident, parent, structure attribute, class and value columns). */
+    Set<String> sourceColumns() {
+        Set<String> needed = new LinkedHashSet<>();
+        for (String column : columns) {
+            if (column != null) needed.add(column);
+        }
+        return needed;
+    }
+
+    CanonicalRecord map(Map<String, Object> row, TraceSink trace) {
+        if (!bound || (row instanceof IndexedRow indexed ? indexed.header() != header : header != null)) {
+            bind(row);
+        }
+        String parent = links == null ? string(row, PARENT) : links.parent(sourceTable, string(row, PARENT));
+        String structAttr = mapValue(structAttrMap, string(row, STRUCT_ATTR));
+        String klass = mapValue(classMap, string(row, CLASS));
+        String recordClass = klass != null ? klass : className;
+        CanonicalTypes.Kind[] kinds = kindsByClass.computeIfAbsent(recordClass, this::kinds);
+        Object[] mapped = new Object[targetPaths.length];
+        for (int i = 0; i < mapped.length; i++) {
+            Object raw = value(row, FIRST_VALUE + i);
+            mapped[i] = CanonicalTypes.canonical(kinds[i], valueMaps[i] == null ? raw : mapValue(valueMaps[i], CanonicalTypes.text(raw)));
+        }
+        String ident = identGenerator != null ? identGenerator.next(recordClass, mapped) : string(row, IDENT);
+        boolean traced = trace != null && traceDeclaration && traceFilter.tracesRecord(recordClass, ident, ordinal);
+        ordinal++;
+        Map<String, Object> vals = new LinkedHashMap<>(targetPaths.length * 4 / 3 + 1);
+        for (int i = 0; i < targetPaths.length; i++) {
+            vals.put(targetPaths[i], mapped[i]);
+            if (traced) {
+                trace.accept(new TraceEvent(TraceFilter.READ, recordClass, ident, columns[FIRST_VALUE + i], targetPaths[i], CanonicalTypes.text(mapped[i]), traceDetail));
+            }
+        }
+        if (links != null) links.annex(ident, vals);
+        return new CanonicalRecord(recordClass, ident, parent, structAttr, vals);
+    }
+
+    private void bind(Map<String, Object> row) {
+        header = row instanceof IndexedRow indexed ? indexed.header() : null;
+        for (int i = 0; i < columns.length; i++) {
+            if (header != null) {
+                slots[i] = header.resolve(columns[i]);
+            } else {
+                keys[i] = resolveKey(row.keySet(), columns[i]);
+            }
+        }
+        bound = true;
+    }
+
+    private CanonicalTypes.Kind[] kinds(String recordClass) {
+        CanonicalTypes.Kind[] kinds = new CanonicalTypes.Kind[targetPaths.length];
+        for (int i = 0; i < kinds.length; i++) {
+            kinds[i] = types.kind(recordClass, targetPaths[i]);
+        }
+        return kinds;
+    }
+
+    private String string(Map<String, Object> row, int column) {
+        Object value = value(row, column);
+        return value == null ? null : value.toString();
+    }
+
+    private Object value(Map<String, Object> row, int column) {
+        if (header != null) {
+            return slots[column] < 0 ? null : ((IndexedRow) row).valueAt(slots[column]);
+        }
+        return keys[column] == null ? null : row.get(keys[column]);
+    }
+
+    private static String resolveKey(Set<String> keys, String column) {
+        if (column == null || keys.contains(column)) return column;
+        for (String key : keys) {
+            if (key.equalsIgnoreCase(column)) return key;
+        }
+        return null;
+    }
+
+    static ValueMapTable valueMap(LmModel lm, String mapName) {
+        if (mapName == null) return null;
+        ValueMapTable map = lm.valueMapTables().get(mapName);
+        if (map == null) throw new IllegalArgumentException("Unknown map " + mapName);
+        return map;
+    }
+
+    private static String mapValue(ValueMapTable map, String value) {
+        if (map == null || value == null || "@".equals(value)) return value;
+        return map.lookup(Integer.parseInt(value));
+    }
+}
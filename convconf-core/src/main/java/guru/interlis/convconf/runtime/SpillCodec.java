@@ -0,0 +1,92 @@
+package guru.interlis.convconf.runtime;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact encoding of spilled runtime data: unsigned varints, nullable UTF-8 strings
+ * ({@code length + 1} as varint, {@code 0} for {@code null}) and tagged canonical values.
+ */
+final class SpillCodec {
+    private static final int NULL = 0;
+    private static final int TEXT = 1;
+    private static final int LONG = 2;
+    private static final int DOUBLE = 3;
+    private static final int DECIMAL = 4;
+
+    private SpillCodec() {
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint in spill file");
+    }
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) return null;
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a canonical or raw source value; {@link Integer}, {@link Short} and {@link Byte} are
+     * read back as {@link Long}, types other than these and {@link Double} and {@link BigDecimal} as text.
+     */
+    static void writeValue(DataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(LONG);
+            out.writeLong(((Number) value).longValue());
+        } else if (value instanceof Double d) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(d);
+        } else if (value instanceof BigDecimal d) {
+            out.writeByte(DECIMAL);
+            writeString(out, d.toString());
+        } else {
+            out.writeByte(TEXT);
+            writeString(out, value.toString());
+        }
+    }
+
+    static Object readValue(DataInput in) throws IOException {
+        int tag = in.readUnsignedByte();
+        return switch (tag) {
+            case NULL -> null;
+            case TEXT -> readString(in);
+            case LONG -> in.readLong();
+            case DOUBLE -> in.readDouble();
+            case DECIMAL -> new BigDecimal(readString(in));
+            default -> throw new IOException("Unknown value tag " + tag + " in spill file");
+        };
+    }
+}
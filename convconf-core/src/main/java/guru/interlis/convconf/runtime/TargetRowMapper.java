@@ -0,0 +1,112 @@
+package guru.interlis.convconf.runtime;
+
+import guru.interlis.convconf.lm.ColumnMap;
+import guru.interlis.convconf.lm.DataDecl;
+import guru.interlis.convconf.lm.LmModel;
+import guru.interlis.convconf.lm.ValueMapTable;
+
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Maps canonical records to target rows of one DATA declaration.
+ * <p>
+ * The target header, the source of every column ({@code $PARENT}, {@code $CLASS}, ... or a KM
+ * path) and its value map are resolved once; rows are produced as {@link IndexedRow}s sharing
+ * that header. Rows can be mapped from a materialized record or directly from a column-wise
+ * {@link CanonicalRecordStore.Partition}.
+ * </p>
+ */
+final class TargetRowMapper {
+    private enum Source { IDENT, PARENT, STRUCT_ATTR, CLASS, VALUE }
+
+    private final RowHeader header;
+    private final int identSlot;
+    private final int[] slots;
+    private final Source[] sources;
+    private final String[] paths;
+    private final String[] columns;
+    private final ValueMapTable[] valueMaps;
+    private final String traceDetail;
+    private final TraceFilter traceFilter;
+    private final boolean traceDeclaration;
+    private long ordinal;
+    private CanonicalRecordStore.Partition boundPartition;
+    private final int[] partitionSlots;
+
+    TargetRowMapper(LmModel lm, DataDecl d, TraceFilter traceFilter) {
+        List<String> names = new ArrayList<>();
+        if (d.identColumn() != null) names.add(d.identColumn());
+        d.columns().forEach(c -> names.add(c.column()));
+        this.header = RowHeader.of(names);
+        this.identSlot = d.identColumn() == null ? -1 : header.slot(d.identColumn());
+        int n = d.columns().size();
+        this.slots = new int[n];
+        this.sources = new Source[n];
+        this.paths = new String[n];
+        this.columns = new String[n];
+        this.valueMaps = new ValueMapTable[n];
+        this.partitionSlots = new int[n];
+        for (int i = 0; i < n; i++) {
+            ColumnMap c = d.columns().get(i);
+            slots[i] = header.slot(c.column());
+            columns[i] = c.column();
+            paths[i] = c.targetPath();
+            sources[i] = switch (c.targetPath()) {
+                case "$PARENT" -> Source.PARENT;
+                case "$STRUCTATTR" -> Source.STRUCT_ATTR;
+                case "$CLASS" -> Source.CLASS;
+                case "$IDENT" -> Source.IDENT;
+                default -> Source.VALUE;
+            };
+            valueMaps[i] = SourceRowMapper.valueMap(lm, c.valueMapName());
+        }
+        this.traceDetail = "target=" + d.sourceTable();
+        this.traceFilter = traceFilter;
+        this.traceDeclaration = traceFilter.tracesDeclaration(TraceFilter.WRITE, d.sourceTable());
+    }
+
+    Map<String, Object> map(CanonicalRecord rec, TraceSink trace) {
+        return map(rec.className(), rec.ident(), rec.parent(), rec.structAttr(), i -> rec.values().get(paths[i]), trace);
+    }
+
+    /** Maps row {@code row} of a store partition; path slots are resolved once per partition. */
+    Map<String, Object> map(CanonicalRecordStore.Partition partition, int row, TraceSink trace) {
+        if (partition != boundPartition) {
+            for (int i = 0; i < paths.length; i++) {
+                partitionSlots[i] = partition.slot(paths[i]);
+            }
+            boundPartition = partition;
+        }
+        return map(partition.className(), partition.ident(row), partition.parent(row), partition.structAttr(row),
+                i -> partition.value(row, partitionSlots[i]), trace);
+    }
+
+    private Map<String, Object> map(String className, String ident, String parent, String structAttr,
+                                    IntFunction<Object> value, TraceSink trace) {
+        boolean traced = trace != null && traceDeclaration && traceFilter.tracesRecord(className, ident, ordinal);
+        ordinal++;
+        Object[] values = new Object[header.size()];
+        if (identSlot >= 0) values[identSlot] = ident;
+        for (int i = 0; i < slots.length; i++) {
+            Object v = switch (sources[i]) {
+                case PARENT -> parent;
+                case STRUCT_ATTR -> structAttr;
+                case CLASS -> className;
+                case IDENT -> ident;
+                case VALUE -> value.apply(i);
+            };
+            Object finalValue = reverseMap(valueMaps[i], v);
+            values[slots[i]] = finalValue;
+            if (traced) {
+                trace.accept(new TraceEvent(TraceFilter.WRITE, className, ident, paths[i], columns[i], CanonicalTypes.text(finalValue), traceDetail));
+            }
+        }
+        return new IndexedRow(header, values);
+    }
+
+    private static Object reverseMap(ValueMapTable map, Object value) {
+        if (map == null || value == null || "@".equals(value)) return value;
+        return map.code(CanonicalTypes.text(value));
+    }
+}
@@ -0,0 +1,37 @@
+package guru.interlis.convconf.runtime;
+
+import java.util.Map;
+
+/**
+ * Incremental writer for one target object (table, CSV file, worksheet, ...).
+ * <p>
+ * Lifecycle: {@link RecordTargetWriter#open} &rarr; any number of {@link #append} and
+ * {@link #flush} calls &rarr; {@link #close}. Rows appended before {@link #flush} or
+ * {@link #close} may still be buffered by the implementation.
+ * </p>
+ */
+public interface TargetTableWriter extends AutoCloseable {
+    /**
+     * Appends one row.
+     *
+     * @param row column/value map; all rows of one writer share the same columns
+     * @throws Exception on backend access failures
+     */
+    void append(Map<String, Object> row) throws Exception;
+
+    /**
+     * Pushes buffered rows to the backend.
+     *
+     * @throws Exception on backend access failures
+     */
+    default void flush() throws Exception {
+    }
+
+    /**
+     * Flushes remaining rows and releases backend resources.
+     *
+     * @throws Exception on backend access failures
+     */
+    @Override
+    void close() throws Exception;
+}
@@ -0,0 +1,100 @@
+package guru.interlis.convconf.runtime;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Selects which records produce trace events.
+ * <p>
+ * Phase and table are checked once when a declaration is compiled; class, ident and sampling
+ * are checked once per record before any event of that record is created, so filtered-out
+ * records cost one method call and no allocation. Empty sets mean "no restriction".
+ * </p>
+ *
+ * @param classes KM class names to trace
+ * @param tables source/target table names to trace
+ * @param idents record idents to trace
+ * @param phases trace phases ({@code READ}, {@code WRITE}) to trace
+ * @param everyNth trace only every n-th record of each declaration (1 = all, counted from the first record)
+ * @param sampleRate fraction of idents to trace, chosen by a deterministic ident hash so the
+ *                   same idents are sampled in READ and WRITE and across runs (1.0 = all)
+ */
+public record TraceFilter(Set<String> classes,
+                          Set<String> tables,
+                          Set<String> idents,
+                          Set<String> phases,
+                          int everyNth,
+                          double sampleRate) {
+    public static final String READ = "READ";
+    public static final String WRITE = "WRITE";
+
+    /** Filter that traces everything. */
+    public static final TraceFilter ALL = new TraceFilter(Set.of(), Set.of(), Set.of(), Set.of(), 1, 1.0);
+
+    public TraceFilter {
+        classes = Set.copyOf(classes);
+        tables = Set.copyOf(tables);
+        idents = Set.copyOf(idents);
+        phases = phases.stream().map(p -> p.toUpperCase(Locale.ROOT)).collect(Collectors.toUnmodifiableSet());
+        for (String phase : phases) {
+            if (!READ.equals(phase) && !WRITE.equals(phase)) {
+                throw new IllegalArgumentException("Unknown trace phase '" + phase + "'. Expected READ or WRITE");
+            }
+        }
+        if (everyNth < 1) {
+            throw new IllegalArgumentException("everyNth must be positive: " + everyNth);
+        }
+        if (!(sampleRate >= 0.0 && sampleRate <= 1.0)) {
+            throw new IllegalArgumentException("sampleRate must be between 0 and 1: " + sampleRate);
+        }
+    }
+
+    public TraceFilter withClasses(Collection<String> classes) {
+        return new TraceFilter(Set.copyOf(classes), tables, idents, phases, everyNth, sampleRate);
+    }
+
+    public TraceFilter withTables(Collection<String> tables) {
+        return new TraceFilter(classes, Set.copyOf(tables), idents, phases, everyNth, sampleRate);
+    }
+
+    public TraceFilter withIdents(Collection<String> idents) {
+        return new TraceFilter(classes, tables, Set.copyOf(idents), phases, everyNth, sampleRate);
+    }
+
+    public TraceFilter withPhases(Collection<String> phases) {
+        return new TraceFilter(classes, tables, idents, Set.copyOf(phases), everyNth, sampleRate);
+    }
+
+    public TraceFilter withEveryNth(int everyNth) {
+        return new TraceFilter(classes, tables, idents, phases, everyNth, sampleRate);
+    }
+
+    public TraceFilter withSampleRate(double sampleRate) {
+        return new TraceFilter(classes, tables, idents, phases, everyNth, sampleRate);
+    }
+
+    /** Declaration-level check: whether records of {@code phase} on {@code table} can be traced at all. */
+    public boolean tracesDeclaration(String phase, String table) {
+        return (phases.isEmpty() || phases.contains(phase)) && (tables.isEmpty() || tables.contains(table));
+    }
+
+    /**
+     * Record-level check.
+     *
+     * @param ordinal zero-based position of the record within its declaration
+     */
+    public boolean tracesRecord(String className, String ident, long ordinal) {
+        if (!classes.isEmpty() && !classes.contains(className)) return false;
+        if (!idents.isEmpty() && !idents.contains(ident)) return false;
+        if (everyNth > 1 && ordinal % everyNth != 0) return false;
+        return sampleRate >= 1.0 || sampled(ident);
+    }
+
+    private boolean sampled(String ident) {
+        int h = (ident == null ? 0 : ident.hashCode()) * 0x9E3779B9;
+        h ^= h >>> 16;
+        return (h & 0xFFFFFFFFL) < (long) (sampleRate * 0x1p32);
+    }
+}
@@ -0,0 +1,19 @@
+package guru.interlis.convconf.runtime;
+
+/**
+ * Receives trace events while a conversion runs.
+ * <p>
+ * The engine calls {@link #accept} from one thread at a time and never closes the sink;
+ * the caller that created it owns it. A plain list can be used as sink via {@code list::add}.
+ * </p>
+ */
+@FunctionalInterface
+public interface TraceSink extends AutoCloseable {
+    /** Accepts one trace event. */
+    void accept(TraceEvent event);
+
+    /** Flushes and releases the sink; the default does nothing. */
+    @Override
+    default void close() throws Exception {
+    }
+}
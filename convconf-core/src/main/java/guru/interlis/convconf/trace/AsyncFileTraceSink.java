@@ -0,0 +1,114 @@
+package guru.interlis.convconf.trace;
+
+import guru.interlis.convconf.runtime.TraceEvent;
+import guru.interlis.convconf.runtime.TraceSink;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Trace sink that streams events to a file on a background thread.
+ * <p>
+ * Events pass through a bounded queue, so memory use is independent of the run size; when the
+ * disk cannot keep up, {@link #accept} blocks. The file is written in a {@link TraceFormat}:
+ * by default one line {@code phase|class|ident|column->path|value|detail} per event. Write
+ * failures are reported by the next {@link #accept} or by {@link #close}.
+ * </p>
+ */
+public final class AsyncFileTraceSink implements TraceSink {
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    private static final int DRAIN_BATCH = 1024;
+    private static final TraceEvent END = new TraceEvent(null, null, null, null, null, null, null);
+
+    private final BlockingQueue<TraceEvent> queue;
+    private final Thread writerThread;
+    private volatile Throwable failure;
+    private boolean closed;
+
+    public AsyncFileTraceSink(Path file) throws IOException {
+        this(file, TraceFormat.TEXT, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public AsyncFileTraceSink(Path file, int queueCapacity) throws IOException {
+        this(file, TraceFormat.TEXT, queueCapacity);
+    }
+
+    public AsyncFileTraceSink(Path file, TraceFormat format) throws IOException {
+        this(file, format, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public AsyncFileTraceSink(Path file, TraceFormat format, int queueCapacity) throws IOException {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be positive: " + queueCapacity);
+        }
+        TraceEncoder out = format.open(file);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.writerThread = Thread.ofPlatform().name("convconf-trace-writer").daemon(true).start(() -> drain(out));
+    }
+
+    @Override
+    public void accept(TraceEvent event) {
+        if (closed) {
+            throw new IllegalStateException("Trace sink is closed");
+        }
+        if (failure != null) {
+            throw new IllegalStateException("Writing trace failed", failure);
+        }
+        try {
+            queue.put(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing trace", e);
+        }
+    }
+
+    private void drain(TraceEncoder out) {
+        List<TraceEvent> batch = new ArrayList<>(DRAIN_BATCH);
+        try (out) {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, DRAIN_BATCH - 1);
+                for (TraceEvent event : batch) {
+                    if (event == END) return;
+                    out.write(event);
+                }
+                batch.clear();
+            }
+        } catch (Throwable t) {
+            failure = t;
+            discardUntilEnd();
+        }
+    }
+
+    /** Keeps producers unblocked after a failure until the sink is closed. */
+    private void discardUntilEnd() {
+        try {
+            while (queue.take() != END) {
+                // discard
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Writes all queued events and closes the file. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            queue.put(END);
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing trace", e);
+        }
+        if (failure != null) {
+            throw new IOException("Writing trace failed", failure);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package guru.interlis.convconf.trace;
+
+import guru.interlis.convconf.runtime.TraceEvent;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static guru.interlis.convconf.trace.BinaryTraceFormat.*;
+
+/**
+ * Writes the binary trace format. Block index entries are spooled to a temporary file while
+ * the trace is written and appended as footer on close, so memory use does not depend on the
+ * number of events or idents.
+ */
+final class BinaryTraceEncoder implements TraceEncoder {
+    private final DataOutputStream out;
+    private final Path indexSpool;
+    private final DataOutputStream index;
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+    private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(64 * 1024);
+    private final DataOutputStream block = new DataOutputStream(blockBytes);
+    private final BitSet blockColumns = new BitSet();
+    private long[] blockIdents = new long[EVENTS_PER_BLOCK];
+    private int blockEvents;
+    private int blockCount;
+    private long offset;
+
+    BinaryTraceEncoder(Path file) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+        Path dir = file.toAbsolutePath().getParent();
+        this.indexSpool = Files.createTempFile(dir, file.getFileName().toString(), ".idx");
+        this.index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexSpool)));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        offset = 8;
+    }
+
+    @Override
+    public void write(TraceEvent e) throws IOException {
+        int column = id(e.sourceColumn());
+        int path = id(e.targetPath());
+        writeVarLong(block, id(e.phase()));
+        writeVarLong(block, id(e.className()));
+        writeVarLong(block, column);
+        writeVarLong(block, path);
+        writeVarLong(block, id(e.detail()));
+        writeString(block, e.ident());
+        writeString(block, e.value());
+        blockColumns.set(column);
+        blockColumns.set(path);
+        blockIdents[blockEvents++] = identHash(e.ident());
+        if (blockEvents == EVENTS_PER_BLOCK) {
+            flushBlock();
+        }
+    }
+
+    private int id(String name) {
+        Integer id = dictionary.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            dictionary.put(name, id);
+        }
+        return id;
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockEvents == 0) return;
+        out.writeInt(blockEvents);
+        out.writeInt(blockBytes.size());
+        blockBytes.writeTo(out);
+
+        index.writeLong(offset);
+        writeVarLong(index, blockEvents);
+        writeVarLong(index, blockColumns.cardinality());
+        for (int c = blockColumns.nextSetBit(0); c >= 0; c = blockColumns.nextSetBit(c + 1)) {
+            writeVarLong(index, c);
+        }
+        long[] hashes = Arrays.stream(blockIdents, 0, blockEvents).sorted().distinct().toArray();
+        writeVarLong(index, hashes.length);
+        long previous = 0;
+        for (long hash : hashes) {
+            writeVarLong(index, hash - previous);
+            previous = hash;
+        }
+
+        offset += 8L + blockBytes.size();
+        blockCount++;
+        blockBytes.reset();
+        blockColumns.clear();
+        blockEvents = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (out; index) {
+            flushBlock();
+            index.flush();
+            long footerOffset = offset;
+            writeVarLong(out, names.size());
+            for (String name : names) {
+                writeString(out, name);
+            }
+            writeVarLong(out, blockCount);
+            Files.copy(indexSpool, out);
+            out.writeLong(footerOffset);
+            out.writeInt(MAGIC);
+        } finally {
+            Files.deleteIfExists(indexSpool);
+        }
+    }
+}
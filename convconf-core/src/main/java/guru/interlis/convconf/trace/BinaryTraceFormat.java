@@ -0,0 +1,83 @@
+package guru.interlis.convconf.trace;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Layout and primitives of the binary trace format.
+ * <pre>
+ * file    := MAGIC version:int block* footer footerOffset:long MAGIC
+ * block   := eventCount:int byteLength:int event*
+ * event   := phase:varint class:varint column:varint path:varint detail:varint ident:str value:str
+ * footer  := dictSize:varint str* blockCount:varint blockIdx*
+ * blockIdx:= offset:long eventCount:varint columnIds:varint varint* identHashes:varint deltaVarlong*
+ * str     := (length + 1):varint utf8   (length 0 encodes null)
+ * </pre>
+ * Names of phases, classes, columns, paths and details are dictionary ids; idents and values are
+ * stored inline so the dictionary stays small. Each block index lists the sorted 64-bit hashes of
+ * its idents and the dictionary ids of its column and path names, so lookups only decode
+ * matching blocks.
+ */
+final class BinaryTraceFormat {
+    static final int MAGIC = 0x43435452; // "CCTR"
+    static final int VERSION = 1;
+    static final int EVENTS_PER_BLOCK = 4096;
+
+    private BinaryTraceFormat() {
+    }
+
+    /** FNV-1a over the UTF-16 code units of {@code ident}; {@code null} hashes to 0. */
+    static long identHash(String ident) {
+        if (ident == null) return 0L;
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < ident.length(); i++) {
+            h ^= ident.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint in trace file");
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) throw new IOException("Varint out of range in trace file");
+        return (int) value;
+    }
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        if (s == null) {
+            writeVarLong(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) return null;
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,169 @@
+package guru.interlis.convconf.trace;
+
+import guru.interlis.convconf.runtime.TraceEvent;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static guru.interlis.convconf.trace.BinaryTraceFormat.*;
+
+/**
+ * Reads trace files written in {@link TraceFormat#BINARY}.
+ * <p>
+ * Opening loads only the dictionary and the block index from the footer. Lookups by ident or by
+ * column/path name decode just the blocks whose index entry can contain a match.
+ * </p>
+ */
+public final class BinaryTraceReader implements AutoCloseable {
+    private final FileChannel channel;
+    private final String[] names;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<Block> blocks;
+    private long blocksDecoded;
+
+    private BinaryTraceReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long size = channel.size();
+        if (size < 20 || readInt(0) != MAGIC || readInt(size - 4) != MAGIC) {
+            throw new IOException("Not a binary trace file");
+        }
+        if (readInt(4) != VERSION) {
+            throw new IOException("Unsupported binary trace version " + readInt(4));
+        }
+        long footerOffset = readLong(size - 12);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(footerOffset, (int) (size - 12 - footerOffset))));
+        this.names = new String[readVarInt(in)];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = readString(in);
+            ids.putIfAbsent(names[i], i);
+        }
+        int blockCount = readVarInt(in);
+        this.blocks = new ArrayList<>(blockCount);
+        for (int b = 0; b < blockCount; b++) {
+            long offset = in.readLong();
+            int events = readVarInt(in);
+            int[] columns = new int[readVarInt(in)];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = readVarInt(in);
+            }
+            long[] identHashes = new long[readVarInt(in)];
+            long previous = 0;
+            for (int i = 0; i < identHashes.length; i++) {
+                previous += readVarLong(in);
+                identHashes[i] = previous;
+            }
+            blocks.add(new Block(offset, events, columns, identHashes));
+        }
+    }
+
+    public static BinaryTraceReader open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new BinaryTraceReader(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public long eventCount() {
+        return blocks.stream().mapToLong(Block::events).sum();
+    }
+
+    public int blockCount() {
+        return blocks.size();
+    }
+
+    /** Number of blocks decoded by queries so far. */
+    public long blocksDecoded() {
+        return blocksDecoded;
+    }
+
+    /** All READ/WRITE events of {@code ident}, in file order. */
+    public List<TraceEvent> byIdent(String ident) throws IOException {
+        long hash = identHash(ident);
+        return query(b -> Arrays.binarySearch(b.identHashes(), hash) >= 0, e -> Objects.equals(e.ident(), ident));
+    }
+
+    /** All events whose source column or target path equals {@code name}, in file order. */
+    public List<TraceEvent> byColumn(String name) throws IOException {
+        Integer id = ids.get(name);
+        if (id == null) return List.of();
+        return query(b -> Arrays.binarySearch(b.columns(), id) >= 0,
+                e -> name.equals(e.sourceColumn()) || name.equals(e.targetPath()));
+    }
+
+    /** Decodes every event in file order. */
+    public void forEach(Consumer<TraceEvent> consumer) throws IOException {
+        for (Block block : blocks) {
+            decode(block, consumer);
+        }
+    }
+
+    private List<TraceEvent> query(Predicate<Block> candidate, Predicate<TraceEvent> match) throws IOException {
+        List<TraceEvent> result = new ArrayList<>();
+        for (Block block : blocks) {
+            if (!candidate.test(block)) continue;
+            decode(block, e -> {
+                if (match.test(e)) result.add(e);
+            });
+        }
+        return result;
+    }
+
+    private void decode(Block block, Consumer<TraceEvent> consumer) throws IOException {
+        blocksDecoded++;
+        int length = readInt(block.offset() + 4);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(read(block.offset() + 8, length)));
+        for (int i = 0; i < block.events(); i++) {
+            String phase = name(readVarInt(in));
+            String className = name(readVarInt(in));
+            String column = name(readVarInt(in));
+            String path = name(readVarInt(in));
+            String detail = name(readVarInt(in));
+            String ident = readString(in);
+            String value = readString(in);
+            consumer.accept(new TraceEvent(phase, className, ident, column, path, value, detail));
+        }
+    }
+
+    private String name(int id) throws IOException {
+        if (id >= names.length) throw new IOException("Unknown dictionary id " + id + " in trace file");
+        return names[id];
+    }
+
+    private int readInt(long position) throws IOException {
+        return ByteBuffer.wrap(read(position, 4)).getInt();
+    }
+
+    private long readLong(long position) throws IOException {
+        return ByteBuffer.wrap(read(position, 8)).getLong();
+    }
+
+    private byte[] read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of trace file");
+            }
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Index entry of one block; {@code columns} and {@code identHashes} are sorted. */
+    private record Block(long offset, int events, int[] columns, long[] identHashes) {
+    }
+}
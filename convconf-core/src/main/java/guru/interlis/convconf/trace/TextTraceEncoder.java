@@ -0,0 +1,31 @@
+package guru.interlis.convconf.trace;
+
+import guru.interlis.convconf.runtime.TraceEvent;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/** Writes one pipe-delimited line per event. */
+final class TextTraceEncoder implements TraceEncoder {
+    private final BufferedWriter out;
+
+    TextTraceEncoder(Path file) throws IOException {
+        this.out = Files.newBufferedWriter(file);
+    }
+
+    @Override
+    public void write(TraceEvent e) throws IOException {
+        out.append(format(e)).append('\n');
+    }
+
+    static String format(TraceEvent e) {
+        return e.phase() + '|' + e.className() + '|' + e.ident() + '|' + e.sourceColumn() + "->" + e.targetPath() + '|' + e.value() + '|' + e.detail();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
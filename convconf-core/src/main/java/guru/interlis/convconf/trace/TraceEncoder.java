@@ -0,0 +1,14 @@
+package guru.interlis.convconf.trace;
+
+import guru.interlis.convconf.runtime.TraceEvent;
+
+import java.io.IOException;
+
+/** Serializes trace events into one file; used by the writer thread of {@link AsyncFileTraceSink}. */
+interface TraceEncoder extends AutoCloseable {
+    void write(TraceEvent event) throws IOException;
+
+    /** Completes the file (e.g. writes indexes) and releases it. */
+    @Override
+    void close() throws IOException;
+}
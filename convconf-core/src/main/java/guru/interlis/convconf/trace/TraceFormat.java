@@ -0,0 +1,28 @@
+package guru.interlis.convconf.trace;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/** On-disk trace formats written by {@link AsyncFileTraceSink}. */
+public enum TraceFormat {
+    /** One {@code phase|class|ident|column->path|value|detail} line per event. */
+    TEXT,
+    /** Dictionary-encoded blocks with a per-ident/per-column block index; see {@link BinaryTraceReader}. */
+    BINARY;
+
+    public static TraceFormat parse(String raw) {
+        try {
+            return valueOf(raw.trim().toUpperCase(Locale.ROOT));
+        } catch (Exception ignored) {
+            throw new IllegalArgumentException("Unsupported trace format '" + raw + "'. Expected one of: text, binary");
+        }
+    }
+
+    TraceEncoder open(Path file) throws IOException {
+        return switch (this) {
+            case TEXT -> new TextTraceEncoder(file);
+            case BINARY -> new BinaryTraceEncoder(file);
+        };
+    }
+}
@@ -0,0 +1,94 @@
+package guru.interlis.convconf.validate;
+
+import guru.interlis.convconf.km.KmSchema;
+import guru.interlis.convconf.runtime.IdentHashIndex;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Checks that idents are unique per KM class and that {@code REFERENCE} attributes point to
+ * existing records of the target class or one of its subclasses.
+ * <p>
+ * Idents are kept per class in an {@link IdentHashIndex}, so both checks take linear time and a
+ * few dozen bytes plus the ident's characters per record. A reference whose target is not yet
+ * known when its record is checked is deferred (value and location kept) and resolved in
+ * {@link #finish}; sources that write referenced records first therefore keep almost nothing in
+ * memory. Records without ident and empty references are not checked.
+ * </p>
+ */
+public final class IdentIntegrityChecker {
+    private final Map<String, IdentHashIndex> idents = new HashMap<>();
+    private final Map<String, Reference[]> referencesByClass = new HashMap<>();
+    private final List<Deferred> deferred = new ArrayList<>();
+
+    public IdentIntegrityChecker(KmSchema km) {
+        km.classNames().forEach(c -> idents.put(c, new IdentHashIndex()));
+        for (String className : km.classNames()) {
+            List<Reference> references = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            for (var info = km.classes().get(className); info != null; info = info.superClass() == null ? null : km.classes().get(info.superClass())) {
+                for (var attr : info.attributes().values()) {
+                    if (attr.referenceTarget() != null && seen.add(attr.name())) {
+                        references.add(new Reference(attr.name(), attr.referenceTarget(), targets(km, attr.referenceTarget())));
+                    }
+                }
+            }
+            if (!references.isEmpty()) referencesByClass.put(className, references.toArray(Reference[]::new));
+        }
+    }
+
+    /** Indexes of {@code target} and all classes extending it. */
+    private IdentHashIndex[] targets(KmSchema km, String target) {
+        List<IdentHashIndex> targets = new ArrayList<>();
+        for (String className : km.classNames()) {
+            for (var info = km.classes().get(className); info != null; info = info.superClass() == null ? null : km.classes().get(info.superClass())) {
+                if (info.name().equals(target)) {
+                    targets.add(idents.get(className));
+                    break;
+                }
+            }
+        }
+        return targets.toArray(IdentHashIndex[]::new);
+    }
+
+    /** Checks one record of {@code className}; unknown classes are ignored. */
+    public void check(String className, String ident, Function<String, Object> values, Consumer<String> errors) {
+        IdentHashIndex index = idents.get(className);
+        if (index == null || ident == null) return;
+        if (!index.add(ident)) {
+            errors.accept("Duplicate ident " + ident + " in class " + className);
+        }
+        for (Reference ref : referencesByClass.getOrDefault(className, new Reference[0])) {
+            Object value = values.apply(ref.path());
+            if (KmClassChecker.isEmpty(value)) continue;
+            String target = value.toString();
+            if (!ref.exists(target)) {
+                deferred.add(new Deferred(className, ident, ref, target));
+            }
+        }
+    }
+
+    /** Reports the deferred references whose targets never appeared. */
+    public void finish(Consumer<String> errors) {
+        for (Deferred d : deferred) {
+            if (!d.reference().exists(d.target())) {
+                errors.accept("Reference " + d.className() + "." + d.reference().path() + " of ident " + d.ident()
+                        + " points to missing " + d.reference().targetClass() + " " + d.target());
+            }
+        }
+        deferred.clear();
+    }
+
+    private record Reference(String path, String targetClass, IdentHashIndex[] targets) {
+        boolean exists(String ident) {
+            for (IdentHashIndex target : targets) {
+                if (target.contains(ident)) return true;
+            }
+            return false;
+        }
+    }
+
+    private record Deferred(String className, String ident, Reference reference, String target) {}
+}
@@ -0,0 +1,92 @@
+package guru.interlis.convconf.validate;
+
+import guru.interlis.convconf.km.KmSchema;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Validation rules of one KM class, compiled once into flat arrays: mandatory attribute paths and
+ * enumeration attributes with their admissible values (inherited attributes included).
+ * <p>
+ * An enumeration value is admissible as KM literal path ({@code Koerperschaft.HandelsGesellschaft.AG})
+ * or qualified with the topic of the class ({@code Verein.Domain.Koerperschaft.HandelsGesellschaft.AG}).
+ * </p>
+ */
+final class KmClassChecker {
+    private final String className;
+    private final String[] mandatory;
+    private final String[] enumPaths;
+    private final Set<?>[] enumValues;
+
+    private KmClassChecker(String className, List<String> mandatory, List<String> enumPaths, List<Set<String>> enumValues) {
+        this.className = className;
+        this.mandatory = mandatory.toArray(String[]::new);
+        this.enumPaths = enumPaths.toArray(String[]::new);
+        this.enumValues = enumValues.toArray(Set<?>[]::new);
+    }
+
+    /** Compiles the checkers of all classes of {@code km}. */
+    static Map<String, KmClassChecker> compile(KmSchema km) {
+        Map<String, KmClassChecker> checkers = new HashMap<>();
+        for (String className : km.classNames()) {
+            Map<String, KmSchema.KmAttributeInfo> attributes = new LinkedHashMap<>();
+            for (var info = km.classes().get(className); info != null; info = info.superClass() == null ? null : km.classes().get(info.superClass())) {
+                info.attributes().forEach(attributes::putIfAbsent);
+            }
+            String scope = className.contains(".") ? className.substring(0, className.lastIndexOf('.') + 1) : "";
+            List<String> mandatory = new ArrayList<>();
+            List<String> enumPaths = new ArrayList<>();
+            List<Set<String>> enumValues = new ArrayList<>();
+            for (var attr : attributes.values()) {
+                if (attr.mandatory()) mandatory.add(attr.name());
+                if ("ENUM".equals(attr.typeKind()) && !attr.enumValues().isEmpty()) {
+                    Set<String> admissible = new HashSet<>();
+                    for (String literal : attr.enumValues()) {
+                        admissible.add(literal);
+                        admissible.add(scope + literal);
+                    }
+                    enumPaths.add(attr.name());
+                    enumValues.add(admissible);
+                }
+            }
+            checkers.put(className, new KmClassChecker(className, mandatory, enumPaths, enumValues));
+        }
+        return checkers;
+    }
+
+    String[] mandatory() {
+        return mandatory;
+    }
+
+    String[] enumPaths() {
+        return enumPaths;
+    }
+
+    /**
+     * Checks one record whose values are looked up by {@code value} (attribute index into
+     * {@link #mandatory()} followed by {@link #enumPaths()}).
+     */
+    void check(String ident, IntFunction<Object> value, Consumer<String> errors) {
+        for (int i = 0; i < mandatory.length; i++) {
+            if (isEmpty(value.apply(i))) {
+                errors.accept("Mandatory attribute " + className + "." + mandatory[i] + " is empty for ident " + ident);
+            }
+        }
+        for (int i = 0; i < enumPaths.length; i++) {
+            Object v = value.apply(mandatory.length + i);
+            if (!isEmpty(v) && !enumValues[i].contains(v.toString())) {
+                errors.accept("Enumeration attribute " + className + "." + enumPaths[i] + " has undefined value " + v + " for ident " + ident);
+            }
+        }
+    }
+
+    void check(String ident, Map<String, Object> values, Consumer<String> errors) {
+        check(ident, i -> values.get(i < mandatory.length ? mandatory[i] : enumPaths[i - mandatory.length]), errors);
+    }
+
+    static boolean isEmpty(Object value) {
+        return value == null || value instanceof String s && s.isBlank();
+    }
+}
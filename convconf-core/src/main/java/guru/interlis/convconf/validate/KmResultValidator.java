@@ -2,29 +2,197 @@ package guru.interlis.convconf.validate;
 
 import guru.interlis.convconf.km.KmSchema;
 import guru.interlis.convconf.runtime.CanonicalRecord;
+import guru.interlis.convconf.runtime.CanonicalRecordStore;
+import guru.interlis.convconf.runtime.SkippedRecordListener;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
 
-/** Validates canonical conversion results against KM constraints (mandatory attributes). */
+/**
+ * Validates canonical conversion results against KM constraints (mandatory attributes, enumeration
+ * domains). The rules of each KM class are compiled once into a {@link KmClassChecker}. Validation
+ * of a whole result also checks ident uniqueness and references ({@link IdentIntegrityChecker}).
+ */
 public final class KmResultValidator {
+    private static final int BATCH_SIZE = 1024;
+
+    private KmSchema compiledFor;
+    private Map<String, KmClassChecker> checkers;
+
     public List<String> validate(KmSchema kmSchema, List<CanonicalRecord> records) {
         List<String> errors = new ArrayList<>();
+        IdentIntegrityChecker integrity = new IdentIntegrityChecker(kmSchema);
         for (CanonicalRecord rec : records) {
-            var classInfo = kmSchema.classes().get(rec.className());
-            if (classInfo == null) {
-                errors.add("Result contains unknown class " + rec.className());
+            validate(kmSchema, rec, errors);
+            integrity.check(rec.className(), rec.ident(), rec.values()::get, errors::add);
+        }
+        integrity.finish(errors::add);
+        return errors;
+    }
+
+    /**
+     * Validates a column-wise store: each class is checked once against its KM definition and
+     * its attributes are scanned column by column, without materializing records.
+     * Errors are reported per class in record order.
+     */
+    public List<String> validate(KmSchema kmSchema, CanonicalRecordStore store) {
+        Map<String, KmClassChecker> checkers = checkers(kmSchema);
+        List<String> errors = new ArrayList<>();
+        IdentIntegrityChecker integrity = new IdentIntegrityChecker(kmSchema);
+        for (CanonicalRecordStore.Partition partition : store.partitions()) {
+            for (int row = 0; row < partition.size(); row++) {
+                int r = row;
+                integrity.check(partition.className(), partition.ident(row), path -> partition.value(r, partition.slot(path)), errors::add);
+            }
+            KmClassChecker checker = checkers.get(partition.className());
+            if (checker == null) {
+                for (int row = 0; row < partition.size(); row++) {
+                    errors.add("Result contains unknown class " + partition.className());
+                }
                 continue;
             }
-            classInfo.attributes().values().forEach(attr -> {
-                if (attr.mandatory()) {
-                    String value = rec.values().get(attr.name());
-                    if (value == null || value.isBlank()) {
-                        errors.add("Mandatory attribute " + rec.className() + "." + attr.name() + " is empty for ident " + rec.ident());
+            int[] slots = new int[checker.mandatory().length + checker.enumPaths().length];
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = partition.slot(i < checker.mandatory().length ? checker.mandatory()[i] : checker.enumPaths()[i - checker.mandatory().length]);
+            }
+            for (int row = 0; row < partition.size(); row++) {
+                int r = row;
+                checker.check(partition.ident(row), i -> partition.value(r, slots[i]), errors::add);
+            }
+        }
+        integrity.finish(errors::add);
+        return errors;
+    }
+
+    /**
+     * Validates a single record and appends its errors. Ident uniqueness and references need the
+     * other records and are only checked by the other methods.
+     */
+    public void validate(KmSchema kmSchema, CanonicalRecord rec, List<String> errors) {
+        check(checkers(kmSchema), rec, errors::add);
+    }
+
+    /**
+     * Starts validating records inline while they stream through the engine (pass the session as
+     * record listener). With {@code parallelism > 1} records are checked in batches on worker
+     * threads and errors are reported in completion order; ident uniqueness and references are
+     * checked on the caller's thread, references to records not seen yet in {@link Session#finish()}.
+     * Once {@code maxErrors} errors are collected, the next record fails the run.
+     */
+    public Session open(KmSchema kmSchema, int parallelism, int maxErrors) {
+        if (maxErrors < 1) {
+            throw new IllegalArgumentException("maxErrors must be positive: " + maxErrors);
+        }
+        return new Session(checkers(kmSchema), new IdentIntegrityChecker(kmSchema), parallelism, maxErrors);
+    }
+
+    private synchronized Map<String, KmClassChecker> checkers(KmSchema kmSchema) {
+        if (compiledFor != kmSchema) {
+            checkers = KmClassChecker.compile(kmSchema);
+            compiledFor = kmSchema;
+        }
+        return checkers;
+    }
+
+    private static void check(Map<String, KmClassChecker> checkers, CanonicalRecord rec, Consumer<String> errors) {
+        KmClassChecker checker = checkers.get(rec.className());
+        if (checker == null) {
+            errors.accept("Result contains unknown class " + rec.className());
+            return;
+        }
+        checker.check(rec.ident(), rec.values(), errors);
+    }
+
+    /**
+     * Inline validation of one run; see {@link #open}. Records a resumed run skips are only indexed
+     * for the ident and reference checks, their KM rules were checked when the failed run wrote them.
+     */
+    public static final class Session implements SkippedRecordListener, AutoCloseable {
+        private final Map<String, KmClassChecker> checkers;
+        private final IdentIntegrityChecker integrity;
+        private final int maxErrors;
+        private final List<String> errors = new ArrayList<>();
+        private final ExecutorService workers;
+        private final Semaphore inFlight;
+        private final List<Future<?>> pending = new ArrayList<>();
+        private List<CanonicalRecord> batch;
+        private volatile boolean full;
+
+        private Session(Map<String, KmClassChecker> checkers, IdentIntegrityChecker integrity, int parallelism, int maxErrors) {
+            this.checkers = checkers;
+            this.integrity = integrity;
+            this.maxErrors = maxErrors;
+            this.workers = parallelism > 1 ? Executors.newFixedThreadPool(parallelism, Thread.ofPlatform().name("convconf-validate-", 0).daemon(true).factory()) : null;
+            this.inFlight = new Semaphore(Math.max(1, parallelism) * 2);
+            this.batch = new ArrayList<>(BATCH_SIZE);
+        }
+
+        @Override
+        public void accept(CanonicalRecord rec) {
+            if (full) {
+                throw new IllegalArgumentException("KM result validation failed: " + errors() + " (stopped after " + maxErrors + " errors)");
+            }
+            integrity.check(rec.className(), rec.ident(), rec.values()::get, this::add);
+            if (workers == null) {
+                check(checkers, rec, this::add);
+                return;
+            }
+            batch.add(rec);
+            if (batch.size() == BATCH_SIZE) submit();
+        }
+
+        @Override
+        public void skipped(CanonicalRecord rec) {
+            integrity.check(rec.className(), rec.ident(), rec.values()::get, this::add);
+        }
+
+        private void submit() {
+            List<CanonicalRecord> records = batch;
+            batch = new ArrayList<>(BATCH_SIZE);
+            inFlight.acquireUninterruptibly();
+            pending.removeIf(Future::isDone);
+            pending.add(workers.submit(() -> {
+                try {
+                    for (CanonicalRecord rec : records) {
+                        if (full) break;
+                        check(checkers, rec, this::add);
                     }
+                } finally {
+                    inFlight.release();
                 }
-            });
+            }));
+        }
+
+        private void add(String error) {
+            synchronized (errors) {
+                if (errors.size() < maxErrors) errors.add(error);
+                if (errors.size() >= maxErrors) full = true;
+            }
+        }
+
+        /** Waits for outstanding checks and returns the collected errors (at most {@code maxErrors}). */
+        public List<String> finish() throws InterruptedException, ExecutionException {
+            if (workers != null) {
+                if (!batch.isEmpty()) submit();
+                for (Future<?> f : pending) f.get();
+                pending.clear();
+            }
+            integrity.finish(this::add);
+            return errors();
+        }
+
+        private List<String> errors() {
+            synchronized (errors) {
+                return List.copyOf(errors);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (workers != null) workers.shutdownNow();
         }
-        return errors;
     }
 }
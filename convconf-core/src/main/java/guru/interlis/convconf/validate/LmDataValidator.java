@@ -1,34 +1,54 @@
 package guru.interlis.convconf.validate;
 
 import guru.interlis.convconf.lm.DataDecl;
+import guru.interlis.convconf.lm.JoinDecl;
 import guru.interlis.convconf.lm.LmModel;
+import guru.interlis.convconf.runtime.ConversionOptions;
 import guru.interlis.convconf.runtime.RecordSourceReader;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
-/** Validates source instance data against LM declarations before conversion. */
+/**
+ * Validates source instance data against LM declarations before conversion.
+ * <p>
+ * Column presence is checked from {@link RecordSourceReader#columns} (result-set metadata, CSV
+ * headers), so no source data is read. A joined declaration may use the columns of all its
+ * sources. Declarations whose columns the reader cannot report are skipped here; the engine checks
+ * them on the rows it reads when {@link ConversionOptions#validateSourceColumns()} is set.
+ * </p>
+ */
 public final class LmDataValidator {
     public List<String> validate(RecordSourceReader reader, LmModel lm) throws Exception {
         List<String> errors = new ArrayList<>();
         for (DataDecl d : lm.dataDecls()) {
-            var rows = reader.read(d.sourceTable(), d.whereEquals());
-            for (var row : rows) {
-                if (d.identColumn() != null && !hasColumn(row, d.identColumn())) {
-                    errors.add("Missing ident column " + d.identColumn() + " in source " + d.sourceTable());
+            List<String> available = reader.columns(d.sourceTable());
+            for (JoinDecl join : d.joins()) {
+                if (available == null) break;
+                List<String> joined = reader.columns(join.sourceName());
+                if (joined == null) {
+                    available = null;
+                } else {
+                    available = new ArrayList<>(available);
+                    available.addAll(joined);
+                }
+            }
+            if (available == null) continue;
+            if (d.identColumn() != null && !hasColumn(available, d.identColumn())) {
+                errors.add("Missing ident column " + d.identColumn() + " in source " + d.sourceTable());
+            }
+            for (var c : d.columns()) {
+                if (!hasColumn(available, c.column())) {
+                    errors.add("Missing column " + c.column() + " in source " + d.sourceTable());
                 }
-                d.columns().forEach(c -> {
-                    if (!hasColumn(row, c.column())) {
-                        errors.add("Missing column " + c.column() + " in source " + d.sourceTable());
-                    }
-                });
             }
         }
         return errors;
     }
 
-    private boolean hasColumn(java.util.Map<String, Object> row, String name) {
-        if (row.containsKey(name)) return true;
-        return row.keySet().stream().anyMatch(k -> k.equalsIgnoreCase(name));
+    private boolean hasColumn(Collection<String> columns, String name) {
+        if (columns.contains(name)) return true;
+        return columns.stream().anyMatch(k -> k.equalsIgnoreCase(name));
     }
 }
@@ -0,0 +1,121 @@
+package guru.interlis.convconf;
+
+import guru.interlis.convconf.runtime.CanonicalRecord;
+import guru.interlis.convconf.km.KmSchema;
+import guru.interlis.convconf.runtime.CanonicalRecordStore;
+import guru.interlis.convconf.runtime.CanonicalTypes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CanonicalRecordStoreTest {
+    @Test
+    void storesRecordsColumnWiseAndMaterializesThemUnchanged() {
+        List<CanonicalRecord> records = new ArrayList<>();
+        for (int i = 0; i < 2_000; i++) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("Name", "name-" + i);
+            values.put("Kind", i % 3 == 0 ? null : "kind-" + (i % 5));
+            if (i % 2 == 0) values.put("Note", "even");
+            records.add(new CanonicalRecord("M.Person", "p" + i, i % 10 == 0 ? null : "org-" + (i % 4), null, values));
+        }
+        Map<String, Object> comment = new HashMap<>();
+        comment.put("Text", "hello");
+        records.add(new CanonicalRecord("M.Comment", "c1", "p1", "Comments", comment));
+
+        CanonicalRecordStore store = CanonicalRecordStore.of(records);
+
+        assertThat(store.size()).isEqualTo(2_001);
+        assertThat(store.classNames()).containsExactly("M.Person", "M.Comment");
+        assertThat(store.toList()).isEqualTo(records);
+        assertThat(store.records("M.Unknown")).isEmpty();
+
+        var persons = store.partitions("M.Person").iterator().next();
+        assertThat(persons.paths()).containsExactly("Name", "Kind", "Note");
+        assertThat(persons.dictionaryEncoded("Kind")).isTrue();
+        assertThat(persons.dictionaryEncoded("Note")).isTrue();
+        assertThat(persons.dictionaryEncoded("Name")).isFalse();
+        assertThat(persons.value(3, persons.slot("Kind"))).isNull();
+        assertThat(persons.record(3).values()).containsEntry("Kind", null).doesNotContainKey("Note");
+        assertThat(persons.value(4, persons.slot("Note"))).isEqualTo("even");
+        assertThat(persons.value(4, persons.slot("Missing"))).isNull();
+    }
+
+    @Test
+    void spillsPartitionsToSegmentFileWhenBudgetIsExceeded(@TempDir Path spillDir) throws Exception {
+        List<CanonicalRecord> records = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("Name", "name-" + i);
+            values.put("Kind", i % 7 == 0 ? null : "kind-" + (i % 3));
+            String className = i % 4 == 0 ? "M.Org" : "M.Person";
+            records.add(new CanonicalRecord(className, "r" + i, i % 5 == 0 ? null : "r" + (i / 2), null, values));
+        }
+
+        try (CanonicalRecordStore store = new CanonicalRecordStore(16 * 1024, spillDir)) {
+            records.forEach(store::add);
+            assertThat(store.spilledSegments()).isGreaterThan(4);
+            try (var files = Files.list(spillDir)) {
+                assertThat(files).hasSize(1);
+            }
+
+            assertThat(store.size()).isEqualTo(3_000);
+            assertThat(store.records("M.Org")).isEqualTo(records.stream().filter(r -> r.className().equals("M.Org")).toList());
+            assertThat(store.toList()).containsExactlyInAnyOrderElementsOf(records);
+            int rows = 0;
+            for (var partition : store.partitions("M.Person")) {
+                assertThat(partition.className()).isEqualTo("M.Person");
+                rows += partition.size();
+            }
+            assertThat(rows).isEqualTo(2_250);
+        }
+        try (var files = Files.list(spillDir)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    @Test
+    void keepsTypedValuesInPrimitiveAndEnumColumnsAcrossSpills(@TempDir Path spillDir) throws Exception {
+        var km = new KmSchema(Map.of("M.Event", new KmSchema.KmClassInfo("M.Event", false, null, Map.of(
+                "State", new KmSchema.KmAttributeInfo("State", "ENUM", false, null, new java.util.LinkedHashSet<>(List.of("open", "closed"))),
+                "Count", new KmSchema.KmAttributeInfo("Count", "NUMERIC", false, null, Set.of())), Set.of())));
+        List<CanonicalRecord> records = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("Count", i % 9 == 0 ? null : (long) i);
+            values.put("Weight", i * 0.5);
+            values.put("Price", i == 500 ? new BigDecimal("1.10") : null);
+            values.put("State", i % 2 == 0 ? "open" : "closed");
+            values.put("Mixed", i == 700 ? "n/a" : (long) i);
+            records.add(new CanonicalRecord("M.Event", "e" + i, null, null, values));
+        }
+
+        try (CanonicalRecordStore store = new CanonicalRecordStore(8 * 1024, spillDir, CanonicalTypes.of(km))) {
+            records.forEach(store::add);
+            assertThat(store.spilledSegments()).isGreaterThan(1);
+            assertThat(store.toList()).isEqualTo(records);
+            for (var partition : store.partitions("M.Event")) {
+                assertThat(partition.primitive("Count")).isTrue();
+                assertThat(partition.primitive("Weight")).isTrue();
+                assertThat(partition.dictionaryEncoded("State")).isTrue();
+            }
+        }
+        try (CanonicalRecordStore store = CanonicalRecordStore.of(records)) {
+            var partition = store.partitions("M.Event").iterator().next();
+            assertThat(partition.primitive("Mixed")).isFalse();
+            assertThat(partition.value(700, partition.slot("Mixed"))).isEqualTo("n/a");
+            assertThat(partition.value(701, partition.slot("Mixed"))).isEqualTo(701L);
+        }
+    }
+}
@@ -2,15 +2,40 @@ package guru.interlis.convconf;
 
 import guru.interlis.convconf.api.ConvConfService;
 import guru.interlis.convconf.h2.H2Adapter;
+import guru.interlis.convconf.lm.LmParserFacade;
+import guru.interlis.convconf.runtime.ConversionEngine;
+import guru.interlis.convconf.runtime.ConversionOptions;
+import guru.interlis.convconf.runtime.DeltaStats;
+import guru.interlis.convconf.runtime.JdbcReadOptions;
+import guru.interlis.convconf.runtime.JdbcRecordAdapter;
+import guru.interlis.convconf.runtime.JdbcWriteOptions;
+import guru.interlis.convconf.runtime.PooledJdbcAdapter;
+import guru.interlis.convconf.runtime.RecordCursor;
+import guru.interlis.convconf.runtime.RecordSourceReader;
+import guru.interlis.convconf.runtime.RecordTargetWriter;
+import guru.interlis.convconf.runtime.TargetTableWriter;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 
 class ConversionIntegrationTest {
     @Test
@@ -43,6 +68,55 @@ class ConversionIntegrationTest {
     }
 
 
+    @Test
+    void singleTransactionRunIsRolledBackOnFailureAndIntervalRunCommitsEveryNBatches() throws Exception {
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:src_tx;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection tgt = DriverManager.getConnection("jdbc:h2:mem:tgt_tx;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection observer = DriverManager.getConnection("jdbc:h2:mem:tgt_tx;DB_CLOSE_DELAY=-1", "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(tgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+            try (Statement s = src.createStatement()) {
+                s.execute("INSERT INTO SRC_PERSON VALUES ('x','Muster','Max','missing')");
+            }
+
+            H2Adapter target = new H2Adapter(tgt, JdbcReadOptions.defaults(), new JdbcWriteOptions(1, 0, true));
+            assertThatThrownBy(() -> new ConvConfService().convert(
+                    Path.of("../examples/h2-to-h2/km/verein.ili"),
+                    Path.of("../examples/h2-to-h2/lm/source.lm"),
+                    Path.of("../examples/h2-to-h2/lm/target.lm"),
+                    new H2Adapter(src), target))
+                    .hasMessageContaining("points to missing Verein.Domain.Organisation missing");
+            assertThat(count(observer, "TGT_PERSON")).isZero();
+            assertThat(count(observer, "TGT_ORGANISATION")).isZero();
+            assertThat(tgt.getAutoCommit()).isTrue();
+
+            assertThatThrownBy(() -> new JdbcWriteOptions(2, 2, true))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("commitInterval must be 0 for transactional runs: 2");
+            H2Adapter batched = new H2Adapter(tgt, JdbcReadOptions.defaults(), new JdbcWriteOptions(2, 2, false));
+            batched.beginRun();
+            assertThat(tgt.getAutoCommit()).isFalse();
+            try (TargetTableWriter writer = batched.open("TGT_EVENT")) {
+                for (int i = 0; i < 5; i++) {
+                    writer.append(Map.of("ID", "e" + i, "TITLE", "T"));
+                }
+            }
+            assertThat(count(observer, "TGT_EVENT")).isEqualTo(4);
+            batched.rollbackRun();
+            assertThat(count(tgt, "TGT_EVENT")).isEqualTo(4);
+            assertThat(tgt.getAutoCommit()).isTrue();
+
+            batched.beginRun();
+            try (TargetTableWriter writer = batched.open("TGT_EVENT")) {
+                writer.append(Map.of("ID", "e5", "TITLE", "T"));
+            }
+            assertThat(count(observer, "TGT_EVENT")).isEqualTo(4);
+            batched.commitRun();
+            assertThat(count(observer, "TGT_EVENT")).isEqualTo(5);
+        }
+    }
+
     @Test
     void executesBuiltPlanBetweenTwoH2Databases() throws Exception {
         String srcJdbc = "jdbc:h2:mem:src_plan;DB_CLOSE_DELAY=-1";
@@ -72,6 +146,444 @@ class ConversionIntegrationTest {
         }
     }
 
+    @Test
+    void streamsBetweenTwoH2DatabasesInSmallChunks() throws Exception {
+        String srcJdbc = "jdbc:h2:mem:src_stream;DB_CLOSE_DELAY=-1";
+        String tgtJdbc = "jdbc:h2:mem:tgt_stream;DB_CLOSE_DELAY=-1";
+        try (Connection src = DriverManager.getConnection(srcJdbc, "sa", "");
+             Connection tgt = DriverManager.getConnection(tgtJdbc, "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(tgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+
+            var result = new ConvConfService().convert(
+                    Path.of("../examples/h2-to-h2/km/verein.ili"),
+                    Path.of("../examples/h2-to-h2/lm/source.lm"),
+                    Path.of("../examples/h2-to-h2/lm/target.lm"),
+                    new H2Adapter(src),
+                    new H2Adapter(tgt),
+                    ConversionOptions.defaults().withMode(ConversionOptions.Mode.STREAMING).withChunkSize(2)
+            );
+
+            assertThat(result.canonicalRecords()).isEmpty();
+            assertThat(result.recordsRead()).isEqualTo(11);
+            assertThat(result.rowsWritten()).isEqualTo(8);
+            try (var rs = tgt.createStatement().executeQuery("SELECT COUNT(*) FROM TGT_PERSON")) {
+                rs.next();
+                assertThat(rs.getInt(1)).isEqualTo(3);
+            }
+            try (var rs = tgt.createStatement().executeQuery("SELECT COUNT(*) FROM TGT_COMMENT")) {
+                rs.next();
+                assertThat(rs.getInt(1)).isEqualTo(2);
+            }
+        }
+    }
+
+    @Test
+    void pipelinedRunMatchesStreamingRunAndReportsQueueStats() throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:src_pipe;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection streamTgt = DriverManager.getConnection("jdbc:h2:mem:tgt_stream_cmp;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection pipeTgt = DriverManager.getConnection("jdbc:h2:mem:tgt_pipe;DB_CLOSE_DELAY=-1", "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(streamTgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+            runSql(pipeTgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+
+            var engine = new ConversionEngine();
+            List<String> streamedIdents = new ArrayList<>();
+            List<String> pipedIdents = new ArrayList<>();
+            var streamed = engine.convert(new H2Adapter(src), new H2Adapter(streamTgt), sourceLm, targetLm,
+                    ConversionOptions.defaults().withMode(ConversionOptions.Mode.STREAMING).withTrace(true), r -> streamedIdents.add(r.ident()));
+            var piped = engine.convert(new H2Adapter(src), new H2Adapter(pipeTgt), sourceLm, targetLm,
+                    ConversionOptions.defaults().withMode(ConversionOptions.Mode.PIPELINED).withQueueCapacity(1).withTrace(true), r -> pipedIdents.add(r.ident()));
+
+            assertThat(piped.recordsRead()).isEqualTo(streamed.recordsRead());
+            assertThat(piped.rowsWritten()).isEqualTo(streamed.rowsWritten());
+            assertThat(piped.traceEvents()).isEqualTo(streamed.traceEvents());
+            assertThat(pipedIdents).isEqualTo(streamedIdents);
+            assertThat(streamed.pipelineStats()).isNull();
+            assertThat(piped.pipelineStats().queueCapacity()).isEqualTo(1);
+            assertThat(piped.pipelineStats().maxRowQueueDepth()).isBetween(0, 1);
+            try (var rs = pipeTgt.createStatement().executeQuery("SELECT COUNT(*) FROM TGT_PERSON")) {
+                rs.next();
+                assertThat(rs.getInt(1)).isEqualTo(3);
+            }
+        }
+    }
+
+    @Test
+    void pipelinedRunPropagatesReaderFailure() throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        RecordSourceReader reader = (sourceName, equalsFilter) -> {
+            throw new IllegalStateException("unavailable: " + sourceName);
+        };
+        RecordTargetWriter writer = (targetName, rows) -> {};
+
+        assertThatThrownBy(() -> new ConversionEngine().convert(reader, writer, sourceLm, targetLm,
+                ConversionOptions.defaults().withMode(ConversionOptions.Mode.PIPELINED), null))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageStartingWith("unavailable: ");
+    }
+
+    @Test
+    void parallelRunMatchesSequentialRun() throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:src_par;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection seqTgt = DriverManager.getConnection("jdbc:h2:mem:tgt_seq;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection parTgt = DriverManager.getConnection("jdbc:h2:mem:tgt_par;DB_CLOSE_DELAY=-1", "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(seqTgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+            runSql(parTgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+
+            var engine = new ConversionEngine();
+            var sequential = engine.convert(new H2Adapter(src), new H2Adapter(seqTgt), sourceLm, targetLm,
+                    ConversionOptions.defaults().withTrace(true), null);
+            var parallel = engine.convert(new H2Adapter(src), new H2Adapter(parTgt), sourceLm, targetLm,
+                    ConversionOptions.defaults().withTrace(true).withParallelism(4), null);
+
+            assertThat(parallel.canonicalRecords()).isEqualTo(sequential.canonicalRecords());
+            assertThat(parallel.traceEvents()).isEqualTo(sequential.traceEvents());
+            assertThat(parallel.rowsWritten()).isEqualTo(sequential.rowsWritten());
+            try (var rs = parTgt.createStatement().executeQuery("SELECT COUNT(*) FROM TGT_COMMENT")) {
+                rs.next();
+                assertThat(rs.getInt(1)).isEqualTo(2);
+            }
+        }
+    }
+
+    @Test
+    void spillingRunMatchesInMemoryRun(@TempDir Path spillDir) throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:src_spill;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection tgt = DriverManager.getConnection("jdbc:h2:mem:tgt_spill;DB_CLOSE_DELAY=-1", "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(tgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+
+            var engine = new ConversionEngine();
+            RecordTargetWriter discard = (targetName, rows) -> {};
+            var inMemory = engine.convert(new H2Adapter(src), discard, sourceLm, targetLm,
+                    ConversionOptions.defaults().withTrace(true), null);
+            var spilled = engine.convert(new H2Adapter(src), new H2Adapter(tgt), sourceLm, targetLm,
+                    ConversionOptions.defaults().withTrace(true).withMemoryBudget(1).withSpillDirectory(spillDir), null);
+            try (var store = spilled.canonicalStore()) {
+                assertThat(store.spilledSegments()).isEqualTo((int) store.size());
+                assertThat(spilled.canonicalRecords()).isEqualTo(inMemory.canonicalRecords());
+                assertThat(spilled.traceEvents()).isEqualTo(inMemory.traceEvents());
+                assertThat(spilled.rowsWritten()).isEqualTo(inMemory.rowsWritten());
+            }
+            try (var rs = tgt.createStatement().executeQuery("SELECT COUNT(*) FROM TGT_PERSON")) {
+                rs.next();
+                assertThat(rs.getInt(1)).isEqualTo(3);
+            }
+        }
+    }
+
+    @Test
+    void parallelRunCancelsRemainingDeclarationsOnFirstFailure() throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        String failing = sourceLm.dataDecls().get(1).sourceTable();
+        AtomicInteger blocked = new AtomicInteger();
+        AtomicInteger interrupted = new AtomicInteger();
+        RecordSourceReader reader = new RecordSourceReader() {
+            @Override
+            public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public RecordCursor open(String sourceName, Map<String, String> equalsFilter) {
+                if (sourceName.equals(failing)) throw new IllegalStateException("unavailable: " + sourceName);
+                blocked.incrementAndGet();
+                return new RecordCursor() {
+                    @Override
+                    public Map<String, Object> next() throws InterruptedException {
+                        try {
+                            new CountDownLatch(1).await();
+                        } catch (InterruptedException e) {
+                            interrupted.incrementAndGet();
+                            throw e;
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+
+            @Override
+            public boolean supportsConcurrentReads() {
+                return true;
+            }
+        };
+        RecordTargetWriter writer = (targetName, rows) -> {};
+
+        assertTimeoutPreemptively(Duration.ofSeconds(30), () ->
+                assertThatThrownBy(() -> new ConversionEngine().convert(reader, writer, sourceLm, targetLm,
+                        ConversionOptions.defaults().withParallelism(4), null))
+                        .isInstanceOf(IllegalStateException.class)
+                        .hasMessage("unavailable: " + failing));
+        assertThat(blocked.get()).isPositive();
+        assertThat(interrupted).hasValue(blocked.get());
+    }
+
+    @Test
+    void parallelRunReadsAndWritesJdbcEndpointsOverOneConnectionPerWorker() throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        String srcJdbc = "jdbc:h2:mem:src_pool;DB_CLOSE_DELAY=-1";
+        String tgtJdbc = "jdbc:h2:mem:tgt_pool;DB_CLOSE_DELAY=-1";
+        int declarations = sourceLm.dataDecls().size() + sourceLm.inspections().size();
+        CyclicBarrier allOpen = new CyclicBarrier(declarations);
+        try (Connection src = DriverManager.getConnection(srcJdbc, "sa", "");
+             Connection tgt = DriverManager.getConnection(tgtJdbc, "sa", "");
+             Connection seqTgt = DriverManager.getConnection("jdbc:h2:mem:tgt_pool_seq;DB_CLOSE_DELAY=-1", "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(tgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+            runSql(seqTgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+            var engine = new ConversionEngine();
+            var sequential = engine.convert(new H2Adapter(src), new H2Adapter(seqTgt), sourceLm, targetLm,
+                    ConversionOptions.defaults().withTrace(true), null);
+
+            // every declaration waits until all of them have a cursor open: only possible with concurrent connections
+            try (var source = new PooledJdbcAdapter(() -> DriverManager.getConnection(srcJdbc, "sa", ""), c -> new JdbcRecordAdapter(c) {
+                     @Override
+                     public RecordCursor open(String sourceName, Map<String, String> equalsFilter, Set<String> columns) throws SQLException {
+                         try {
+                             allOpen.await(10, TimeUnit.SECONDS);
+                         } catch (Exception e) {
+                             throw new IllegalStateException("declarations were not read concurrently", e);
+                         }
+                         return super.open(sourceName, equalsFilter, columns);
+                     }
+                 });
+                 var target = new PooledJdbcAdapter(() -> DriverManager.getConnection(tgtJdbc, "sa", ""), H2Adapter::new)) {
+                var parallel = engine.convert(source, target, sourceLm, targetLm,
+                        ConversionOptions.defaults().withTrace(true).withParallelism(declarations), null);
+
+                assertThat(source.connectionCount()).isEqualTo(declarations);
+                assertThat(target.connectionCount()).isBetween(1, targetLm.dataDecls().size());
+                assertThat(parallel.canonicalRecords()).isEqualTo(sequential.canonicalRecords());
+                assertThat(parallel.traceEvents()).isEqualTo(sequential.traceEvents());
+            }
+            assertThat(count(tgt, "TGT_PERSON")).isEqualTo(3);
+            assertThat(count(tgt, "TGT_COMMENT")).isEqualTo(2);
+
+            try (var transactional = new PooledJdbcAdapter(() -> DriverManager.getConnection(tgtJdbc, "sa", ""),
+                    c -> new H2Adapter(c, JdbcReadOptions.defaults(), JdbcWriteOptions.defaults().withTransactional(true)))) {
+                assertThatThrownBy(() -> engine.convert(new H2Adapter(src), transactional, sourceLm, targetLm,
+                        ConversionOptions.defaults().withParallelism(declarations), null))
+                        .isInstanceOf(IllegalArgumentException.class)
+                        .hasMessageStartingWith("Pooled JDBC endpoints cannot write transactional runs");
+            }
+        }
+    }
+
+    @Test
+    void incrementalRunWritesOnlyChangedRecords(@TempDir Path tempDir) throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        var options = ConversionOptions.defaults().withMode(ConversionOptions.Mode.INCREMENTAL).withDeltaState(tempDir.resolve("delta.state"));
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:src_delta;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection tgt = DriverManager.getConnection("jdbc:h2:mem:tgt_delta;DB_CLOSE_DELAY=-1", "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(tgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+            var engine = new ConversionEngine();
+
+            var first = engine.convert(new H2Adapter(src), new H2Adapter(tgt), sourceLm, targetLm, options, null);
+            first.deltaState().save(options.deltaState());
+            assertThat(first.deltaStats().inserted()).isEqualTo(first.recordsRead());
+            assertThat(count(tgt, "TGT_PERSON")).isEqualTo(3);
+
+            var unchanged = engine.convert(new H2Adapter(src), new H2Adapter(tgt), sourceLm, targetLm, options, null);
+            unchanged.deltaState().save(options.deltaState());
+            assertThat(unchanged.deltaStats()).isEqualTo(new DeltaStats(0, 0, 0, first.recordsRead()));
+            assertThat(unchanged.rowsWritten()).isZero();
+
+            try (Statement s = src.createStatement()) {
+                s.execute("UPDATE SRC_PERSON SET FIRST_NAME='Josef' WHERE ID='do'");
+                s.execute("DELETE FROM SRC_PERSON WHERE ID='HRG'");
+                s.execute("INSERT INTO SRC_ORGANISATION VALUES ('new','New_AG',5)");
+            }
+            // generic JDBC adapter: standard SQL MERGE instead of the H2 dialect
+            var changed = engine.convert(new H2Adapter(src), new JdbcRecordAdapter(tgt), sourceLm, targetLm, options, null);
+            assertThat(changed.deltaStats()).isEqualTo(new DeltaStats(1, 1, 1, first.recordsRead() - 2));
+            assertThat(changed.rowsWritten()).isEqualTo(2);
+            assertThat(count(tgt, "TGT_PERSON")).isEqualTo(2);
+            assertThat(count(tgt, "TGT_ORGANISATION")).isEqualTo(3);
+            try (var rs = tgt.createStatement().executeQuery("SELECT FIRST_NAME FROM TGT_PERSON WHERE ID='do'")) {
+                rs.next();
+                assertThat(rs.getString(1)).isEqualTo("Josef");
+            }
+        }
+    }
+
+    @Test
+    void failedIncrementalRunKeepsThePreviousDeltaState(@TempDir Path tempDir) throws Exception {
+        Path deltaState = tempDir.resolve("delta.state");
+        var options = ConversionOptions.defaults().withMode(ConversionOptions.Mode.INCREMENTAL).withDeltaState(deltaState);
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:src_delta_fail;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection tgt = DriverManager.getConnection("jdbc:h2:mem:tgt_delta_fail;DB_CLOSE_DELAY=-1", "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(tgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+            try (Statement s = src.createStatement()) {
+                s.execute("INSERT INTO SRC_PERSON VALUES ('x','X','Y','missing')");
+            }
+            var service = new ConvConfService();
+            var target = new H2Adapter(tgt, JdbcReadOptions.defaults(), JdbcWriteOptions.defaults().withTransactional(true));
+
+            assertThatThrownBy(() -> service.convert(Path.of("../examples/h2-to-h2/km/verein.ili"),
+                    Path.of("../examples/h2-to-h2/lm/source.lm"), Path.of("../examples/h2-to-h2/lm/target.lm"),
+                    new H2Adapter(src), target, options))
+                    .hasMessageStartingWith("KM result validation failed: ");
+            assertThat(deltaState).doesNotExist();
+            assertThat(count(tgt, "TGT_PERSON")).isZero();
+
+            try (Statement s = src.createStatement()) {
+                s.execute("DELETE FROM SRC_PERSON WHERE ID='x'");
+            }
+            var retried = service.convert(Path.of("../examples/h2-to-h2/km/verein.ili"),
+                    Path.of("../examples/h2-to-h2/lm/source.lm"), Path.of("../examples/h2-to-h2/lm/target.lm"),
+                    new H2Adapter(src), target, options);
+            assertThat(retried.deltaStats().inserted()).isEqualTo(retried.recordsRead());
+            assertThat(deltaState).exists();
+            assertThat(count(tgt, "TGT_PERSON")).isEqualTo(3);
+            assertThat(count(tgt, "TGT_COMMENT")).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void resumedRunContinuesAfterLastCheckpointWithoutDuplicates(@TempDir Path tempDir) throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        Path checkpoint = tempDir.resolve("run.checkpoint");
+        var options = ConversionOptions.defaults().withMode(ConversionOptions.Mode.STREAMING).withChunkSize(2).withCheckpoint(checkpoint);
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:src_resume;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection tgt = DriverManager.getConnection("jdbc:h2:mem:tgt_resume;DB_CLOSE_DELAY=-1", "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(tgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+            var source = new H2Adapter(src);
+            RecordSourceReader failingOnEvents = (sourceName, equalsFilter) -> {
+                if (sourceName.equals("SRC_EVENT")) throw new IllegalStateException("connection lost");
+                return source.read(sourceName, equalsFilter);
+            };
+            var engine = new ConversionEngine();
+
+            assertThatThrownBy(() -> engine.convert(failingOnEvents, new H2Adapter(tgt), sourceLm, targetLm, options, null))
+                    .hasMessage("connection lost");
+            assertThat(checkpoint).exists();
+            // closing the writers flushed "Jens" after the last checkpoint; the resumed run upserts it
+            assertThat(count(tgt, "TGT_PERSON")).isEqualTo(3);
+
+            List<String> resumedIdents = new ArrayList<>();
+            var resumed = engine.convert(source, new H2Adapter(tgt), sourceLm, targetLm, options.withResume(true), r -> resumedIdents.add(r.ident()));
+            assertThat(resumedIdents).startsWith("Jens").doesNotContain("A", "heig", "HRG", "do");
+            assertThat(resumed.recordsRead()).isEqualTo(resumedIdents.size());
+            assertThat(checkpoint).doesNotExist();
+            assertThat(count(tgt, "TGT_ORGANISATION")).isEqualTo(2);
+            assertThat(count(tgt, "TGT_PERSON")).isEqualTo(3);
+            assertThat(count(tgt, "TGT_EVENT")).isEqualTo(1);
+            assertThat(count(tgt, "TGT_COMMENT")).isEqualTo(2);
+        }
+    }
+
+    @Test
+    void resumedServiceRunValidatesReferencesToRecordsOfTheFailedRun(@TempDir Path tempDir) throws Exception {
+        Path km = Path.of("../examples/h2-to-h2/km/verein.ili");
+        Path sourceLm = Path.of("../examples/h2-to-h2/lm/source.lm");
+        Path targetLm = Path.of("../examples/h2-to-h2/lm/target.lm");
+        var service = new ConvConfService();
+        for (ConversionOptions.Mode mode : List.of(ConversionOptions.Mode.STREAMING, ConversionOptions.Mode.PIPELINED)) {
+            Path checkpoint = tempDir.resolve(mode + ".checkpoint");
+            var options = ConversionOptions.defaults().withMode(ConversionOptions.Mode.STREAMING).withChunkSize(2).withCheckpoint(checkpoint);
+            try (Connection src = DriverManager.getConnection("jdbc:h2:mem:src_resume_" + mode + ";DB_CLOSE_DELAY=-1", "sa", "");
+                 Connection tgt = DriverManager.getConnection("jdbc:h2:mem:tgt_resume_" + mode + ";DB_CLOSE_DELAY=-1", "sa", "")) {
+                runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+                runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+                runSql(tgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+                var source = new H2Adapter(src);
+                RecordSourceReader failingOnEvents = new RecordSourceReader() {
+                    @Override
+                    public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws Exception {
+                        if (sourceName.equals("SRC_EVENT")) throw new IllegalStateException("connection lost");
+                        return source.read(sourceName, equalsFilter);
+                    }
+
+                    @Override
+                    public List<String> columns(String sourceName) throws Exception {
+                        return source.columns(sourceName);
+                    }
+                };
+
+                assertThatThrownBy(() -> service.convert(km, sourceLm, targetLm, failingOnEvents, new H2Adapter(tgt), options))
+                        .hasMessageContaining("connection lost");
+                assertThat(checkpoint).exists();
+
+                // the resumed run starts at Person "Jens", whose organisation "heig" was written before the checkpoint
+                var resumed = service.convert(km, sourceLm, targetLm, source, new H2Adapter(tgt), options.withMode(mode).withResume(true));
+                assertThat(resumed.recordsRead()).isPositive();
+                assertThat(checkpoint).doesNotExist();
+                assertThat(count(tgt, "TGT_ORGANISATION")).isEqualTo(2);
+                assertThat(count(tgt, "TGT_PERSON")).isEqualTo(3);
+                assertThat(count(tgt, "TGT_EVENT")).isEqualTo(1);
+            }
+        }
+    }
+
+    @Test
+    void checkpointsAreRejectedForTargetsThatDeferCommits(@TempDir Path tempDir) throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        Path checkpoint = tempDir.resolve("run.checkpoint");
+        var options = ConversionOptions.defaults().withMode(ConversionOptions.Mode.STREAMING).withCheckpoint(checkpoint);
+        RecordSourceReader empty = (sourceName, equalsFilter) -> List.of();
+        try (Connection tgt = DriverManager.getConnection("jdbc:h2:mem:tgt_deferred;DB_CLOSE_DELAY=-1", "sa", "")) {
+            var engine = new ConversionEngine();
+            for (JdbcWriteOptions writeOptions : List.of(new JdbcWriteOptions(1, 0, true), new JdbcWriteOptions(1, 2, false))) {
+                var target = new H2Adapter(tgt, JdbcReadOptions.defaults(), writeOptions);
+                target.beginRun();
+                try {
+                    assertThatThrownBy(() -> engine.convert(empty, target, sourceLm, targetLm, options, null))
+                            .isInstanceOf(IllegalArgumentException.class)
+                            .hasMessage("Checkpoints need a target that commits every flush (JDBC without transactional runs or interval commits)");
+                } finally {
+                    target.rollbackRun();
+                }
+            }
+            assertThat(checkpoint).doesNotExist();
+            assertThat(engine.convert(empty, new H2Adapter(tgt), sourceLm, targetLm, options, null).recordsRead()).isZero();
+        }
+    }
+
+    private static int count(Connection con, String table) throws Exception {
+        try (var rs = con.createStatement().executeQuery("SELECT COUNT(*) FROM " + table)) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+
     private void runSql(Connection con, Path file) throws Exception {
         for (String stmt : Files.readString(file).split(";")) {
             if (stmt.isBlank()) continue;
@@ -4,6 +4,7 @@ import guru.interlis.convconf.api.ConvConfService;
 import guru.interlis.convconf.file.CsvDirectoryAdapter;
 import guru.interlis.convconf.file.XlsxWorkbookAdapter;
 import guru.interlis.convconf.h2.H2Adapter;
+import guru.interlis.convconf.runtime.ConversionOptions;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.Files;
@@ -13,6 +14,7 @@ import java.sql.DriverManager;
 import java.sql.Statement;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class CsvAndXlsxAdapterIntegrationTest {
     @Test
@@ -81,6 +83,68 @@ class CsvAndXlsxAdapterIntegrationTest {
         }
     }
 
+    @Test
+    void appendsChunksToCsvAndXlsxTargetsInStreamingMode() throws Exception {
+        String srcJdbc = "jdbc:h2:mem:src_file_stream;DB_CLOSE_DELAY=-1";
+        try (Connection src = DriverManager.getConnection(srcJdbc, "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            Path csvOut = Files.createTempDirectory("csv-stream-out");
+            Path xlsxOut = Files.createTempDirectory("xlsx-stream-out").resolve("out.xlsx");
+            var options = ConversionOptions.defaults().withMode(ConversionOptions.Mode.STREAMING).withChunkSize(1);
+            new ConvConfService().convert(
+                    Path.of("../examples/h2-to-h2/km/verein.ili"),
+                    Path.of("../examples/h2-to-h2/lm/source.lm"),
+                    Path.of("../examples/h2-to-h2/lm/target.lm"),
+                    new H2Adapter(src),
+                    new CsvDirectoryAdapter(csvOut),
+                    options
+            );
+            assertThat(Files.readAllLines(csvOut.resolve("TGT_PERSON.csv"))).hasSize(4);
+
+            new ConvConfService().convert(
+                    Path.of("../examples/h2-to-h2/km/verein.ili"),
+                    Path.of("../examples/h2-to-h2/lm/source.lm"),
+                    Path.of("../examples/h2-to-h2/lm/target.lm"),
+                    new H2Adapter(src),
+                    new XlsxWorkbookAdapter(xlsxOut),
+                    options
+            );
+            assertThat(new XlsxWorkbookAdapter(xlsxOut).read("TGT_PERSON", java.util.Map.of())).hasSize(3);
+
+            var checkpointed = options.withCheckpoint(csvOut.resolve("run.checkpoint"));
+            for (var target : java.util.List.of(new CsvDirectoryAdapter(csvOut), new XlsxWorkbookAdapter(xlsxOut))) {
+                assertThatThrownBy(() -> new ConvConfService().convert(
+                        Path.of("../examples/h2-to-h2/km/verein.ili"),
+                        Path.of("../examples/h2-to-h2/lm/source.lm"),
+                        Path.of("../examples/h2-to-h2/lm/target.lm"),
+                        new H2Adapter(src),
+                        target,
+                        checkpointed
+                )).hasMessage("Checkpoints need a target that commits every flush (JDBC without transactional runs or interval commits)");
+            }
+            assertThat(Files.readAllLines(csvOut.resolve("TGT_PERSON.csv"))).hasSize(4);
+        }
+    }
+
+    @Test
+    void appendsCsvRowsInTheColumnOrderOfTheFile() throws Exception {
+        Path csvOut = Files.createTempDirectory("csv-append-out");
+        var adapter = new CsvDirectoryAdapter(csvOut);
+        var first = new java.util.LinkedHashMap<String, Object>();
+        first.put("ID", "1");
+        first.put("NAME", "a");
+        var second = new java.util.LinkedHashMap<String, Object>();
+        second.put("NAME", "b");
+        second.put("ID", "2");
+        adapter.write("T", java.util.List.of(first));
+        adapter.write("T", java.util.List.of(second));
+
+        assertThat(Files.readAllLines(csvOut.resolve("T.csv"))).containsExactly("ID,NAME", "1,a", "2,b");
+        assertThatThrownBy(() -> adapter.write("T", java.util.List.of(java.util.Map.of("ID", "3"))))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("CSV target T has columns [ID, NAME], cannot append rows with columns [ID]");
+    }
 
     @Test
     void convertsFromCustomCsvToH2WithDedicatedLm() throws Exception {
@@ -0,0 +1,230 @@
+package guru.interlis.convconf;
+
+import guru.interlis.convconf.h2.H2Adapter;
+import guru.interlis.convconf.lm.JoinDecl;
+import guru.interlis.convconf.lm.LmParserFacade;
+import guru.interlis.convconf.runtime.CanonicalRecord;
+import guru.interlis.convconf.runtime.ConversionEngine;
+import guru.interlis.convconf.runtime.ConversionOptions;
+import guru.interlis.convconf.runtime.RecordCursor;
+import guru.interlis.convconf.runtime.RecordSourceReader;
+import guru.interlis.convconf.runtime.RecordTargetWriter;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JoinExecutionTest {
+    @Test
+    void hashJoinSpilledJoinAndPushdownProduceSameRecords(@TempDir Path tempDir) throws Exception {
+        Path lmFile = Files.writeString(tempDir.resolve("join.lm"), """
+                LM Join;
+                DATA Person FROM PERSON CLASS Verein.Domain.Person {
+                  IDENT ID;
+                  JOIN LEFT ADDRESS ON ADDR_ID = AID;
+                  COLUMN NAME -> Name;
+                  COLUMN CITY -> Vorname;
+                }
+                DATA Place FROM ADDRESS CLASS Verein.Domain.Organisation {
+                  IDENT AID;
+                  JOIN RIGHT PERSON ON AID = ADDR_ID;
+                  COLUMN CITY -> Name;
+                  COLUMN NAME -> Nummer;
+                }
+                DATA Member FROM PERSON CLASS Verein.Domain.Veranstaltung {
+                  IDENT ID;
+                  JOIN INNER ADDRESS ON ADDR_ID = AID;
+                  COLUMN CITY -> Ort;
+                }
+                """);
+        var sourceLm = new LmParserFacade().parse(lmFile);
+        var targetLm = new LmParserFacade().parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:join_src;DB_CLOSE_DELAY=-1", "sa", "")) {
+            try (Statement s = src.createStatement()) {
+                s.execute("CREATE TABLE PERSON (ID VARCHAR, NAME VARCHAR, ADDR_ID INT)");
+                s.execute("CREATE TABLE ADDRESS (AID INT, CITY VARCHAR)");
+                s.execute("INSERT INTO ADDRESS VALUES (1, 'Bern'), (2, 'Zug'), (3, 'Chur'), (7, 'Aarau')");
+                for (int i = 0; i < 200; i++) {
+                    s.execute("INSERT INTO PERSON VALUES ('p" + i + "', 'n" + i + "', " + (i % 5 == 4 ? "NULL" : Integer.toString(i % 5)) + ")");
+                }
+            }
+            RecordTargetWriter discard = (targetName, rows) -> {};
+            var engine = new ConversionEngine();
+            var options = ConversionOptions.defaults();
+
+            List<String> hashed = lines(engine.convert(new H2Adapter(src), discard, sourceLm, targetLm, options, null).canonicalRecords());
+            List<String> spilled = lines(engine.convert(new H2Adapter(src), discard, sourceLm, targetLm,
+                    options.withMemoryBudget(1_000).withSpillDirectory(tempDir), null).canonicalRecords());
+            List<String> pushed = lines(engine.convert(new H2Adapter(src), discard, sourceLm, targetLm, options.withJoinPushdown(true), null).canonicalRecords());
+
+            assertThat(hashed).contains(
+                    "Verein.Domain.Person|p1|{Name=n1, Vorname=Bern}",
+                    "Verein.Domain.Person|p4|{Name=n4, Vorname=null}",
+                    "Verein.Domain.Organisation|3|{Name=Chur, Nummer=n3}",
+                    "Verein.Domain.Organisation|null|{Name=null, Nummer=n4}",
+                    "Verein.Domain.Veranstaltung|p2|{Ort=Zug}");
+            assertThat(hashed).filteredOn(l -> l.startsWith("Verein.Domain.Person|")).hasSize(200);
+            assertThat(hashed).filteredOn(l -> l.startsWith("Verein.Domain.Organisation|")).hasSize(200);
+            assertThat(hashed).filteredOn(l -> l.startsWith("Verein.Domain.Veranstaltung|")).hasSize(120);
+            assertThat(spilled).containsExactlyInAnyOrderElementsOf(hashed);
+            assertThat(pushed).containsExactlyInAnyOrderElementsOf(hashed);
+            assertThat(tempDir).isDirectoryNotContaining(p -> p.getFileName().toString().startsWith("convconf-join-"));
+        }
+    }
+
+    @Test
+    void nestingAndAnnexeAreResolvedThroughParentAndIdentIndexes(@TempDir Path tempDir) throws Exception {
+        Path lmFile = Files.writeString(tempDir.resolve("links.lm"), """
+                LM Links;
+                DATA Person FROM PERSON CLASS Verein.Domain.Person {
+                  IDENT ID;
+                  ANNEXED PersonExt;
+                  NESTING ADDRESS BY PERSON_ID;
+                  COLUMN NAME -> Name;
+                }
+                DATA PersonExt FROM PERSON_EXT CLASS Verein.Domain.Person {
+                  IDENT PID;
+                  ANNEXE Verein.Domain.Person;
+                  COLUMN FIRST -> Vorname;
+                }
+                DATA Address FROM ADDRESS CLASS Verein.Domain.Veranstaltung {
+                  IDENT AID;
+                  COLUMN CITY -> Ort;
+                }
+                """);
+        var sourceLm = new LmParserFacade().parse(lmFile);
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:links_src;DB_CLOSE_DELAY=-1", "sa", "")) {
+            try (Statement s = src.createStatement()) {
+                s.execute("CREATE TABLE PERSON (ID VARCHAR, NAME VARCHAR)");
+                s.execute("CREATE TABLE PERSON_EXT (PID VARCHAR, FIRST VARCHAR)");
+                s.execute("CREATE TABLE ADDRESS (AID VARCHAR, PERSON_ID VARCHAR, CITY VARCHAR)");
+                s.execute("INSERT INTO PERSON VALUES ('p1', 'Muster'), ('p2', 'Beispiel')");
+                s.execute("INSERT INTO PERSON_EXT VALUES ('p1', 'Hans'), ('p9', 'Niemand')");
+                s.execute("INSERT INTO ADDRESS VALUES ('a1', 'p1', 'Bern'), ('a2', 'p2', 'Zug'), ('a3', NULL, 'Chur')");
+            }
+            List<CanonicalRecord> records = new ArrayList<>();
+            new ConversionEngine().readCanonical(new H2Adapter(src), sourceLm, null, ConversionOptions.defaults(), records::add);
+
+            assertThat(records).extracting(r -> r.className() + "|" + r.ident() + "|" + r.parent() + "|" + r.values()).containsExactly(
+                    "Verein.Domain.Person|p1|null|{Name=Muster, Vorname=Hans}",
+                    "Verein.Domain.Person|p2|null|{Name=Beispiel}",
+                    "Verein.Domain.Veranstaltung|a1|p1|{Ort=Bern}",
+                    "Verein.Domain.Veranstaltung|a2|p2|{Ort=Zug}",
+                    "Verein.Domain.Veranstaltung|a3|null|{Ort=Chur}");
+
+            try (Statement s = src.createStatement()) {
+                s.execute("INSERT INTO ADDRESS VALUES ('a4', 'p7', 'Olten')");
+            }
+            assertThatThrownBy(() -> new ConversionEngine().readCanonical(new H2Adapter(src), sourceLm, null, ConversionOptions.defaults(), rec -> {}))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("PERSON_ID=p7");
+
+            assertThatThrownBy(() -> new ConversionEngine().readCanonical(new H2Adapter(src), sourceLm, null,
+                    ConversionOptions.defaults().withMemoryBudget(64), rec -> {}))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("NESTING/ANNEXE indexes exceed the memory budget of 64 bytes");
+        }
+    }
+
+    @Test
+    void readsOnlyMappedAndJoinColumnsFromJdbcSources(@TempDir Path tempDir) throws Exception {
+        Path lmFile = Files.writeString(tempDir.resolve("wide.lm"), """
+                LM Wide;
+                DATA Person FROM WIDE CLASS Verein.Domain.Person {
+                  IDENT ID;
+                  JOIN LEFT CITY ON CITY_ID = CID;
+                  COLUMN NAME -> Name;
+                  COLUMN CITY_NAME -> Vorname;
+                }
+                """);
+        var sourceLm = new LmParserFacade().parse(lmFile);
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:wide_src;DB_CLOSE_DELAY=-1", "sa", "")) {
+            try (Statement s = src.createStatement()) {
+                s.execute("CREATE TABLE WIDE (ID VARCHAR, NAME VARCHAR, CITY_ID INT, UNUSED1 VARCHAR, UNUSED2 VARCHAR)");
+                s.execute("CREATE TABLE CITY (CID INT, CITY_NAME VARCHAR, UNUSED3 VARCHAR)");
+                s.execute("INSERT INTO WIDE VALUES ('p1', 'Muster', 1, 'x', 'y')");
+                s.execute("INSERT INTO CITY VALUES (1, 'Bern', 'z')");
+            }
+            for (boolean pushdown : new boolean[]{false, true}) {
+                Map<String, Set<String>> columnsBySource = new LinkedHashMap<>();
+                H2Adapter h2 = new H2Adapter(src);
+                RecordSourceReader recording = new RecordSourceReader() {
+                    @Override
+                    public List<Map<String, Object>> read(String sourceName, Map<String, String> equalsFilter) throws Exception {
+                        return h2.read(sourceName, equalsFilter);
+                    }
+
+                    @Override
+                    public RecordCursor open(String sourceName, Map<String, String> equalsFilter, Set<String> columns) throws Exception {
+                        return record(sourceName, h2.open(sourceName, equalsFilter, columns));
+                    }
+
+                    @Override
+                    public boolean supportsJoinPushdown() {
+                        return true;
+                    }
+
+                    @Override
+                    public RecordCursor openJoin(String sourceName, Map<String, String> equalsFilter, List<JoinDecl> joins, Set<String> columns) throws Exception {
+                        return record(sourceName, h2.openJoin(sourceName, equalsFilter, joins, columns));
+                    }
+
+                    private RecordCursor record(String sourceName, RecordCursor cursor) throws Exception {
+                        List<Map<String, Object>> rows = RecordCursor.drain(cursor);
+                        columnsBySource.put(sourceName, rows.get(0).keySet());
+                        return RecordCursor.of(rows);
+                    }
+                };
+                List<CanonicalRecord> records = new ArrayList<>();
+                new ConversionEngine().readCanonical(recording, sourceLm, null, ConversionOptions.defaults().withJoinPushdown(pushdown), records::add);
+
+                assertThat(records).extracting(r -> r.ident() + "|" + r.values()).containsExactly("p1|{Name=Muster, Vorname=Bern}");
+                if (pushdown) {
+                    assertThat(columnsBySource).containsOnlyKeys("WIDE");
+                    assertThat(columnsBySource.get("WIDE")).containsExactly("ID", "NAME", "CITY_NAME");
+                } else {
+                    assertThat(columnsBySource.get("WIDE")).containsExactly("ID", "NAME", "CITY_ID");
+                    assertThat(columnsBySource.get("CITY")).containsExactly("CID", "CITY_NAME");
+                }
+            }
+        }
+    }
+
+    @Test
+    void cachesColumnMetadataAndRejectsProjectionsWithoutExistingColumns() throws Exception {
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:projection_src;DB_CLOSE_DELAY=-1", "sa", "")) {
+            try (Statement s = src.createStatement()) {
+                s.execute("CREATE TABLE ITEM (ID VARCHAR, NAME VARCHAR)");
+                s.execute("INSERT INTO ITEM VALUES ('i1', 'Tisch')");
+            }
+            H2Adapter h2 = new H2Adapter(src);
+            List<String> columns = h2.columns("ITEM");
+            assertThat(columns).containsExactly("ID", "NAME");
+            assertThat(h2.columns("item")).isSameAs(columns);
+            assertThat(RecordCursor.drain(h2.open("ITEM", Map.of(), Set.of("name", "MISSING")))).extracting(Map::keySet).containsExactly(Set.of("NAME"));
+
+            assertThatThrownBy(() -> h2.open("ITEM", Map.of(), Set.of("MISSING")))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("None of the columns [MISSING] exists in source ITEM");
+            assertThatThrownBy(() -> h2.openJoin("ITEM", Map.of(), List.of(), Set.of("MISSING")))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("None of the columns [MISSING] exists in source ITEM");
+        }
+    }
+
+    private static List<String> lines(List<CanonicalRecord> records) {
+        return records.stream().map(r -> r.className() + "|" + r.ident() + "|" + r.values()).toList();
+    }
+}
@@ -1,11 +1,14 @@
 package guru.interlis.convconf;
 
 import guru.interlis.convconf.lm.LmParserFacade;
+import guru.interlis.convconf.lm.ValueMapTable;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.Path;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class LmParserFacadeTest {
     @Test
@@ -15,4 +18,23 @@ class LmParserFacadeTest {
         assertThat(lm.valueMaps()).containsKey("StructAttrMap");
         assertThat(lm.inspections()).hasSize(1);
     }
+
+    @Test
+    void compilesValueMapsIntoLookupTables() throws Exception {
+        var lm = new LmParserFacade().parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var orgForm = lm.valueMapTables().get("OrgFormMap");
+        assertThat(orgForm.lookup(5)).isEqualTo("Verein.Domain.Koerperschaft.HandelsGesellschaft.AG");
+        assertThat(orgForm.lookup(200)).isEqualTo("Verein.Domain.Hochschule");
+        assertThat(orgForm.lookup(6)).isNull();
+        assertThat(orgForm.code("Verein.Domain.Hochschule")).isEqualTo(200);
+        assertThatThrownBy(() -> orgForm.code("Verein.Domain.Unbekannt"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("OrgFormMap");
+
+        var sparse = ValueMapTable.of("Sparse", Map.of(-7, "a", 1_000_000, "b", 42, "c"));
+        assertThat(sparse.lookup(-7)).isEqualTo("a");
+        assertThat(sparse.lookup(1_000_000)).isEqualTo("b");
+        assertThat(sparse.lookup(43)).isNull();
+        assertThat(sparse.code("c")).isEqualTo(42);
+    }
 }
@@ -1,7 +1,10 @@
 package guru.interlis.convconf;
 
 import guru.interlis.convconf.api.ConvConfService;
+import guru.interlis.convconf.h2.H2Adapter;
 import guru.interlis.convconf.postgresql.PostgreSqlAdapter;
+import guru.interlis.convconf.runtime.JdbcReadOptions;
+import guru.interlis.convconf.runtime.RecordCursor;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.Files;
@@ -9,8 +12,11 @@ import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class PostgreSqlAdapterTest {
     @Test
@@ -39,6 +45,55 @@ class PostgreSqlAdapterTest {
         }
     }
 
+    @Test
+    void copyFormatKeepsTheJdbcPathOnOtherDrivers() throws Exception {
+        try (Connection con = DriverManager.getConnection("jdbc:h2:mem:pgcopy;MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "")) {
+            try (Statement s = con.createStatement()) {
+                s.execute("CREATE TABLE t(id INT, name VARCHAR(20))");
+            }
+            PostgreSqlAdapter adapter = new PostgreSqlAdapter(con, JdbcReadOptions.defaults(), PostgreSqlAdapter.CopyFormat.BINARY);
+            adapter.write("t", List.of(Map.of("ID", 1, "NAME", "a\tb"), Map.of("ID", 2, "NAME", "c'd")));
+            try (RecordCursor cursor = adapter.open("t", Map.of("NAME", "c'd"))) {
+                assertThat(cursor.next()).containsEntry("ID", 2);
+                assertThat(cursor.next()).isNull();
+            }
+        }
+        assertThat(PostgreSqlAdapter.CopyFormat.parse(" Text ")).isEqualTo(PostgreSqlAdapter.CopyFormat.TEXT);
+        assertThatThrownBy(() -> PostgreSqlAdapter.CopyFormat.parse("csv")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void streamingReadsRunInsideATransactionAndRestoreAutocommit() throws Exception {
+        try (Connection con = DriverManager.getConnection("jdbc:h2:mem:pgstream;MODE=PostgreSQL;DB_CLOSE_DELAY=-1", "sa", "")) {
+            try (Statement s = con.createStatement()) {
+                s.execute("CREATE TABLE big(id INT PRIMARY KEY, name VARCHAR(20))");
+                s.execute("INSERT INTO big SELECT x, 'n' || x FROM SYSTEM_RANGE(1, 5000)");
+            }
+            PostgreSqlAdapter adapter = new PostgreSqlAdapter(con, JdbcReadOptions.streaming(100));
+            long rows = 0;
+            try (RecordCursor outer = adapter.open("big", Map.of());
+                 RecordCursor inner = adapter.open("big", Map.of("ID", "7"))) {
+                assertThat(con.getAutoCommit()).isFalse();
+                assertThat(inner.next()).containsEntry("NAME", "n7");
+                inner.close();
+                assertThat(con.getAutoCommit()).isFalse();
+                while (outer.next() != null) rows++;
+            }
+            assertThat(rows).isEqualTo(5000);
+            assertThat(con.getAutoCommit()).isTrue();
+
+            try (RecordCursor cursor = new H2Adapter(con).open("big", Map.of())) {
+                assertThat(cursor.next()).isNotNull();
+                assertThat(con.getAutoCommit()).isTrue();
+            }
+            con.setAutoCommit(false);
+            try (RecordCursor cursor = adapter.open("big", Map.of())) {
+                assertThat(cursor.next()).isNotNull();
+            }
+            assertThat(con.getAutoCommit()).isFalse();
+        }
+    }
+
     private void runSql(Connection con, Path file) throws Exception {
         for (String stmt : Files.readString(file).split(";")) {
             if (stmt.isBlank()) continue;
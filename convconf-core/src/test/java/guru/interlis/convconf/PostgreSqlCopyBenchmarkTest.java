@@ -0,0 +1,98 @@
+package guru.interlis.convconf;
+
+import guru.interlis.convconf.postgresql.PostgreSqlAdapter;
+import guru.interlis.convconf.postgresql.PostgreSqlAdapter.CopyFormat;
+import guru.interlis.convconf.runtime.JdbcReadOptions;
+import guru.interlis.convconf.runtime.RecordCursor;
+import guru.interlis.convconf.runtime.TargetTableWriter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Compares batched {@code INSERT}/{@code SELECT} with {@code COPY} in text and binary format and
+ * checks that all paths load and read the same values. Needs a local PostgreSQL, e.g.
+ * {@code docker run -e POSTGRES_PASSWORD=pg -p 5432:5432 postgres}, passed as
+ * {@code CONVCONF_PG_URL=jdbc:postgresql://localhost:5432/postgres?user=postgres&password=pg&stringtype=unspecified}
+ * ({@code stringtype} lets the batch path bind canonical text to typed columns); run with
+ * {@code gradle :convconf-core:benchmark}.
+ */
+@Tag("benchmark")
+class PostgreSqlCopyBenchmarkTest {
+    private static final int ROWS = 200_000;
+    private static final int ROUNDS = 3;
+
+    @Test
+    void copyLoadsAndReadsTheSameRowsFasterThanBatchInserts() throws Exception {
+        String url = System.getenv("CONVCONF_PG_URL");
+        assumeTrue(url != null, "CONVCONF_PG_URL not set");
+        try (Connection con = DriverManager.getConnection(url)) {
+            try (Statement s = con.createStatement()) {
+                s.execute("DROP TABLE IF EXISTS copy_bench");
+                s.execute("CREATE TABLE copy_bench(id BIGINT, nr INTEGER, amount NUMERIC(18,4), ratio DOUBLE PRECISION,"
+                        + " name VARCHAR(100), active BOOLEAN, since DATE, changed TIMESTAMP)");
+            }
+            List<Map<String, Object>> rows = rows();
+            List<Map<String, Object>> expected = null;
+            System.out.printf("%8s %10s %14s %14s%n", "format", "rows", "write rows/s", "read rows/s");
+            for (CopyFormat format : CopyFormat.values()) {
+                PostgreSqlAdapter adapter = new PostgreSqlAdapter(con, JdbcReadOptions.streaming(JdbcReadOptions.DEFAULT_FETCH_SIZE), format);
+                long writeNanos = Long.MAX_VALUE;
+                long readNanos = Long.MAX_VALUE;
+                List<Map<String, Object>> read = null;
+                for (int round = 0; round < ROUNDS; round++) {
+                    try (Statement s = con.createStatement()) {
+                        s.execute("TRUNCATE copy_bench");
+                    }
+                    long start = System.nanoTime();
+                    try (TargetTableWriter writer = adapter.open("copy_bench")) {
+                        for (Map<String, Object> row : rows) writer.append(row);
+                    }
+                    writeNanos = Math.min(writeNanos, System.nanoTime() - start);
+
+                    start = System.nanoTime();
+                    read = new ArrayList<>(ROWS);
+                    try (RecordCursor cursor = adapter.open("copy_bench", Map.of())) {
+                        for (Map<String, Object> row = cursor.next(); row != null; row = cursor.next()) read.add(new HashMap<>(row));
+                    }
+                    readNanos = Math.min(readNanos, System.nanoTime() - start);
+                }
+                assertThat(read).hasSize(ROWS);
+                read.sort(Comparator.comparing(r -> (Long) r.get("id")));
+                if (expected == null) {
+                    expected = read;
+                } else {
+                    assertThat(read).isEqualTo(expected);
+                }
+                System.out.printf("%8s %10d %14.0f %14.0f%n", format, ROWS, ROWS * 1e9 / writeNanos, ROWS * 1e9 / readNanos);
+            }
+        }
+    }
+
+    /** Canonical-style values (numbers as Long/BigDecimal/Double, everything else text) including characters COPY must escape. */
+    private static List<Map<String, Object>> rows() {
+        String[] names = {"plain", "tab\there", "line\nbreak", "back\\slash", "quote'\"", "\\N", "Zürich", "cr\rlf"};
+        List<Map<String, Object>> rows = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("id", (long) i);
+            row.put("nr", i % 7 == 0 ? null : (long) (i % 1000) - 500);
+            row.put("amount", new BigDecimal(i).movePointLeft(3).negate().add(BigDecimal.valueOf(12_345)));
+            row.put("ratio", i / 3.0);
+            row.put("name", i % 11 == 0 ? null : names[i % names.length] + i);
+            row.put("active", i % 2 == 0 ? "true" : "false");
+            row.put("since", "2024-%02d-%02d".formatted(i % 12 + 1, i % 28 + 1));
+            row.put("changed", "2024-01-01 10:%02d:%02d.%06d".formatted(i % 60, i / 60 % 60, i));
+            rows.add(row);
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,204 @@
+package guru.interlis.convconf;
+
+import guru.interlis.convconf.km.KmSchema;
+import guru.interlis.convconf.lm.LmParserFacade;
+import guru.interlis.convconf.runtime.CanonicalTypes;
+import guru.interlis.convconf.runtime.ConversionEngine;
+import guru.interlis.convconf.runtime.ConversionOptions;
+import guru.interlis.convconf.runtime.IdentStrategy;
+import guru.interlis.convconf.runtime.IndexedRow;
+import guru.interlis.convconf.runtime.RecordSourceReader;
+import guru.interlis.convconf.runtime.RecordTargetWriter;
+import guru.interlis.convconf.runtime.RowHeader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RecordAdapterBridgeTest {
+    @Test
+    void listBasedAdaptersWorkThroughDefaultCursorAndTableWriter() throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+
+        RecordSourceReader reader = (sourceName, equalsFilter) -> switch (sourceName) {
+            case "SRC_PERSON" -> List.of(
+                    row("ID", "p1", "LAST_NAME", "A", "FIRST_NAME", "a", "ORG_ID", null),
+                    row("ID", "p2", "LAST_NAME", "B", "FIRST_NAME", "b", "ORG_ID", null),
+                    row("ID", "p3", "LAST_NAME", "C", "FIRST_NAME", "c", "ORG_ID", null));
+            default -> List.of();
+        };
+        Map<String, List<Integer>> writeCalls = new LinkedHashMap<>();
+        RecordTargetWriter writer = (targetName, rows) ->
+                writeCalls.computeIfAbsent(targetName, k -> new ArrayList<>()).add(rows.size());
+
+        var result = new ConversionEngine().convert(reader, writer, sourceLm, targetLm,
+                ConversionOptions.defaults().withMode(ConversionOptions.Mode.STREAMING).withChunkSize(2), null);
+
+        assertThat(result.recordsRead()).isEqualTo(3);
+        assertThat(result.rowsWritten()).isEqualTo(3);
+        assertThat(writeCalls).containsExactly(Map.entry("TGT_PERSON", List.of(2, 1)));
+    }
+
+    @Test
+    void mapsPlainAndIndexedRowsWithCaseInsensitiveColumnsAndValueMaps() throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+
+        RowHeader header = RowHeader.of(List.of("id", "name", "form_code"));
+        RecordSourceReader reader = (sourceName, equalsFilter) -> switch (sourceName) {
+            case "SRC_ORGANISATION" -> List.of(
+                    new IndexedRow(header, new Object[]{"o1", "Acme", "5"}),
+                    new IndexedRow(header, new Object[]{"o2", "Uni", "200"}));
+            case "SRC_PERSON" -> List.of(row("id", "p1", "last_name", "A", "first_name", "a"));
+            default -> List.of();
+        };
+        Map<String, List<Map<String, Object>>> written = new LinkedHashMap<>();
+        RecordTargetWriter writer = (targetName, rows) ->
+                written.computeIfAbsent(targetName, k -> new ArrayList<>()).addAll(rows);
+
+        var result = new ConversionEngine().convert(reader, writer, sourceLm, targetLm, false);
+
+        assertThat(result.canonicalRecords())
+                .extracting(r -> r.ident() + ":" + r.values().get("Form") + ":" + r.values().get("Name"))
+                .containsExactly("o1:Verein.Domain.Koerperschaft.HandelsGesellschaft.AG:Acme",
+                        "o2:Verein.Domain.Hochschule:Uni", "p1:null:A");
+        assertThat(written.get("TGT_ORGANISATION")).extracting(r -> r.get("FORM_CODE")).containsExactly(5, 200);
+    }
+
+    @Test
+    void convertsNumericAttributesToTypedCanonicalValues() throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        var numeric = new KmSchema.KmAttributeInfo("Nummer", "NUMERIC", true, null, Set.of());
+        var km = new KmSchema(Map.of(
+                "Verein.Domain.Organisation", new KmSchema.KmClassInfo("Verein.Domain.Organisation", false, null,
+                        Map.of("Nummer", numeric, "Name", new KmSchema.KmAttributeInfo("Name", "TEXT", false, null, Set.of())), Set.of()),
+                "Verein.Domain.Person", new KmSchema.KmClassInfo("Verein.Domain.Person", false, "Verein.Domain.Organisation", Map.of(), Set.of())));
+
+        RecordSourceReader reader = (sourceName, equalsFilter) -> switch (sourceName) {
+            case "SRC_ORGANISATION" -> List.of(
+                    row("ID", 7, "NAME", 42, "FORM_CODE", 5),
+                    row("ID", new BigDecimal("12.50"), "NAME", "Uni", "FORM_CODE", "200"));
+            case "SRC_PERSON" -> List.of(row("ID", "p1", "LAST_NAME", "A"), row("ID", " 9 ", "LAST_NAME", "B"));
+            default -> List.of();
+        };
+        Map<String, List<Map<String, Object>>> written = new LinkedHashMap<>();
+        RecordTargetWriter writer = (targetName, rows) ->
+                written.computeIfAbsent(targetName, k -> new ArrayList<>()).addAll(rows);
+
+        var result = new ConversionEngine().convert(reader, writer, sourceLm, targetLm,
+                ConversionOptions.defaults().withCanonicalTypes(CanonicalTypes.of(km)), null);
+
+        assertThat(result.canonicalRecords()).extracting(r -> r.values().get("Nummer"))
+                .containsExactly(7L, new BigDecimal("12.50"), "p1", 9L);
+        assertThat(result.canonicalRecords().get(0).values())
+                .containsEntry("Name", "42")
+                .containsEntry("Form", "Verein.Domain.Koerperschaft.HandelsGesellschaft.AG");
+        assertThat(written.get("TGT_ORGANISATION")).extracting(r -> r.get("ID")).containsExactly(7L, new BigDecimal("12.50"));
+        assertThat(written.get("TGT_ORGANISATION")).extracting(r -> r.get("FORM_CODE")).containsExactly(5, 200);
+    }
+
+    @Test
+    void generatesReproducibleIdentsForDataWithoutIdentColumn(@TempDir Path tempDir) throws Exception {
+        Path lmFile = Files.writeString(tempDir.resolve("source.lm"), """
+                LM Source;
+                DATA Person FROM SRC_PERSON CLASS Verein.Domain.Person {
+                  COLUMN LAST_NAME -> Name;
+                  COLUMN FIRST_NAME -> Vorname;
+                }
+                """);
+        var sourceLm = new LmParserFacade().parse(lmFile);
+        var targetLm = new LmParserFacade().parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        RecordSourceReader reader = (sourceName, equalsFilter) -> sourceName.equals("SRC_PERSON")
+                ? List.of(row("LAST_NAME", "A", "FIRST_NAME", "a"), row("LAST_NAME", "B", "FIRST_NAME", "b"), row("LAST_NAME", "A", "FIRST_NAME", "a"))
+                : List.of();
+        RecordTargetWriter discard = (targetName, rows) -> {};
+        var engine = new ConversionEngine();
+        var defaults = ConversionOptions.defaults();
+
+        var counter = engine.convert(reader, discard, sourceLm, targetLm, defaults.withIdentStrategy(IdentStrategy.COUNTER), null).canonicalRecords();
+        assertThat(counter).extracting(r -> r.ident()).containsExactly("Person:1", "Person:2", "Person:3");
+
+        var hashed = engine.convert(reader, discard, sourceLm, targetLm, defaults, null).canonicalRecords();
+        var hashedAgain = engine.convert(reader, discard, sourceLm, targetLm, defaults.withIdentStrategy(IdentStrategy.CONTENT_HASH), null).canonicalRecords();
+        assertThat(hashedAgain).extracting(r -> r.ident()).isEqualTo(hashed.stream().map(r -> r.ident()).toList());
+        assertThat(hashed).extracting(r -> r.ident()).doesNotHaveDuplicates();
+        RecordSourceReader reordered = (sourceName, equalsFilter) -> sourceName.equals("SRC_PERSON")
+                ? List.of(row("LAST_NAME", "A", "FIRST_NAME", "a"), row("LAST_NAME", "A", "FIRST_NAME", "a"), row("LAST_NAME", "B", "FIRST_NAME", "b"))
+                : List.of();
+        var hashedReordered = engine.convert(reordered, discard, sourceLm, targetLm, defaults, null).canonicalRecords();
+        assertThat(hashedReordered).extracting(r -> r.ident()).containsExactlyInAnyOrderElementsOf(hashed.stream().map(r -> r.ident()).toList());
+        assertThat(UUID.fromString(hashed.get(0).ident()).version()).isEqualTo(8);
+
+        var timeOrdered = engine.convert(reader, discard, sourceLm, targetLm, defaults.withIdentStrategy(IdentStrategy.UUIDV7), null).canonicalRecords();
+        List<String> idents = timeOrdered.stream().map(r -> r.ident()).toList();
+        assertThat(idents).doesNotHaveDuplicates().isSorted();
+        assertThat(idents).allSatisfy(ident -> assertThat(UUID.fromString(ident).version()).isEqualTo(7));
+    }
+
+    @Test
+    void incrementalModeRequiresReproducibleIdentsForDataWithoutIdentColumn(@TempDir Path tempDir) throws Exception {
+        Path lmFile = Files.writeString(tempDir.resolve("source.lm"), """
+                LM Source;
+                DATA Person FROM SRC_PERSON CLASS Verein.Domain.Person {
+                  COLUMN LAST_NAME -> Name;
+                }
+                """);
+        var sourceLm = new LmParserFacade().parse(lmFile);
+        var targetLm = new LmParserFacade().parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        RecordSourceReader empty = (sourceName, equalsFilter) -> List.of();
+        RecordTargetWriter discard = (targetName, rows) -> {};
+        var engine = new ConversionEngine();
+        var incremental = ConversionOptions.defaults().withMode(ConversionOptions.Mode.INCREMENTAL).withDeltaState(tempDir.resolve("delta.state"));
+
+        for (IdentStrategy strategy : List.of(IdentStrategy.UUIDV7, IdentStrategy.RANDOM_UUID, IdentStrategy.COUNTER)) {
+            assertThatThrownBy(() -> engine.convert(empty, discard, sourceLm, targetLm, incremental.withIdentStrategy(strategy), null))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Source DATA Person has no IDENT column; INCREMENTAL mode needs one or ident strategy CONTENT_HASH instead of " + strategy);
+        }
+        assertThat(engine.convert(empty, discard, sourceLm, targetLm, incremental, null).deltaStats().inserted()).isZero();
+    }
+
+    @Test
+    void checkpointsRequireReproducibleIdentsForDataWithoutIdentColumn(@TempDir Path tempDir) throws Exception {
+        Path lmFile = Files.writeString(tempDir.resolve("source.lm"), """
+                LM Source;
+                DATA Person FROM SRC_PERSON CLASS Verein.Domain.Person {
+                  COLUMN LAST_NAME -> Name;
+                }
+                """);
+        var sourceLm = new LmParserFacade().parse(lmFile);
+        var targetLm = new LmParserFacade().parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        RecordSourceReader empty = (sourceName, equalsFilter) -> List.of();
+        RecordTargetWriter discard = (targetName, rows) -> {};
+        var engine = new ConversionEngine();
+        var checkpointed = ConversionOptions.defaults().withMode(ConversionOptions.Mode.STREAMING).withCheckpoint(tempDir.resolve("run.checkpoint"));
+
+        for (IdentStrategy strategy : List.of(IdentStrategy.UUIDV7, IdentStrategy.RANDOM_UUID)) {
+            assertThatThrownBy(() -> engine.convert(empty, discard, sourceLm, targetLm, checkpointed.withIdentStrategy(strategy), null))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Source DATA Person has no IDENT column; checkpoints need one or ident strategy COUNTER or CONTENT_HASH instead of " + strategy);
+        }
+        for (IdentStrategy strategy : List.of(IdentStrategy.COUNTER, IdentStrategy.CONTENT_HASH)) {
+            assertThat(engine.convert(empty, discard, sourceLm, targetLm, checkpointed.withIdentStrategy(strategy), null).recordsRead()).isZero();
+        }
+    }
+
+    private static Map<String, Object> row(Object... keyValues) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            row.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return row;
+    }
+}
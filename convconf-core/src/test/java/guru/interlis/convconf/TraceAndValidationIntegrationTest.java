@@ -2,15 +2,34 @@ package guru.interlis.convconf;
 
 import guru.interlis.convconf.api.ConvConfService;
 import guru.interlis.convconf.h2.H2Adapter;
+import guru.interlis.convconf.interlis.InterlisModelCompiler;
+import guru.interlis.convconf.lm.LmParserFacade;
+import guru.interlis.convconf.runtime.CanonicalRecord;
+import guru.interlis.convconf.runtime.ConversionEngine;
+import guru.interlis.convconf.runtime.ConversionOptions;
+import guru.interlis.convconf.runtime.RecordSourceReader;
+import guru.interlis.convconf.runtime.RecordTargetWriter;
+import guru.interlis.convconf.runtime.TraceEvent;
+import guru.interlis.convconf.runtime.TraceFilter;
+import guru.interlis.convconf.trace.AsyncFileTraceSink;
+import guru.interlis.convconf.trace.BinaryTraceReader;
+import guru.interlis.convconf.trace.TraceFormat;
+import guru.interlis.convconf.validate.KmResultValidator;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class TraceAndValidationIntegrationTest {
     @Test
@@ -36,6 +55,203 @@ class TraceAndValidationIntegrationTest {
         }
     }
 
+    @Test
+    void streamsTraceToFileWhileConverting(@TempDir Path tempDir) throws Exception {
+        String srcJdbc = "jdbc:h2:mem:trace_file_src;DB_CLOSE_DELAY=-1";
+        String tgtJdbc = "jdbc:h2:mem:trace_file_tgt;DB_CLOSE_DELAY=-1";
+        Path traceFile = tempDir.resolve("trace.txt");
+        try (Connection src = DriverManager.getConnection(srcJdbc, "sa", "");
+             Connection tgt = DriverManager.getConnection(tgtJdbc, "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(tgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+
+            ConversionEngine.ConversionResult result;
+            try (var sink = new AsyncFileTraceSink(traceFile, 4)) {
+                result = new ConvConfService().convert(
+                        Path.of("../examples/h2-to-h2/km/verein.ili"),
+                        Path.of("../examples/h2-to-h2/lm/source.lm"),
+                        Path.of("../examples/h2-to-h2/lm/target.lm"),
+                        new H2Adapter(src),
+                        new H2Adapter(tgt),
+                        ConversionOptions.defaults().withMode(ConversionOptions.Mode.STREAMING),
+                        sink
+                );
+            }
+            assertThat(result.traceEvents()).isEmpty();
+            List<String> lines = Files.readAllLines(traceFile);
+            assertThat(lines).isNotEmpty();
+            assertThat(lines).anyMatch(l -> l.startsWith("READ|Verein.Domain.Person|"));
+            assertThat(lines).anyMatch(l -> l.startsWith("WRITE|Verein.Domain.Person|") && l.endsWith("|target=TGT_PERSON"));
+        }
+    }
+
+    @Test
+    void queriesBinaryTraceByIdentAndColumnThroughBlockIndex(@TempDir Path tempDir) throws Exception {
+        Path traceFile = tempDir.resolve("trace.bin");
+        int records = 5_000;
+        try (var sink = new AsyncFileTraceSink(traceFile, TraceFormat.BINARY)) {
+            for (int i = 0; i < records; i++) {
+                String ident = "id-" + i;
+                sink.accept(new TraceEvent("READ", "Verein.Domain.Person", ident, "NAME", "Name", "n" + i, "source=SRC_PERSON"));
+                sink.accept(new TraceEvent("WRITE", "Verein.Domain.Person", ident, "Name", "PERSON_NAME", "n" + i, "target=TGT_PERSON"));
+            }
+            sink.accept(new TraceEvent("READ", "Verein.Domain.Comment", "c-1", "TEXT", "Text", null, "source=SRC_COMMENT"));
+        }
+        assertThat(Files.size(traceFile)).isLessThan(Files.size(writeText(tempDir.resolve("trace.txt"), traceFile)) / 2);
+
+        try (var reader = BinaryTraceReader.open(traceFile)) {
+            assertThat(reader.eventCount()).isEqualTo(2L * records + 1);
+            assertThat(reader.blockCount()).isGreaterThan(2);
+
+            var lineage = reader.byIdent("id-4321");
+            assertThat(lineage).extracting(TraceEvent::phase).containsExactly("READ", "WRITE");
+            assertThat(lineage.get(1)).isEqualTo(new TraceEvent("WRITE", "Verein.Domain.Person", "id-4321", "Name", "PERSON_NAME", "n4321", "target=TGT_PERSON"));
+            assertThat(reader.blocksDecoded()).isLessThan(reader.blockCount());
+
+            assertThat(reader.byColumn("TEXT")).singleElement().satisfies(e -> assertThat(e.value()).isNull());
+            assertThat(reader.byColumn("PERSON_NAME")).hasSize(records);
+            assertThat(reader.byColumn("UNKNOWN")).isEmpty();
+            assertThat(reader.byIdent("missing")).isEmpty();
+        }
+    }
+
+    private static Path writeText(Path textFile, Path binaryFile) throws Exception {
+        try (var reader = BinaryTraceReader.open(binaryFile); var sink = new AsyncFileTraceSink(textFile)) {
+            reader.forEach(sink::accept);
+        }
+        return textFile;
+    }
+
+    @Test
+    void filtersTraceByClassPhaseIdentAndSampling() throws Exception {
+        var parser = new LmParserFacade();
+        var sourceLm = parser.parse(Path.of("../examples/h2-to-h2/lm/source.lm"));
+        var targetLm = parser.parse(Path.of("../examples/h2-to-h2/lm/target.lm"));
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:trace_filter_src;DB_CLOSE_DELAY=-1", "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            RecordTargetWriter discard = (targetName, rows) -> {};
+            var engine = new ConversionEngine();
+            var traced = ConversionOptions.defaults().withTrace(true);
+
+            var all = engine.convert(new H2Adapter(src), discard, sourceLm, targetLm, traced, null).traceEvents();
+            var personWrites = engine.convert(new H2Adapter(src), discard, sourceLm, targetLm,
+                    traced.withTraceFilter(TraceFilter.ALL.withClasses(List.of("Verein.Domain.Person")).withPhases(List.of("write"))), null).traceEvents();
+            assertThat(personWrites).isNotEmpty()
+                    .allMatch(e -> e.phase().equals("WRITE") && e.className().equals("Verein.Domain.Person"))
+                    .hasSize((int) all.stream().filter(e -> e.phase().equals("WRITE") && e.className().equals("Verein.Domain.Person")).count());
+
+            String ident = personWrites.get(0).ident();
+            var lineage = engine.convert(new H2Adapter(src), discard, sourceLm, targetLm,
+                    traced.withTraceFilter(TraceFilter.ALL.withIdents(List.of(ident))), null).traceEvents();
+            assertThat(lineage).extracting(e -> e.phase()).contains("READ", "WRITE");
+            assertThat(lineage).allMatch(e -> e.ident().equals(ident));
+
+            var sampledOut = engine.convert(new H2Adapter(src), discard, sourceLm, targetLm,
+                    traced.withTraceFilter(TraceFilter.ALL.withSampleRate(0.0)), null).traceEvents();
+            assertThat(sampledOut).isEmpty();
+
+            var everySecond = engine.convert(new H2Adapter(src), discard, sourceLm, targetLm,
+                    traced.withTraceFilter(TraceFilter.ALL.withEveryNth(2).withTables(List.of("SRC_PERSON"))), null).traceEvents();
+            assertThat(everySecond).extracting(e -> e.ident()).containsOnly("HRG", "Jens");
+        }
+    }
+
+    @Test
+    void validatesSourceColumnsFromMetadataOrDuringTheSingleReadPass() throws Exception {
+        try (Connection src = DriverManager.getConnection("jdbc:h2:mem:validate_src;DB_CLOSE_DELAY=-1", "sa", "");
+             Connection tgt = DriverManager.getConnection("jdbc:h2:mem:validate_tgt;DB_CLOSE_DELAY=-1", "sa", "")) {
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-schema.sql"));
+            runSql(src, Path.of("../examples/h2-to-h2/sql/source-seed.sql"));
+            runSql(tgt, Path.of("../examples/h2-to-h2/sql/target-schema.sql"));
+            var service = new ConvConfService();
+            var plan = service.plan(Path.of("../examples/h2-to-h2/km/verein.ili"),
+                    Path.of("../examples/h2-to-h2/lm/source.lm"), Path.of("../examples/h2-to-h2/lm/target.lm"));
+            RecordTargetWriter discard = (targetName, rows) -> {};
+            Map<String, Integer> opens = new HashMap<>();
+            RecordSourceReader listReader = (sourceName, equalsFilter) -> {
+                opens.merge(sourceName, 1, Integer::sum);
+                return new H2Adapter(src).read(sourceName, equalsFilter);
+            };
+
+            service.executePlan(Path.of("../examples/h2-to-h2/km/verein.ili"), plan, listReader, discard, ConversionOptions.defaults());
+            assertThat(opens).isNotEmpty().allSatisfy((table, count) -> assertThat(count).as(table).isEqualTo(1));
+
+            try (Statement s = src.createStatement()) {
+                s.execute("ALTER TABLE SRC_PERSON DROP COLUMN FIRST_NAME");
+            }
+            assertThatThrownBy(() -> service.executePlan(Path.of("../examples/h2-to-h2/km/verein.ili"), plan, new H2Adapter(src), new H2Adapter(tgt),
+                    ConversionOptions.defaults().withMode(ConversionOptions.Mode.STREAMING)))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Missing column FIRST_NAME in source SRC_PERSON");
+            try (Statement s = tgt.createStatement(); var rs = s.executeQuery("SELECT COUNT(*) FROM TGT_ORGANISATION")) {
+                rs.next();
+                assertThat(rs.getInt(1)).isZero();
+            }
+            assertThatThrownBy(() -> service.executePlan(Path.of("../examples/h2-to-h2/km/verein.ili"), plan, listReader, discard, ConversionOptions.defaults()))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("Missing column FIRST_NAME in source SRC_PERSON");
+        }
+    }
+
+    @Test
+    void validatesKmRulesInlineWithErrorCapAndParallelWorkers() throws Exception {
+        var km = new InterlisModelCompiler().compile(Path.of("../examples/h2-to-h2/km/verein.ili")).kmSchema();
+        List<CanonicalRecord> records = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            var org = CanonicalRecord.of("Verein.Domain.Organisation", "o" + i);
+            org.values().put("Nummer", "o" + i);
+            org.values().put("Name", i % 1000 == 7 ? " " : "Org " + i);
+            org.values().put("Form", i % 1000 == 8 ? "Verein.Domain.Koerperschaft.Bank" : "Verein.Domain.Koerperschaft.HandelsGesellschaft.AG");
+            records.add(org);
+        }
+        var validator = new KmResultValidator();
+        List<String> expected = validator.validate(km, records);
+        assertThat(expected).hasSize(10)
+                .contains("Mandatory attribute Verein.Domain.Organisation.Name is empty for ident o7",
+                        "Enumeration attribute Verein.Domain.Organisation.Form has undefined value Verein.Domain.Koerperschaft.Bank for ident o8");
+
+        try (var parallel = validator.open(km, 4, 100)) {
+            records.forEach(parallel);
+            assertThat(parallel.finish()).containsExactlyInAnyOrderElementsOf(expected);
+        }
+        try (var capped = validator.open(km, 1, 3)) {
+            assertThatThrownBy(() -> records.forEach(capped))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageContaining("stopped after 3 errors");
+            assertThat(capped.finish()).hasSize(3);
+        }
+    }
+
+    @Test
+    void checksIdentUniquenessAndDeferredReferencesThroughHashIndexes() throws Exception {
+        var km = new InterlisModelCompiler().compile(Path.of("../examples/h2-to-h2/km/verein.ili")).kmSchema();
+        List<CanonicalRecord> records = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            var person = CanonicalRecord.of("Verein.Domain.Person", "p" + i);
+            person.values().putAll(Map.of("Nummer", "p" + i, "Name", "N", "Vorname", "V", "Vertretene_Organisation", i == 5 ? "nope" : "o" + (i % 10)));
+            records.add(person);
+        }
+        for (int i = 0; i < 10; i++) {
+            var org = CanonicalRecord.of("Verein.Domain.Organisation", "o" + i);
+            org.values().putAll(Map.of("Nummer", "o" + i, "Name", "Org"));
+            records.add(org);
+        }
+        var duplicate = CanonicalRecord.of("Verein.Domain.Organisation", "o3");
+        duplicate.values().putAll(Map.of("Nummer", "o3", "Name", "Again"));
+        records.add(duplicate);
+
+        List<String> expected = List.of("Duplicate ident o3 in class Verein.Domain.Organisation",
+                "Reference Verein.Domain.Person.Vertretene_Organisation of ident p5 points to missing Verein.Domain.Organisation nope");
+        var validator = new KmResultValidator();
+        assertThat(validator.validate(km, records)).containsExactlyElementsOf(expected);
+        try (var session = validator.open(km, 1, 100)) {
+            records.forEach(session);
+            assertThat(session.finish()).containsExactlyElementsOf(expected);
+        }
+    }
+
     private void runSql(Connection con, Path file) throws Exception {
         for (String stmt : Files.readString(file).split(";")) {
             if (stmt.isBlank()) continue;
@@ -0,0 +1,131 @@
+package guru.interlis.convconf;
+
+import guru.interlis.convconf.lm.ColumnMap;
+import guru.interlis.convconf.lm.DataDecl;
+import guru.interlis.convconf.lm.LmModel;
+import guru.interlis.convconf.lm.MappingDirection;
+import guru.interlis.convconf.runtime.CanonicalRecord;
+import guru.interlis.convconf.runtime.CanonicalRecordStore;
+import guru.interlis.convconf.runtime.ConversionEngine;
+import guru.interlis.convconf.runtime.RecordTargetWriter;
+import guru.interlis.convconf.runtime.TargetTableWriter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the former per-declaration scan over all canonical records with the
+ * class-partitioned write; both sides map and append every record to the same writer. Run with {@code gradle :convconf-core:benchmark}.
+ */
+@Tag("benchmark")
+class WriteCanonicalBenchmarkTest {
+    private static final int RECORDS_PER_CLASS = 2_000;
+    private static final int ROUNDS = 5;
+
+    @Test
+    void writeCostGrowsLinearlyWithNumberOfClasses() throws Exception {
+        ConversionEngine engine = new ConversionEngine();
+        System.out.printf("%8s %10s %18s %18s%n", "classes", "records", "scan ns/record", "indexed ns/record");
+        for (int classes : new int[]{10, 20, 40, 80}) {
+            LmModel lm = targetLm(classes);
+            List<CanonicalRecord> records = records(classes);
+            CanonicalRecordStore store = CanonicalRecordStore.of(records);
+            CountingWriter writer = new CountingWriter();
+
+            long scanNanos = Long.MAX_VALUE;
+            long indexedNanos = Long.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                writer.rows = 0;
+                long start = System.nanoTime();
+                long scanned = legacyWrite(writer, lm, records);
+                scanNanos = Math.min(scanNanos, System.nanoTime() - start);
+                assertThat(scanned).isEqualTo(records.size());
+                assertThat(writer.rows).isEqualTo(records.size());
+
+                writer.rows = 0;
+                start = System.nanoTime();
+                long written = engine.writeCanonical(writer, lm, store, null);
+                indexedNanos = Math.min(indexedNanos, System.nanoTime() - start);
+                assertThat(written).isEqualTo(records.size());
+                assertThat(writer.rows).isEqualTo(records.size());
+            }
+            System.out.printf("%8d %10d %18.1f %18.1f%n", classes, records.size(),
+                    (double) scanNanos / records.size(), (double) indexedNanos / records.size());
+        }
+    }
+
+    /**
+     * Former {@code writeCanonical}: every declaration visits every record and maps the matching
+     * ones to a target row that is appended to the same writer.
+     */
+    private static long legacyWrite(RecordTargetWriter writer, LmModel lm, List<CanonicalRecord> records) throws Exception {
+        long written = 0;
+        for (DataDecl d : lm.dataDecls()) {
+            try (TargetTableWriter table = writer.open(d.sourceTable())) {
+                for (CanonicalRecord rec : records) {
+                    if (!rec.className().equals(d.className())) continue;
+                    Map<String, Object> row = new LinkedHashMap<>();
+                    if (d.identColumn() != null) row.put(d.identColumn(), rec.ident());
+                    for (ColumnMap c : d.columns()) {
+                        row.put(c.column(), rec.values().get(c.targetPath()));
+                    }
+                    table.append(row);
+                    written++;
+                }
+            }
+        }
+        return written;
+    }
+
+    private static LmModel targetLm(int classes) {
+        List<DataDecl> decls = new ArrayList<>();
+        for (int c = 0; c < classes; c++) {
+            decls.add(new DataDecl("D" + c, "TGT_" + c, className(c), MappingDirection.BIDIRECTIONAL, "T_ID",
+                    Map.of(), List.of(), List.of(), List.of(), List.of(), List.of(), List.of(), List.of(),
+                    List.of(new ColumnMap("NAME", "name", null))));
+        }
+        return new LmModel("Bench", Map.of(), decls, List.of());
+    }
+
+    private static List<CanonicalRecord> records(int classes) {
+        List<CanonicalRecord> records = new ArrayList<>(classes * RECORDS_PER_CLASS);
+        for (int i = 0; i < RECORDS_PER_CLASS; i++) {
+            for (int c = 0; c < classes; c++) {
+                CanonicalRecord rec = CanonicalRecord.of(className(c), c + "-" + i);
+                rec.values().put("name", "n" + i);
+                records.add(rec);
+            }
+        }
+        return records;
+    }
+
+    private static String className(int c) {
+        return "Bench.Topic.C" + c;
+    }
+
+    private static final class CountingWriter implements RecordTargetWriter {
+        private long rows;
+
+        @Override
+        public void write(String targetName, List<Map<String, Object>> rows) {
+            this.rows += rows.size();
+        }
+
+        @Override
+        public TargetTableWriter open(String targetName) {
+            return new TargetTableWriter() {
+                @Override
+                public void append(Map<String, Object> row) {
+                    rows++;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package guru.interlis.convconf.postgresql;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PgCopyCodecTest {
+    @Test
+    void textFieldsEscapeControlCharactersAndNull() {
+        StringBuilder line = new StringBuilder();
+        PgCopyCodec.appendText(line, "a\tb\nc\rd\\e");
+        line.append('\t');
+        PgCopyCodec.appendText(line, null);
+        line.append('\t');
+        PgCopyCodec.appendText(line, "\\N");
+        line.append('\t');
+        PgCopyCodec.appendText(line, "");
+
+        assertThat(line.toString()).isEqualTo("a\\tb\\nc\\rd\\\\e\t\\N\t\\\\N\t");
+        assertThat(PgCopyCodec.splitText(line.toString(), 4)).containsExactly("a\tb\nc\rd\\e", null, "\\N", "");
+    }
+
+    @Test
+    void binaryFieldsRoundTrip() throws Exception {
+        assertThat(roundTrip(PgCopyCodec.Type.INT2, (short) -32768)).isEqualTo(-32768);
+        assertThat(roundTrip(PgCopyCodec.Type.INT4, Integer.MIN_VALUE)).isEqualTo(Integer.MIN_VALUE);
+        assertThat(roundTrip(PgCopyCodec.Type.INT8, Long.MAX_VALUE)).isEqualTo(Long.MAX_VALUE);
+        assertThat(roundTrip(PgCopyCodec.Type.FLOAT4, 1.5f)).isEqualTo(1.5f);
+        assertThat(roundTrip(PgCopyCodec.Type.FLOAT8, -0.125d)).isEqualTo(-0.125d);
+        assertThat(roundTrip(PgCopyCodec.Type.BOOL, true)).isEqualTo(true);
+        assertThat(roundTrip(PgCopyCodec.Type.BOOL, "f")).isEqualTo(false);
+        assertThat(roundTrip(PgCopyCodec.Type.DATE, LocalDate.of(1999, 12, 31))).isEqualTo(java.sql.Date.valueOf("1999-12-31"));
+        assertThat(roundTrip(PgCopyCodec.Type.TIMESTAMP, LocalDateTime.of(2024, 2, 29, 13, 45, 7, 123_456_000)))
+                .isEqualTo(Timestamp.valueOf("2024-02-29 13:45:07.123456"));
+        assertThat(roundTrip(PgCopyCodec.Type.TEXT, "Zürich")).isEqualTo("Zürich");
+        assertThat((byte[]) roundTrip(PgCopyCodec.Type.BYTEA, new byte[] {0, -1, 42})).containsExactly(0, -1, 42);
+        for (PgCopyCodec.Type type : List.of(PgCopyCodec.Type.INT4, PgCopyCodec.Type.NUMERIC, PgCopyCodec.Type.TEXT)) {
+            assertThat(roundTrip(type, null)).isNull();
+        }
+    }
+
+    @Test
+    void numericKeepsScaleAndSign() throws Exception {
+        for (String value : List.of("0", "0.00", "1", "-1", "10000", "-12345.6789", "0.0001", "-0.00012", "123456789012345678901234.5", "100.10")) {
+            assertThat(roundTrip(PgCopyCodec.Type.NUMERIC, new BigDecimal(value))).isEqualTo(new BigDecimal(value));
+        }
+        assertThat(roundTrip(PgCopyCodec.Type.NUMERIC, 42L)).isEqualTo(new BigDecimal("42"));
+        assertThat(roundTrip(PgCopyCodec.Type.NUMERIC, Double.NaN)).isEqualTo(Double.NaN);
+    }
+
+    @Test
+    void inlineEscapesValuesAndSkipsQuotedQuestionMarks() {
+        String sql = "SELECT \"A?B\", 'x?' FROM \"T\"\"?\" WHERE \"C\" = ? AND \"D\" = ? AND \"E\" = ?";
+
+        assertThat(PostgreSqlAdapter.inline(sql, Arrays.asList("it's", "back\\slash", null)))
+                .isEqualTo("SELECT \"A?B\", 'x?' FROM \"T\"\"?\" WHERE \"C\" = E'it''s' AND \"D\" = E'back\\\\slash' AND \"E\" = NULL");
+    }
+
+    private static Object roundTrip(PgCopyCodec.Type type, Object value) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            PgCopyCodec.writeBinary(out, type, value);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        int length = in.readInt();
+        Object decoded = PgCopyCodec.readBinary(in, type, length);
+        assertThat(in.available()).isZero();
+        return decoded;
+    }
+}